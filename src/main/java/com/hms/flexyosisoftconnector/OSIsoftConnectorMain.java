@@ -2,10 +2,14 @@ package com.hms.flexyosisoftconnector;
 
 import com.ewon.ewonitf.SysControlBlock;
 import com.hms.flexyosisoftconnector.configuration.OSIsoftConfig;
+import com.hms.flexyosisoftconnector.datafilter.DataPointPipeline;
+import com.hms.flexyosisoftconnector.datafilter.DataPointProcessor;
+import com.hms.flexyosisoftconnector.datafilter.DataPointSpanQueue;
 import com.hms.flexyosisoftconnector.dataserver.DataPoster;
 import com.hms.flexyosisoftconnector.dataserver.OSIsoftServer;
 import com.hms.flexyosisoftconnector.payloadhandler.PayloadManager;
-import com.hms_networks.americas.sc.extensions.datapoint.DataPoint;
+import com.hms.flexyosisoftconnector.payloadhandler.PayloadSizeController;
+import com.hms.flexyosisoftconnector.payloadhandler.TagDescriptorTable;
 import com.hms_networks.americas.sc.extensions.historicaldata.CircularizedFileException;
 import com.hms_networks.americas.sc.extensions.historicaldata.CorruptedTimeTrackerException;
 import com.hms_networks.americas.sc.extensions.historicaldata.EbdTimeoutException;
@@ -29,6 +33,11 @@ import java.util.Date;
  * <p>This demo reads multiple tag values from an Ewon Flexy IO Server and POSTs them to an OSIsoft
  * PI Server.
  *
+ * <p>The historical logs are polled by the main thread, payloads are built by the {@link
+ * DataPointProcessor} thread and posted by one or more {@link DataPoster} threads. The stages are
+ * connected by bounded queues, so each stage waits or stops polling when the next stage falls
+ * behind.
+ *
  * <p>HMS Networks Inc. Solution Center
  */
 public class OSIsoftConnectorMain {
@@ -48,9 +57,15 @@ public class OSIsoftConnectorMain {
   /** PI Server management object */
   static OSIsoftServer piServer;
 
+  /** The maximum number of data points read from the historical logs waiting to be processed. */
+  static final int SPAN_QUEUE_MAX_DATA_POINTS = 2000;
+
   /** Constructs payloads out of data points and holds them for sending. */
   static PayloadManager payloadMngr;
 
+  /** Holds the spans of data points read from the historical logs until they are processed. */
+  static DataPointSpanQueue spanQueue;
+
   /** Track current number of consecutive times the payload queue is full. */
   static long payloadQueueFullCount = 0;
 
@@ -131,7 +146,16 @@ public class OSIsoftConnectorMain {
       System.exit(1);
     }
 
-    payloadMngr = new PayloadManager(OSIsoftConfig.getCommunicationType());
+    // precompute the OSIsoft names and types of each tag once
+    TagDescriptorTable.build();
+
+    PayloadSizeController.init();
+
+    payloadMngr =
+        new PayloadManager(
+            OSIsoftConfig.getCommunicationType(), OSIsoftConfig.getPosterWorkerCount());
+
+    DataPointPipeline.init(payloadMngr);
 
     piServer = new OSIsoftServer();
 
@@ -163,8 +187,15 @@ public class OSIsoftConnectorMain {
       Logger.LOG_EXCEPTION(e);
     }
 
-    DataPoster dataThread = new DataPoster(payloadMngr);
-    dataThread.start();
+    // start one poster worker for each payload partition
+    for (int i = 0; i < payloadMngr.getPartitionCount(); i++) {
+      DataPoster dataThread = new DataPoster(payloadMngr.getPartition(i));
+      dataThread.start();
+    }
+
+    spanQueue = new DataPointSpanQueue(SPAN_QUEUE_MAX_DATA_POINTS);
+    DataPointProcessor processorThread = new DataPointProcessor(spanQueue, payloadMngr);
+    processorThread.start();
 
     while (true) {
       getNewPayloadToSend();
@@ -181,7 +212,8 @@ public class OSIsoftConnectorMain {
   }
 
   /**
-   * Grabs a new set of data points from the top of the queue and feeds each on to payload manager.
+   * Grabs a new set of data points from the top of the queue and adds them to the span queue, where
+   * the data point processor feeds each on to payload manager.
    */
   private static void getNewPayloadToSend() {
     // Update available memory variable
@@ -209,8 +241,8 @@ public class OSIsoftConnectorMain {
         isMemoryCurrentlyLow = false;
       }
 
-      // If the payload queue is not full, read from historical data
-      if (!payloadMngr.isQueueFull()) {
+      // If the span queue and payload queue are not full, read from historical data
+      if (!spanQueue.isFull() && !payloadMngr.isQueueFull()) {
 
         payloadQueueFullCount = 0;
         payloadQueueFullWarnThresh = 1;
@@ -272,23 +304,11 @@ public class OSIsoftConnectorMain {
           }
 
           Logger.LOG_DEBUG("Grabbed " + queuePoints.size() + " datapoints for proccessing.");
-          for (int i = 0; i < queuePoints.size(); i++) {
-            DataPoint data = ((DataPoint) queuePoints.get(i));
-
-            // build a payload out of data points
-            if (data != null) {
-              payloadMngr.appendDataPointToPayLoad(data);
-            }
-
-            // Sleep between datapoints to significantly increase Flexy performance.
-            Thread.yield();
-            try {
-              final int threadWaitMS = 5;
-              Thread.sleep(threadWaitMS);
-            } catch (InterruptedException e) {
-              Logger.LOG_EXCEPTION(e);
-              Logger.LOG_SERIOUS("Exception thrown while sleeping thread.");
-            }
+          try {
+            spanQueue.put(queuePoints);
+          } catch (InterruptedException e) {
+            Logger.LOG_EXCEPTION(e);
+            Logger.LOG_SERIOUS("Exception thrown while adding datapoints to the span queue.");
           }
         }
       } else {
@@ -296,7 +316,7 @@ public class OSIsoftConnectorMain {
 
         if (payloadQueueFullCount >= payloadQueueFullWarnThresh) {
           payloadQueueFullCount = 0;
-          Logger.LOG_DEBUG("Reading historical data skipped due to full payload queue.");
+          Logger.LOG_DEBUG("Reading historical data skipped due to full span or payload queue.");
 
           // after warning increase the threshold by factor of 10, but check for a potential
           // rollover
@@ -5,6 +5,7 @@ import com.ewon.ewonitf.SysControlBlock;
 import com.ewon.ewonitf.TagControl;
 import com.hms_networks.americas.sc.extensions.fileutils.FileAccessManager;
 import com.hms_networks.americas.sc.extensions.historicaldata.HistoricalDataQueueManager;
+import com.hms_networks.americas.sc.extensions.json.JSONArray;
 import com.hms_networks.americas.sc.extensions.json.JSONException;
 import com.hms_networks.americas.sc.extensions.json.JSONObject;
 import com.hms_networks.americas.sc.extensions.json.JSONTokener;
@@ -149,6 +150,172 @@ public class OSIsoftConfig {
    */
   private static int dataPostRateMs;
 
+  /** Key to access the poster worker count setting from config file JSON. */
+  private static final String POSTER_WORKER_COUNT_KEY = "PosterWorkerCount";
+
+  /**
+   * The default value for the poster worker count setting. This value is used if the setting is
+   * not present in the config file.
+   */
+  private static final int POSTER_WORKER_COUNT_DEFAULT = 1;
+
+  /** The maximum value of the poster worker count setting. */
+  public static final int POSTER_WORKER_COUNT_MAX = 8;
+
+  /**
+   * The poster worker count setting. This many threads post payloads to the OSIsoft server at the
+   * same time, each posting the payloads of its own share of the containers.
+   */
+  private static int posterWorkerCount = POSTER_WORKER_COUNT_DEFAULT;
+
+  /** Key to access the payload target size (in bytes) setting from config file JSON. */
+  private static final String PAYLOAD_TARGET_SIZE_BYTES_KEY = "PayloadTargetSizeBytes";
+
+  /**
+   * The default value for the payload target size (in bytes) setting. This value is used if the
+   * setting is not present in the config file.
+   */
+  private static final int PAYLOAD_TARGET_SIZE_BYTES_DEFAULT = 16384;
+
+  /**
+   * The payload target size (in bytes) setting. A payload is completed once its serialized size
+   * reaches this number of bytes.
+   */
+  private static int payloadTargetSizeBytes = PAYLOAD_TARGET_SIZE_BYTES_DEFAULT;
+
+  /** Key to access the payload maximum data points setting from config file JSON. */
+  private static final String PAYLOAD_MAX_DATA_POINTS_KEY = "PayloadMaxDataPoints";
+
+  /**
+   * The default value for the payload maximum data points setting. This value is used if the
+   * setting is not present in the config file.
+   */
+  private static final int PAYLOAD_MAX_DATA_POINTS_DEFAULT = 1000;
+
+  /**
+   * The payload maximum data points setting. This is a safety cap on the number of data points in
+   * a payload, regardless of the payload size.
+   */
+  private static int payloadMaxDataPoints = PAYLOAD_MAX_DATA_POINTS_DEFAULT;
+
+  /** Key to access the payload coalesce time setting from config file JSON. */
+  private static final String PAYLOAD_COALESCE_SECONDS_KEY = "PayloadCoalesceSeconds";
+
+  /**
+   * The default value for the payload coalesce time setting. This value is used if the setting is
+   * not present in the config file, and disables coalescing.
+   */
+  private static final long PAYLOAD_COALESCE_SECONDS_DEFAULT = 0;
+
+  /**
+   * The payload coalesce time setting. Values are held for up to this many seconds across polls of
+   * the historical logs, then written to the payload grouped by container, so more values of each
+   * container share one container header. Zero disables coalescing.
+   */
+  private static long payloadCoalesceSeconds = PAYLOAD_COALESCE_SECONDS_DEFAULT;
+
+  /** Key to access the payload linger time setting from config file JSON. */
+  private static final String PAYLOAD_LINGER_MS_KEY = "PayloadLingerMs";
+
+  /**
+   * The default value for the payload linger time setting. This value is used if the setting is not
+   * present in the config file.
+   */
+  private static final long PAYLOAD_LINGER_MS_DEFAULT = 30000;
+
+  /**
+   * The payload linger time setting. A payload is completed once this many milliseconds have passed
+   * since its first value was added, even if no more data points arrive. The value 0 disables the
+   * linger time.
+   */
+  private static long payloadLingerMs = PAYLOAD_LINGER_MS_DEFAULT;
+
+  /** Key to access the container quarantine time setting from config file JSON. */
+  private static final String CONTAINER_QUARANTINE_SECONDS_KEY = "ContainerQuarantineSeconds";
+
+  /**
+   * The default value for the container quarantine time setting. This value is used if the setting
+   * is not present in the config file.
+   */
+  private static final long CONTAINER_QUARANTINE_SECONDS_DEFAULT = 3600;
+
+  /**
+   * The container quarantine time setting. Values of a container rejected by the server are written
+   * to the dead letter file for this many seconds instead of being sent. The value 0 disables the
+   * quarantine, so payloads with rejected containers are retried until they are accepted.
+   */
+  private static long containerQuarantineSeconds = CONTAINER_QUARANTINE_SECONDS_DEFAULT;
+
+  /** Key to access the payload queue budget setting from config file JSON. */
+  private static final String PAYLOAD_QUEUE_BUDGET_BYTES_KEY = "PayloadQueueBudgetBytes";
+
+  /**
+   * The default value for the payload queue budget setting. This value is used if the setting is
+   * not present in the config file.
+   */
+  private static final long PAYLOAD_QUEUE_BUDGET_BYTES_DEFAULT = 1048576;
+
+  /**
+   * The payload queue budget setting. Reading data from the historical logs pauses while the
+   * completed payloads waiting to be sent hold this many bytes of heap memory.
+   */
+  private static long payloadQueueBudgetBytes = PAYLOAD_QUEUE_BUDGET_BYTES_DEFAULT;
+
+  /** Key to access the payload spool size setting from config file JSON. */
+  private static final String PAYLOAD_SPOOL_MAX_BYTES_KEY = "PayloadSpoolMaxBytes";
+
+  /**
+   * The default value for the payload spool size setting. This value is used if the setting is not
+   * present in the config file.
+   */
+  private static final long PAYLOAD_SPOOL_MAX_BYTES_DEFAULT = 0;
+
+  /**
+   * The payload spool size setting. Completed payloads which do not fit in the payload queue, or
+   * are completed while the server cannot be reached, are written to a spool on the file system
+   * holding at most this many bytes. The value 0 disables the spool.
+   */
+  private static long payloadSpoolMaxBytes = PAYLOAD_SPOOL_MAX_BYTES_DEFAULT;
+
+  /** Key to access the adaptive payload size setting from config file JSON. */
+  private static final String PAYLOAD_SIZE_ADAPTIVE_KEY = "PayloadSizeAdaptive";
+
+  /**
+   * The default value for the adaptive payload size setting. This value is used if the setting is
+   * not present in the config file.
+   */
+  private static final boolean PAYLOAD_SIZE_ADAPTIVE_DEFAULT = false;
+
+  /**
+   * The adaptive payload size setting. When enabled, the payload target size is adjusted based on
+   * the observed latency of posting payloads.
+   */
+  private static boolean payloadSizeAdaptive = PAYLOAD_SIZE_ADAPTIVE_DEFAULT;
+
+  /** Key to access the payload latency target fraction setting from config file JSON. */
+  private static final String PAYLOAD_LATENCY_TARGET_FRACTION_KEY = "PayloadLatencyTargetFraction";
+
+  /**
+   * The default value for the payload latency target fraction setting. This value is used if the
+   * setting is not present in the config file.
+   */
+  private static final double PAYLOAD_LATENCY_TARGET_FRACTION_DEFAULT = 0.5;
+
+  /**
+   * The payload latency target fraction setting. This is the fraction of the HTTP timeout which
+   * posting a payload should take when adaptive payload sizing is enabled.
+   */
+  private static double payloadLatencyTargetFraction = PAYLOAD_LATENCY_TARGET_FRACTION_DEFAULT;
+
+  /** Key to access the group containers setting from config file JSON. */
+  private static final String GROUP_CONTAINERS_KEY = "GroupContainers";
+
+  /**
+   * The tag groups, such as "A", whose tags are sent together in one OMF container per group
+   * instead of one container per tag.
+   */
+  private static String[] groupContainerTagGroups = new String[0];
+
   /** Key for accessing the 'QueueDataPollMaxBehindTimeMins' object in the configuration file. */
   private static final String CONFIG_FILE_QUEUE_DATA_POLL_MAX_BEHIND_TIME_MINS_KEY =
       "QueueDataPollMaxBehindTimeMins";
@@ -328,6 +495,211 @@ public class OSIsoftConfig {
               + " ms.");
     }
 
+    // Load poster worker count
+    if (appConfig.has(POSTER_WORKER_COUNT_KEY)) {
+      posterWorkerCount = appConfig.getInt(POSTER_WORKER_COUNT_KEY);
+      Logger.LOG_INFO(
+          "Poster worker count of " + posterWorkerCount + " retrieved from configuration file.");
+    } else {
+      posterWorkerCount = POSTER_WORKER_COUNT_DEFAULT;
+    }
+    if (posterWorkerCount < 1 || posterWorkerCount > POSTER_WORKER_COUNT_MAX) {
+      Logger.LOG_WARN(
+          "Invalid poster worker count of "
+              + posterWorkerCount
+              + ". The value must be between 1 and "
+              + POSTER_WORKER_COUNT_MAX
+              + ". Using default value of "
+              + POSTER_WORKER_COUNT_DEFAULT
+              + ".");
+      posterWorkerCount = POSTER_WORKER_COUNT_DEFAULT;
+    }
+    if (posterWorkerCount > 1) {
+      Logger.LOG_WARN(
+          "Multiple poster workers are experimental and have not been verified on Flexy hardware."
+              + " Set PosterWorkerCount to 1 if payloads fail to post.");
+    }
+
+    // Load payload target size (bytes)
+    if (appConfig.has(PAYLOAD_TARGET_SIZE_BYTES_KEY)) {
+      payloadTargetSizeBytes = appConfig.getInt(PAYLOAD_TARGET_SIZE_BYTES_KEY);
+      Logger.LOG_INFO(
+          "Payload target size of "
+              + payloadTargetSizeBytes
+              + " bytes retrieved from configuration file.");
+    } else {
+      payloadTargetSizeBytes = PAYLOAD_TARGET_SIZE_BYTES_DEFAULT;
+    }
+    if (payloadTargetSizeBytes <= 0) {
+      Logger.LOG_WARN(
+          "Invalid payload target size of "
+              + payloadTargetSizeBytes
+              + " bytes. Using default value of "
+              + PAYLOAD_TARGET_SIZE_BYTES_DEFAULT
+              + " bytes.");
+      payloadTargetSizeBytes = PAYLOAD_TARGET_SIZE_BYTES_DEFAULT;
+    }
+
+    // Load payload maximum data points
+    if (appConfig.has(PAYLOAD_MAX_DATA_POINTS_KEY)) {
+      payloadMaxDataPoints = appConfig.getInt(PAYLOAD_MAX_DATA_POINTS_KEY);
+      Logger.LOG_INFO(
+          "Payload maximum of "
+              + payloadMaxDataPoints
+              + " data points retrieved from configuration file.");
+    } else {
+      payloadMaxDataPoints = PAYLOAD_MAX_DATA_POINTS_DEFAULT;
+    }
+    if (payloadMaxDataPoints <= 0) {
+      Logger.LOG_WARN(
+          "Invalid payload maximum of "
+              + payloadMaxDataPoints
+              + " data points. Using default value of "
+              + PAYLOAD_MAX_DATA_POINTS_DEFAULT
+              + " data points.");
+      payloadMaxDataPoints = PAYLOAD_MAX_DATA_POINTS_DEFAULT;
+    }
+
+    // Load payload coalesce time
+    if (appConfig.has(PAYLOAD_COALESCE_SECONDS_KEY)) {
+      payloadCoalesceSeconds = appConfig.getLong(PAYLOAD_COALESCE_SECONDS_KEY);
+      Logger.LOG_INFO(
+          "Payload coalesce time of "
+              + payloadCoalesceSeconds
+              + " seconds retrieved from configuration file.");
+    } else {
+      payloadCoalesceSeconds = PAYLOAD_COALESCE_SECONDS_DEFAULT;
+    }
+    if (payloadCoalesceSeconds < 0) {
+      Logger.LOG_WARN(
+          "Invalid payload coalesce time of "
+              + payloadCoalesceSeconds
+              + " seconds. Using default value of "
+              + PAYLOAD_COALESCE_SECONDS_DEFAULT
+              + " seconds.");
+      payloadCoalesceSeconds = PAYLOAD_COALESCE_SECONDS_DEFAULT;
+    }
+
+    // Load payload linger time
+    if (appConfig.has(PAYLOAD_LINGER_MS_KEY)) {
+      payloadLingerMs = appConfig.getLong(PAYLOAD_LINGER_MS_KEY);
+      Logger.LOG_INFO(
+          "Payload linger time of " + payloadLingerMs + " ms retrieved from configuration file.");
+    } else {
+      payloadLingerMs = PAYLOAD_LINGER_MS_DEFAULT;
+    }
+    if (payloadLingerMs < 0) {
+      Logger.LOG_WARN(
+          "Invalid payload linger time of "
+              + payloadLingerMs
+              + " ms. Using default value of "
+              + PAYLOAD_LINGER_MS_DEFAULT
+              + " ms.");
+      payloadLingerMs = PAYLOAD_LINGER_MS_DEFAULT;
+    }
+
+    // Load container quarantine time
+    if (appConfig.has(CONTAINER_QUARANTINE_SECONDS_KEY)) {
+      containerQuarantineSeconds = appConfig.getLong(CONTAINER_QUARANTINE_SECONDS_KEY);
+      Logger.LOG_INFO(
+          "Container quarantine time of "
+              + containerQuarantineSeconds
+              + " seconds retrieved from configuration file.");
+    } else {
+      containerQuarantineSeconds = CONTAINER_QUARANTINE_SECONDS_DEFAULT;
+    }
+    if (containerQuarantineSeconds < 0) {
+      Logger.LOG_WARN(
+          "Invalid container quarantine time of "
+              + containerQuarantineSeconds
+              + " seconds. Using default value of "
+              + CONTAINER_QUARANTINE_SECONDS_DEFAULT
+              + " seconds.");
+      containerQuarantineSeconds = CONTAINER_QUARANTINE_SECONDS_DEFAULT;
+    }
+
+    // Load payload queue budget
+    if (appConfig.has(PAYLOAD_QUEUE_BUDGET_BYTES_KEY)) {
+      payloadQueueBudgetBytes = appConfig.getLong(PAYLOAD_QUEUE_BUDGET_BYTES_KEY);
+      Logger.LOG_INFO(
+          "Payload queue budget of "
+              + payloadQueueBudgetBytes
+              + " bytes retrieved from configuration file.");
+    } else {
+      payloadQueueBudgetBytes = PAYLOAD_QUEUE_BUDGET_BYTES_DEFAULT;
+    }
+    if (payloadQueueBudgetBytes <= 0) {
+      Logger.LOG_WARN(
+          "Invalid payload queue budget of "
+              + payloadQueueBudgetBytes
+              + " bytes. Using default value of "
+              + PAYLOAD_QUEUE_BUDGET_BYTES_DEFAULT
+              + " bytes.");
+      payloadQueueBudgetBytes = PAYLOAD_QUEUE_BUDGET_BYTES_DEFAULT;
+    }
+
+    // Load payload spool size
+    if (appConfig.has(PAYLOAD_SPOOL_MAX_BYTES_KEY)) {
+      payloadSpoolMaxBytes = appConfig.getLong(PAYLOAD_SPOOL_MAX_BYTES_KEY);
+      Logger.LOG_INFO(
+          "Payload spool size of "
+              + payloadSpoolMaxBytes
+              + " bytes retrieved from configuration file.");
+    } else {
+      payloadSpoolMaxBytes = PAYLOAD_SPOOL_MAX_BYTES_DEFAULT;
+    }
+    if (payloadSpoolMaxBytes < 0) {
+      Logger.LOG_WARN(
+          "Invalid payload spool size of "
+              + payloadSpoolMaxBytes
+              + " bytes. Using default value of "
+              + PAYLOAD_SPOOL_MAX_BYTES_DEFAULT
+              + " bytes.");
+      payloadSpoolMaxBytes = PAYLOAD_SPOOL_MAX_BYTES_DEFAULT;
+    }
+
+    // Load adaptive payload size settings
+    if (appConfig.has(PAYLOAD_SIZE_ADAPTIVE_KEY)) {
+      payloadSizeAdaptive = appConfig.getBoolean(PAYLOAD_SIZE_ADAPTIVE_KEY);
+    } else {
+      payloadSizeAdaptive = PAYLOAD_SIZE_ADAPTIVE_DEFAULT;
+    }
+    if (appConfig.has(PAYLOAD_LATENCY_TARGET_FRACTION_KEY)) {
+      payloadLatencyTargetFraction = appConfig.getDouble(PAYLOAD_LATENCY_TARGET_FRACTION_KEY);
+      Logger.LOG_INFO(
+          "Payload latency target fraction of "
+              + payloadLatencyTargetFraction
+              + " retrieved from configuration file.");
+    } else {
+      payloadLatencyTargetFraction = PAYLOAD_LATENCY_TARGET_FRACTION_DEFAULT;
+    }
+    if (payloadLatencyTargetFraction <= 0 || payloadLatencyTargetFraction > 1) {
+      Logger.LOG_WARN(
+          "Invalid payload latency target fraction of "
+              + payloadLatencyTargetFraction
+              + ". Using default value of "
+              + PAYLOAD_LATENCY_TARGET_FRACTION_DEFAULT
+              + ".");
+      payloadLatencyTargetFraction = PAYLOAD_LATENCY_TARGET_FRACTION_DEFAULT;
+    }
+
+    // Load group containers setting
+    groupContainerTagGroups = new String[0];
+    if (appConfig.has(GROUP_CONTAINERS_KEY)) {
+      JSONArray groups = appConfig.getJSONArray(GROUP_CONTAINERS_KEY);
+      groupContainerTagGroups = new String[groups.length()];
+      for (int i = 0; i < groups.length(); i++) {
+        groupContainerTagGroups[i] = groups.getString(i).toUpperCase();
+      }
+      if (communicationType == PI_WEB_API && groupContainerTagGroups.length > 0) {
+        Logger.LOG_WARN("Group containers are only supported by OMF. Tags will not be grouped.");
+        groupContainerTagGroups = new String[0];
+      }
+    }
+
+    // Load per-tag settings
+    OSIsoftTagSettings.load(appConfig);
+
     typeID = "HMS-type-" + flexyName;
     postHeaders =
         "Authorization=Basic "
@@ -385,7 +757,7 @@ public class OSIsoftConfig {
    * This function need to have a basic script running that is specified in the README. Updates the
    * OCS token if the OCS token tag is not set to 0. This tag will then be reset to 0.
    */
-  public static void updateOcsToken() {
+  public static synchronized void updateOcsToken() {
 
     /* Ensure the JVM and basic script are working together by checking the value of a tag is 0.
      * The basic script will increment the tag value by 1 every time a new request is sent.
@@ -575,6 +947,15 @@ public class OSIsoftConfig {
     return dataPostRateMs;
   }
 
+  /**
+   * Get the number of threads posting payloads to the OSIsoft server at the same time.
+   *
+   * @return poster worker count
+   */
+  public static int getPosterWorkerCount() {
+    return posterWorkerCount;
+  }
+
   /**
    * Get the OMF URL
    *
@@ -620,4 +1001,107 @@ public class OSIsoftConfig {
   public static boolean getQueueDiagnosticTagsEnabled() {
     return historicalDataQueueDiagnosticTagsEnabled;
   }
+
+  /**
+   * Get the target size (in bytes) of a payload.
+   *
+   * @return payload target size in bytes
+   */
+  public static int getPayloadTargetSizeBytes() {
+    return payloadTargetSizeBytes;
+  }
+
+  /**
+   * Get the maximum number of data points in a payload.
+   *
+   * @return payload maximum data points
+   */
+  public static int getPayloadMaxDataPoints() {
+    return payloadMaxDataPoints;
+  }
+
+  /**
+   * Get the maximum number of seconds values are held to be written to the payload grouped by
+   * container.
+   *
+   * @return payload coalesce time in seconds, or 0 if values are not coalesced
+   */
+  public static long getPayloadCoalesceSeconds() {
+    return payloadCoalesceSeconds;
+  }
+
+  /**
+   * Get the number of milliseconds a payload may wait for more data points after its first value
+   * was added.
+   *
+   * @return payload linger time in milliseconds, or 0 if it is disabled
+   */
+  public static long getPayloadLingerMs() {
+    return payloadLingerMs;
+  }
+
+  /**
+   * Get the number of seconds the values of a container rejected by the server are written to the
+   * dead letter file instead of being sent.
+   *
+   * @return container quarantine time in seconds, or 0 if the quarantine is disabled
+   */
+  public static long getContainerQuarantineSeconds() {
+    return containerQuarantineSeconds;
+  }
+
+  /**
+   * Get the number of bytes of heap memory the completed payloads waiting to be sent may hold
+   * before reading data from the historical logs pauses.
+   *
+   * @return payload queue budget in bytes
+   */
+  public static long getPayloadQueueBudgetBytes() {
+    return payloadQueueBudgetBytes;
+  }
+
+  /**
+   * Get the maximum number of bytes of the payload spool on the file system.
+   *
+   * @return payload spool size in bytes, or 0 if the payload spool is disabled
+   */
+  public static long getPayloadSpoolMaxBytes() {
+    return payloadSpoolMaxBytes;
+  }
+
+  /**
+   * Get the boolean value indicating whether the payload target size is adjusted based on post
+   * latency.
+   *
+   * @return true if adaptive payload sizing is enabled, false otherwise.
+   */
+  public static boolean getPayloadSizeAdaptive() {
+    return payloadSizeAdaptive;
+  }
+
+  /**
+   * Get the fraction of the HTTP timeout which posting a payload should take when adaptive payload
+   * sizing is enabled.
+   *
+   * @return payload latency target fraction
+   */
+  public static double getPayloadLatencyTargetFraction() {
+    return payloadLatencyTargetFraction;
+  }
+
+  /**
+   * Get the boolean value indicating whether the tags of a tag group are sent together in one OMF
+   * container.
+   *
+   * @param tagGroup name of the tag group, such as "A"
+   * @return true if the tag group has a group container, false otherwise.
+   */
+  public static boolean getGroupContainerEnabled(String tagGroup) {
+    for (int i = 0; i < groupContainerTagGroups.length; i++) {
+      if (groupContainerTagGroups[i].equals(tagGroup)) {
+        return true;
+      }
+    }
+    return false;
+  }
 }
@@ -0,0 +1,211 @@
+package com.hms.flexyosisoftconnector.configuration;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A compiled OSIsoft tag naming scheme.
+ *
+ * <p>A template is an ordered list of components. Each component is either literal text or a field
+ * of the tag (tag name, tag type, tag group or Flexy serial number). Templates are compiled once
+ * when the configuration is read and evaluated once per tag when the tag descriptors are built.
+ *
+ * @author HMS Networks, MU Americas Solution Center
+ */
+public class OSIsoftTagNameTemplate {
+
+  /** Component type for literal text. */
+  static final int COMPONENT_LITERAL = 0;
+
+  /** Component type for the Ewon Flexy serial number. */
+  static final int COMPONENT_SERIAL_NUMBER = 1;
+
+  /** Component type for the Ewon tag name. */
+  static final int COMPONENT_TAG_NAME = 2;
+
+  /** Component type for the OSIsoft tag type. */
+  static final int COMPONENT_TAG_TYPE = 3;
+
+  /** Component type for the Ewon tag group. */
+  static final int COMPONENT_TAG_GROUP = 4;
+
+  /** Type of each component, in order. */
+  private final int[] componentTypes;
+
+  /** Literal text of each component, or null for field components. */
+  private final String[] componentLiterals;
+
+  /** Flag indicating if the template includes the tag name. */
+  private final boolean hasTagName;
+
+  /** Human readable form of the template, used for logging. */
+  private final String pattern;
+
+  /**
+   * Constructor for a compiled tag name template.
+   *
+   * @param componentTypeList list of Integer component types, in order
+   * @param componentLiteralList list of component literals, in order
+   * @param pattern human readable form of the template
+   */
+  private OSIsoftTagNameTemplate(
+      List componentTypeList, List componentLiteralList, String pattern) {
+    final int componentCount = componentTypeList.size();
+    componentTypes = new int[componentCount];
+    componentLiterals = new String[componentCount];
+    boolean tagNameFound = false;
+    for (int i = 0; i < componentCount; i++) {
+      componentTypes[i] = ((Integer) componentTypeList.get(i)).intValue();
+      componentLiterals[i] = (String) componentLiteralList.get(i);
+      if (componentTypes[i] == COMPONENT_TAG_NAME) {
+        tagNameFound = true;
+      }
+    }
+    hasTagName = tagNameFound;
+    this.pattern = pattern;
+  }
+
+  /**
+   * Compile a list of shorthand options, such as "tn", "sn", "tt", joined by a delimiter.
+   *
+   * @param options list of shorthand option strings, in order
+   * @param delimiter literal text placed between options
+   * @return compiled template
+   */
+  static OSIsoftTagNameTemplate compileOptions(List options, String delimiter) {
+    List types = new ArrayList();
+    List literals = new ArrayList();
+    StringBuffer pattern = new StringBuffer();
+    for (int i = 0; i < options.size(); i++) {
+      final String option = (String) options.get(i);
+      if (i > 0) {
+        types.add(new Integer(COMPONENT_LITERAL));
+        literals.add(delimiter);
+        pattern.append(delimiter);
+      }
+      types.add(new Integer(getFieldComponentType(option)));
+      literals.add(null);
+      pattern.append('{').append(option.toLowerCase()).append('}');
+    }
+    return new OSIsoftTagNameTemplate(types, literals, pattern.toString());
+  }
+
+  /**
+   * Compile a template pattern such as "{sn}/{group}/{tn}". Text outside of braces is copied to the
+   * tag name as-is.
+   *
+   * @param pattern template pattern
+   * @return compiled template, or null if the pattern contains an unknown or unterminated field
+   */
+  static OSIsoftTagNameTemplate compilePattern(String pattern) {
+    List types = new ArrayList();
+    List literals = new ArrayList();
+    int index = 0;
+    while (index < pattern.length()) {
+      final int fieldStart = pattern.indexOf('{', index);
+      if (fieldStart < 0) {
+        types.add(new Integer(COMPONENT_LITERAL));
+        literals.add(pattern.substring(index));
+        break;
+      }
+      if (fieldStart > index) {
+        types.add(new Integer(COMPONENT_LITERAL));
+        literals.add(pattern.substring(index, fieldStart));
+      }
+
+      final int fieldEnd = pattern.indexOf('}', fieldStart);
+      if (fieldEnd < 0) {
+        return null;
+      }
+      final int fieldType = getFieldComponentType(pattern.substring(fieldStart + 1, fieldEnd));
+      if (fieldType == COMPONENT_LITERAL) {
+        return null;
+      }
+      types.add(new Integer(fieldType));
+      literals.add(null);
+      index = fieldEnd + 1;
+    }
+    return new OSIsoftTagNameTemplate(types, literals, pattern);
+  }
+
+  /**
+   * Get the component type of a field name.
+   *
+   * @param fieldName name of the field, such as "tn"
+   * @return component type of the field, or {@link #COMPONENT_LITERAL} if the field is unknown
+   */
+  private static int getFieldComponentType(String fieldName) {
+    int type = COMPONENT_LITERAL;
+    fieldName = fieldName.trim();
+    if (fieldName.equalsIgnoreCase(OSIsoftTagNamingScheme.serialNumberOptionName)) {
+      type = COMPONENT_SERIAL_NUMBER;
+    } else if (fieldName.equalsIgnoreCase(OSIsoftTagNamingScheme.tagNameOptionName)) {
+      type = COMPONENT_TAG_NAME;
+    } else if (fieldName.equalsIgnoreCase(OSIsoftTagNamingScheme.tagTypeOptionName)) {
+      type = COMPONENT_TAG_TYPE;
+    } else if (fieldName.equalsIgnoreCase(OSIsoftTagNamingScheme.tagGroupOptionName)) {
+      type = COMPONENT_TAG_GROUP;
+    }
+    return type;
+  }
+
+  /**
+   * Check if the template contains the tag name. Templates without a tag name cannot produce
+   * unique OSIsoft tag names.
+   *
+   * @return true if the tag name is part of the template
+   */
+  public boolean hasTagName() {
+    return hasTagName;
+  }
+
+  /**
+   * Check if the template contains any components.
+   *
+   * @return true if the template has no components
+   */
+  public boolean isEmpty() {
+    return componentTypes.length == 0;
+  }
+
+  /**
+   * Build the OSIsoft tag name for a tag.
+   *
+   * @param tagName Ewon tag name
+   * @param tagType OSIsoft tag type
+   * @param tagGroup Ewon tag group
+   * @return the OSIsoft tag name
+   */
+  public String evaluate(String tagName, String tagType, String tagGroup) {
+    StringBuffer name = new StringBuffer();
+    for (int i = 0; i < componentTypes.length; i++) {
+      switch (componentTypes[i]) {
+        case COMPONENT_SERIAL_NUMBER:
+          name.append(OSIsoftConfig.getFlexySerial());
+          break;
+        case COMPONENT_TAG_NAME:
+          name.append(tagName);
+          break;
+        case COMPONENT_TAG_TYPE:
+          name.append(tagType);
+          break;
+        case COMPONENT_TAG_GROUP:
+          name.append(tagGroup);
+          break;
+        default:
+          name.append(componentLiterals[i]);
+          break;
+      }
+    }
+    return name.toString();
+  }
+
+  /**
+   * Get the human readable form of the template.
+   *
+   * @return the template pattern
+   */
+  public String toString() {
+    return pattern;
+  }
+}
@@ -2,6 +2,7 @@ package com.hms.flexyosisoftconnector.configuration;
 
 import com.hms_networks.americas.sc.extensions.logging.Logger;
 import com.hms_networks.americas.sc.extensions.string.StringUtils;
+import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -21,6 +22,12 @@ public class OSIsoftTagNamingScheme {
   /** The configuration value associated with the Ewon Flexy tag name option. */
   public static final String tagNameOptionName = "tn";
 
+  /** The template field name associated with the Ewon Flexy tag group. */
+  public static final String tagGroupOptionName = "group";
+
+  /** The character which starts a field in a tag name template, such as "{sn}/{group}/{tn}". */
+  public static final char templateFieldStart = '{';
+
   /** The configuration value associated with the default option. */
   public static final String defaultOptionName = "default";
 
@@ -34,8 +41,9 @@ public class OSIsoftTagNamingScheme {
   /** The deliminator used in the configuration file to separate options. */
   public static final String optionNameDeliminator = "-";
 
-  /** The parsed shorthand name option selected in the configuration file. */
-  private static String shortHandOSIsoftNameOptionSelected = "";
+  /** The compiled tag name template selected in the configuration file. */
+  private static OSIsoftTagNameTemplate compiledTemplate =
+      OSIsoftTagNameTemplate.compileOptions(new ArrayList(), optionNameDeliminator);
 
   /** Option name delimiter error message. */
   private static String optionNameDeliminatorErrorMessage =
@@ -55,22 +63,45 @@ public class OSIsoftTagNamingScheme {
           + serialNumberOptionName
           + " for serial number, and "
           + tagTypeOptionName
-          + "for tag type."
-          + optionNameDeliminatorErrorMessage;
+          + " for tag type. "
+          + optionNameDeliminatorErrorMessage
+          + " Templates such as {"
+          + serialNumberOptionName
+          + "}/{"
+          + tagGroupOptionName
+          + "}/{"
+          + tagNameOptionName
+          + "} may also be used.";
 
   /**
    * Function that parses the configuration file's OSIsoft tag name scheme options.
    *
    * @param chosenNameTagNameFormat This can be set to default, which will name the tags with the
    *     default tag name scheme. It can also specify a combination of tag name, tag type, and
-   *     serial number in any order as long as tag name is included.
+   *     serial number in any order as long as tag name is included. A template with fields in
+   *     braces and literal text, such as "{sn}/{group}/{tn}", may also be given.
    * @return The parsed and valid tag name scheme.
    */
   public static String tagNameFormatOptionParser(String chosenNameTagNameFormat) {
     chosenNameTagNameFormat = chosenNameTagNameFormat.trim();
     String parsedOSIsoftTagNameFormat = "";
+    hasTagName = false;
+
+    if (chosenNameTagNameFormat.indexOf(templateFieldStart) >= 0) {
+      OSIsoftTagNameTemplate template =
+          OSIsoftTagNameTemplate.compilePattern(chosenNameTagNameFormat);
+      if (template != null && template.hasTagName()) {
+        compiledTemplate = template;
+        return template.toString();
+      }
 
-    if (chosenNameTagNameFormat.compareToIgnoreCase(defaultOptionName) == 0) {
+      Logger.LOG_SERIOUS(
+          "Invalid OSIsoft tag name template \""
+              + chosenNameTagNameFormat
+              + "\". Using default tag name scheme.");
+      Logger.LOG_INFO(tagOptionsHelpNotice);
+      parsedOSIsoftTagNameFormat = defaultOptionValue;
+    } else if (chosenNameTagNameFormat.compareToIgnoreCase(defaultOptionName) == 0) {
       // Default option has been chosen
       parsedOSIsoftTagNameFormat = defaultOptionValue;
     } else {
@@ -92,7 +123,7 @@ public class OSIsoftTagNamingScheme {
               parsedOSIsoftTagNameFormat += checkNameOptionIsValid((String) optionsList.get(i));
             }
             if (!hasTagName) {
-              parsedOSIsoftTagNameFormat = defaultOptionName;
+              parsedOSIsoftTagNameFormat = defaultOptionValue;
               Logger.LOG_SERIOUS(
                   "No OSIsoft tag name option was used in the selected OSIsoft tag name scheme."
                       + " Using default tag name scheme.");
@@ -113,12 +144,42 @@ public class OSIsoftTagNamingScheme {
       }
     }
 
-    // Store the valid tag name scheme with no dashes for faster parsing
-    shortHandOSIsoftNameOptionSelected = parsedOSIsoftTagNameFormat;
+    // Compile the valid tag name scheme so it is not parsed again for each tag
+    compiledTemplate = compileShortHandOptions(parsedOSIsoftTagNameFormat);
     // Return valid options list with no dashes
     return parsedOSIsoftTagNameFormat;
   }
 
+  /**
+   * Compiles a shorthand tag name scheme, such as "tnsntt", into a template which joins the
+   * options with {@link #optionNameDeliminator}.
+   *
+   * @param shortHandOptions the shorthand options with no dashes
+   * @return the compiled template
+   */
+  private static OSIsoftTagNameTemplate compileShortHandOptions(String shortHandOptions) {
+    final int lengthOfSingleOption = 2;
+    List options = new ArrayList();
+    for (int index = 0;
+        index + lengthOfSingleOption <= shortHandOptions.length();
+        index += lengthOfSingleOption) {
+      String shortHandOption = shortHandOptions.substring(index, index + lengthOfSingleOption);
+      if (checkNameOptionIsValid(shortHandOption).length() > 0) {
+        options.add(shortHandOption);
+      }
+    }
+    return OSIsoftTagNameTemplate.compileOptions(options, optionNameDeliminator);
+  }
+
+  /**
+   * Get the compiled tag name template selected in the configuration file.
+   *
+   * @return the compiled tag name template
+   */
+  public static OSIsoftTagNameTemplate getTemplate() {
+    return compiledTemplate;
+  }
+
   /**
    * Extracts an OSIsoft tag name from the stored tag name scheme.
    *
@@ -127,39 +188,26 @@ public class OSIsoftTagNamingScheme {
    * @return the OSIsoft tag name for the current Flexy tag
    */
   public static String extractTagNameFromComponents(String tagName, String tagType) {
-    String parsedTagName = "";
-    final int lengthOfSingleOption = 2;
-
-    if (shortHandOSIsoftNameOptionSelected.length() >= lengthOfSingleOption) {
-      // loop through every option present
-      for (int index = 0;
-          index < shortHandOSIsoftNameOptionSelected.length();
-          index += lengthOfSingleOption) {
+    return extractTagNameFromComponents(tagName, tagType, "");
+  }
 
-        // add an optionNameDeliminator between name components in the OSIsoft tag name
-        if (index > 0) {
-          parsedTagName += optionNameDeliminator;
-        }
-        String shortHandOption =
-            shortHandOSIsoftNameOptionSelected.substring(index, index + lengthOfSingleOption);
-        if (shortHandOption.compareToIgnoreCase(serialNumberOptionName) == 0) {
-          parsedTagName += OSIsoftConfig.getFlexySerial();
-        } else if (shortHandOption.compareToIgnoreCase(tagTypeOptionName) == 0) {
-          parsedTagName += tagType;
-        } else if (shortHandOption.compareToIgnoreCase(tagNameOptionName) == 0) {
-          parsedTagName += tagName;
-        } else {
-          Logger.LOG_WARN(
-              "Invalid option was given. Unable to parse tag name configuration options.");
-          Logger.LOG_INFO(tagOptionsHelpNotice);
-        }
-      }
-    } else {
+  /**
+   * Extracts an OSIsoft tag name from the stored tag name scheme. This is evaluated once per tag
+   * when the tag descriptors are built.
+   *
+   * @param tagName Name of the tag to insert into the OSIsoft tag name
+   * @param tagType Type of the tag to insert into the OSIsoft tag name
+   * @param tagGroup Group of the tag to insert into the OSIsoft tag name
+   * @return the OSIsoft tag name for the current Flexy tag
+   */
+  public static String extractTagNameFromComponents(
+      String tagName, String tagType, String tagGroup) {
+    if (compiledTemplate.isEmpty()) {
       Logger.LOG_SERIOUS("Invalid number of tag name scheme options given.");
       Logger.LOG_INFO(tagOptionsHelpNotice);
+      return "";
     }
-
-    return parsedTagName;
+    return compiledTemplate.evaluate(tagName, tagType, tagGroup);
   }
 
   /**
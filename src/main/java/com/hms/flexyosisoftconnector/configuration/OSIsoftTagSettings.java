@@ -0,0 +1,194 @@
+package com.hms.flexyosisoftconnector.configuration;
+
+import com.hms_networks.americas.sc.extensions.json.JSONException;
+import com.hms_networks.americas.sc.extensions.json.JSONObject;
+import com.hms_networks.americas.sc.extensions.logging.Logger;
+
+/**
+ * Per-tag settings from the optional "TagSettings" object of the AppConfig section.
+ *
+ * <p>The "TagSettings" object maps a selector to an object of settings. A selector is an Ewon tag
+ * name, "group:" followed by a tag group letter (such as "group:A"), "type:" followed by an OMF
+ * type name (such as "type:number"), or "default". A setting is looked up for the tag name first,
+ * then for the tag's group, then for the tag's type, then in the default settings. For example:
+ *
+ * <pre>
+ * "TagSettings": {
+ *   "default": { "MaxIntervalSeconds": 600 },
+ *   "group:B": { "Deadband": 0.5 },
+ *   "type:number": { "DecimalPlaces": 2 },
+ *   "Pressure": { "DeadbandPercent": 1 }
+ * }
+ * </pre>
+ *
+ * <p>Settings are resolved once per tag when the per-tag stages are initialized, not per data
+ * point.
+ *
+ * @author HMS Networks, MU Americas Solution Center
+ */
+public class OSIsoftTagSettings {
+
+  /** Key of the per-tag settings object in the AppConfig section. */
+  static final String TAG_SETTINGS_KEY = "TagSettings";
+
+  /** Selector of the settings which apply to all tags. */
+  public static final String DEFAULT_SELECTOR = "default";
+
+  /** Prefix of a selector for the settings of a tag group. */
+  public static final String GROUP_SELECTOR_PREFIX = "group:";
+
+  /** Prefix of a selector for the settings of an OMF tag type. */
+  public static final String TYPE_SELECTOR_PREFIX = "type:";
+
+  /** The "TagSettings" object, or null if none was configured. */
+  private static JSONObject tagSettings = null;
+
+  /**
+   * Load the per-tag settings from the AppConfig section of the configuration file.
+   *
+   * @param appConfig the AppConfig section of the configuration file
+   */
+  static void load(JSONObject appConfig) {
+    tagSettings = null;
+    if (appConfig.has(TAG_SETTINGS_KEY)) {
+      try {
+        tagSettings = appConfig.getJSONObject(TAG_SETTINGS_KEY);
+        Logger.LOG_INFO("Loaded " + tagSettings.length() + " tag settings selectors.");
+      } catch (JSONException e) {
+        Logger.LOG_SERIOUS(
+            "Invalid \"" + TAG_SETTINGS_KEY + "\" object. Tag settings will not be applied.");
+        Logger.LOG_EXCEPTION(e);
+      }
+    }
+  }
+
+  /**
+   * Check if any per-tag settings were configured.
+   *
+   * @return true if a "TagSettings" object was configured
+   */
+  public static boolean isConfigured() {
+    return tagSettings != null;
+  }
+
+  /**
+   * Get the settings object which defines a setting for a tag.
+   *
+   * @param tagName name of the Ewon tag
+   * @param tagGroup name of the tag's group, or an empty string
+   * @param tagType OMF type name of the tag
+   * @param key key of the setting
+   * @return settings object containing the key, or null if the setting is not configured
+   */
+  private static JSONObject findSettings(
+      String tagName, String tagGroup, String tagType, String key) {
+    if (tagSettings == null) {
+      return null;
+    }
+
+    final String[] selectors = {
+      tagName,
+      tagGroup.length() > 0 ? GROUP_SELECTOR_PREFIX + tagGroup : null,
+      TYPE_SELECTOR_PREFIX + tagType,
+      DEFAULT_SELECTOR
+    };
+    for (int i = 0; i < selectors.length; i++) {
+      if (selectors[i] != null && tagSettings.has(selectors[i])) {
+        try {
+          JSONObject settings = tagSettings.getJSONObject(selectors[i]);
+          if (settings.has(key)) {
+            return settings;
+          }
+        } catch (JSONException e) {
+          Logger.LOG_WARN("Tag settings for \"" + selectors[i] + "\" must be an object.");
+        }
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Get a numeric setting for a tag.
+   *
+   * @param tagName name of the Ewon tag
+   * @param tagGroup name of the tag's group, or an empty string
+   * @param tagType OMF type name of the tag
+   * @param key key of the setting
+   * @param defaultValue value returned if the setting is not configured or invalid
+   * @return the setting value
+   */
+  public static double getDouble(
+      String tagName, String tagGroup, String tagType, String key, double defaultValue) {
+    JSONObject settings = findSettings(tagName, tagGroup, tagType, key);
+    if (settings != null) {
+      try {
+        return settings.getDouble(key);
+      } catch (JSONException e) {
+        Logger.LOG_WARN(
+            "Invalid value for tag setting " + key + " of tag " + tagName + ". Using default.");
+      }
+    }
+    return defaultValue;
+  }
+
+  /**
+   * Get an integer setting for a tag.
+   *
+   * @param tagName name of the Ewon tag
+   * @param tagGroup name of the tag's group, or an empty string
+   * @param tagType OMF type name of the tag
+   * @param key key of the setting
+   * @param defaultValue value returned if the setting is not configured or invalid
+   * @return the setting value
+   */
+  public static long getLong(
+      String tagName, String tagGroup, String tagType, String key, long defaultValue) {
+    JSONObject settings = findSettings(tagName, tagGroup, tagType, key);
+    if (settings != null) {
+      try {
+        return settings.getLong(key);
+      } catch (JSONException e) {
+        Logger.LOG_WARN(
+            "Invalid value for tag setting " + key + " of tag " + tagName + ". Using default.");
+      }
+    }
+    return defaultValue;
+  }
+
+  /**
+   * Get a text setting for a tag.
+   *
+   * @param tagName name of the Ewon tag
+   * @param tagGroup name of the tag's group, or an empty string
+   * @param tagType OMF type name of the tag
+   * @param key key of the setting
+   * @param defaultValue value returned if the setting is not configured or invalid
+   * @return the setting value
+   */
+  public static String getString(
+      String tagName, String tagGroup, String tagType, String key, String defaultValue) {
+    JSONObject settings = findSettings(tagName, tagGroup, tagType, key);
+    if (settings != null) {
+      try {
+        return settings.getString(key);
+      } catch (JSONException e) {
+        Logger.LOG_WARN(
+            "Invalid value for tag setting " + key + " of tag " + tagName + ". Using default.");
+      }
+    }
+    return defaultValue;
+  }
+
+  /**
+   * Check if a setting is configured for a tag.
+   *
+   * @param tagName name of the Ewon tag
+   * @param tagGroup name of the tag's group, or an empty string
+   * @param tagType OMF type name of the tag
+   * @param key key of the setting
+   * @return true if the setting is configured for the tag, its group, its type or all tags
+   */
+  public static boolean has(String tagName, String tagGroup, String tagType, String key) {
+    return findSettings(tagName, tagGroup, tagType, key) != null;
+  }
+}
@@ -0,0 +1,130 @@
+package com.hms.flexyosisoftconnector.datafilter;
+
+import com.hms.flexyosisoftconnector.configuration.OSIsoftConfig;
+import com.hms.flexyosisoftconnector.configuration.OSIsoftTagSettings;
+import com.hms.flexyosisoftconnector.payloadhandler.PayloadManager;
+import com.hms.flexyosisoftconnector.payloadhandler.TagDescriptor;
+import com.hms.flexyosisoftconnector.payloadhandler.TagDescriptorTable;
+import com.hms_networks.americas.sc.extensions.datapoint.DataPoint;
+import com.hms_networks.americas.sc.extensions.logging.Logger;
+
+/**
+ * Chain of stages which data points read from the historical data queue pass through before they
+ * are added to a payload.
+ *
+ * <p>Stages are only added to the chain when they are enabled by the configuration. Without any
+ * tag settings, data points are added to payloads as they are read.
+ *
+ * @author HMS Networks, MU Americas Solution Center
+ */
+public class DataPointPipeline {
+
+  /** First stage of the chain. */
+  private static DataPointSink head;
+
+  /** Deadband filter stage, or null if it is not enabled. */
+  private static DeadbandFilter deadbandFilter;
+
+  /** Swinging door compression stage, or null if it is not enabled. */
+  private static SwingingDoorCompressor swingingDoorCompressor;
+
+  /** Window aggregation stage, or null if it is not enabled. */
+  private static WindowAggregator windowAggregator;
+
+  /** Latest data point timestamp appended to the chain in seconds since the epoch. */
+  private static long latestEpochSeconds;
+
+  /**
+   * Initialize the chain of stages. The configuration and the tag descriptor table must be
+   * initialized before calling this method.
+   *
+   * @param payloadManager payload manager which receives the data points leaving the chain
+   */
+  public static void init(final PayloadManager payloadManager) {
+    head =
+        new DataPointSink() {
+          public void append(DataPoint dataPoint, TagDescriptor descriptor, long epochSeconds) {
+            payloadManager.appendDataPointToPayLoad(dataPoint, descriptor, epochSeconds);
+          }
+
+          public void endOfSpan(long latestEpochSeconds) {
+            // payloads are completed by size and age, not by span
+          }
+        };
+
+    deadbandFilter = null;
+    swingingDoorCompressor = null;
+    windowAggregator = null;
+    latestEpochSeconds = 0;
+    if (OSIsoftTagSettings.isConfigured()) {
+      // stages are built from the last to the first, exceptions are filtered before compression
+      final int tagOrdinalCount = TagDescriptorTable.getOrdinalCount();
+      swingingDoorCompressor = new SwingingDoorCompressor(head, tagOrdinalCount);
+      head = swingingDoorCompressor;
+      deadbandFilter = new DeadbandFilter(head, tagOrdinalCount);
+      head = deadbandFilter;
+
+      // aggregates are computed from the raw values and sent directly to the payload manager
+      if (WindowAggregator.isConfiguredForAnyTag()) {
+        if (OSIsoftConfig.getCommunicationType() == OSIsoftConfig.PI_WEB_API) {
+          Logger.LOG_WARN(
+              "Tag aggregation is only supported by OMF. Tags will be sent without aggregation.");
+        } else {
+          windowAggregator = new WindowAggregator(head, payloadManager);
+          head = windowAggregator;
+        }
+      }
+    }
+  }
+
+  /**
+   * Pass a data point read from the historical data queue through the chain of stages.
+   *
+   * @param dataPoint data point to process
+   */
+  public static void append(DataPoint dataPoint) {
+    // descriptors are built at startup, this only creates one for a tag added since then
+    final TagDescriptor descriptor = TagDescriptorTable.getDescriptor(dataPoint);
+    final long epochSeconds = Long.parseLong(dataPoint.getTimeStamp());
+    if (epochSeconds > latestEpochSeconds) {
+      latestEpochSeconds = epochSeconds;
+    }
+    head.append(dataPoint, descriptor, epochSeconds);
+  }
+
+  /**
+   * Signal that all data points of a span of the historical data queue have been appended, so
+   * stages can send values they were holding for the span, such as completed aggregate windows.
+   */
+  public static void endOfSpan() {
+    head.endOfSpan(latestEpochSeconds);
+  }
+
+  /** Log the number of data points dropped by the stages so far. */
+  public static void logStatistics() {
+    if (windowAggregator != null) {
+      Logger.LOG_DEBUG(
+          "Window aggregation has aggregated "
+              + windowAggregator.getAggregatedDataPointCount()
+              + " data points into "
+              + windowAggregator.getWindowCount()
+              + " windows.");
+    }
+    if (deadbandFilter != null) {
+      Logger.LOG_DEBUG(
+          "Deadband filter has dropped "
+              + deadbandFilter.getDroppedCount()
+              + " and passed "
+              + deadbandFilter.getPassedCount()
+              + " data points.");
+    }
+    if (swingingDoorCompressor != null) {
+      Logger.LOG_DEBUG(
+          "Swinging door compression has dropped "
+              + swingingDoorCompressor.getDroppedCount()
+              + " and passed "
+              + swingingDoorCompressor.getPassedCount()
+              + " data points.");
+    }
+  }
+}
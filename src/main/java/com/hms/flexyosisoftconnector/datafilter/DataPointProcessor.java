@@ -0,0 +1,97 @@
+package com.hms.flexyosisoftconnector.datafilter;
+
+import com.hms.flexyosisoftconnector.configuration.OSIsoftConfig;
+import com.hms.flexyosisoftconnector.payloadhandler.DeadLetterFile;
+import com.hms.flexyosisoftconnector.payloadhandler.PayloadManager;
+import com.hms_networks.americas.sc.extensions.datapoint.DataPoint;
+import com.hms_networks.americas.sc.extensions.logging.Logger;
+import java.util.ArrayList;
+
+/**
+ * Thread building payloads out of the data point spans read from the historical data queue.
+ *
+ * <p>The historical logs are polled by the main thread, which adds each span to a {@link
+ * DataPointSpanQueue}. This thread takes the spans from the queue and passes their data points
+ * through the {@link DataPointPipeline} to the payload manager, while the main thread reads the
+ * next span and the {@code DataPoster} thread posts completed payloads. When the payload queue is
+ * full, this thread waits for a payload to be sent, and the span queue fills until the main thread
+ * stops polling.
+ *
+ * @author HMS Networks, MU Americas Solution Center
+ */
+public class DataPointProcessor extends Thread {
+
+  /** Queue of spans read from the historical data queue. */
+  private final DataPointSpanQueue spanQueue;
+
+  /** The PayloadManager which builds payloads out of the data points. */
+  private final PayloadManager payloadManager;
+
+  /**
+   * Constructor for the data point processor. The data point pipeline must be initialized with the
+   * same payload manager before starting the thread.
+   *
+   * @param spanQueue queue of spans read from the historical data queue
+   * @param payloadManager payload manager which builds payloads out of the data points
+   */
+  public DataPointProcessor(DataPointSpanQueue spanQueue, PayloadManager payloadManager) {
+    this.spanQueue = spanQueue;
+    this.payloadManager = payloadManager;
+  }
+
+  /** Run function used to continuously build payloads out of the spans in the span queue. */
+  public void run() {
+
+    while (true) {
+
+      // wait until a span is read, or until the next payload linger check is due
+      ArrayList span = null;
+      try {
+        span = spanQueue.poll(OSIsoftConfig.getDataPollRateMs());
+      } catch (InterruptedException e) {
+        Logger.LOG_SERIOUS("Data point processor was interrupted while waiting for data points.");
+        Logger.LOG_EXCEPTION(e);
+      }
+
+      if (span != null) {
+        processSpan(span);
+      }
+
+      // complete a partial payload which has waited too long, even if no data points were read
+      payloadManager.flushLingeringPayload();
+
+      // write values of quarantined containers diverted during this span to the file
+      DeadLetterFile.flush();
+    }
+  }
+
+  /**
+   * Feed each data point of a span on to the data point pipeline.
+   *
+   * @param span list of data points of the span
+   */
+  private void processSpan(ArrayList span) {
+    Logger.LOG_DEBUG("Processing " + span.size() + " datapoints.");
+    for (int i = 0; i < span.size(); i++) {
+      DataPoint data = ((DataPoint) span.get(i));
+
+      // build a payload out of data points
+      if (data != null) {
+        DataPointPipeline.append(data);
+      }
+
+      // Sleep between datapoints to significantly increase Flexy performance.
+      Thread.yield();
+      try {
+        final int threadWaitMS = 5;
+        Thread.sleep(threadWaitMS);
+      } catch (InterruptedException e) {
+        Logger.LOG_EXCEPTION(e);
+        Logger.LOG_SERIOUS("Exception thrown while sleeping thread.");
+      }
+    }
+    DataPointPipeline.endOfSpan();
+    DataPointPipeline.logStatistics();
+    payloadManager.logStatistics();
+  }
+}
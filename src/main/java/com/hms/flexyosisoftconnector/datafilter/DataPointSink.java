@@ -0,0 +1,30 @@
+package com.hms.flexyosisoftconnector.datafilter;
+
+import com.hms.flexyosisoftconnector.payloadhandler.TagDescriptor;
+import com.hms_networks.americas.sc.extensions.datapoint.DataPoint;
+
+/**
+ * A stage of the {@link DataPointPipeline} which accepts data points read from the historical data
+ * queue.
+ *
+ * @author HMS Networks, MU Americas Solution Center
+ */
+public interface DataPointSink {
+
+  /**
+   * Accept a data point.
+   *
+   * @param dataPoint the data point
+   * @param descriptor descriptor of the data point's tag
+   * @param epochSeconds timestamp of the data point in seconds since the epoch
+   */
+  void append(DataPoint dataPoint, TagDescriptor descriptor, long epochSeconds);
+
+  /**
+   * Signal that all data points of a span of the historical data queue have been appended. Data
+   * points appended later have a timestamp at or after the latest timestamp of the span.
+   *
+   * @param latestEpochSeconds latest timestamp appended so far in seconds since the epoch
+   */
+  void endOfSpan(long latestEpochSeconds);
+}
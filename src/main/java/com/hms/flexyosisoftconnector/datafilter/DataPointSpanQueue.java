@@ -0,0 +1,97 @@
+package com.hms.flexyosisoftconnector.datafilter;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+
+/**
+ * Bounded queue of data point spans read from the historical data queue, handed off from the
+ * thread polling the historical logs to the thread building payloads.
+ *
+ * <p>The queue is bounded by the number of data points of its spans. The polling thread stops
+ * reading the historical logs while the queue is full, so it does not run ahead of the building
+ * thread while payloads cannot be built or sent fast enough. A span is added whenever the queue is
+ * not full, so the queue may exceed its capacity by the last span added.
+ *
+ * @author HMS Networks, MU Americas Solution Center
+ */
+public class DataPointSpanQueue {
+
+  /** Maximum number of data points before the queue is full. */
+  private final int capacity;
+
+  /** Spans in the queue, each an {@link ArrayList} of data points. */
+  private final LinkedList spans = new LinkedList();
+
+  /** Number of data points of the spans in the queue. */
+  private int dataPointCount = 0;
+
+  /**
+   * Constructor for a data point span queue.
+   *
+   * @param capacity maximum number of data points before the queue is full
+   */
+  public DataPointSpanQueue(int capacity) {
+    this.capacity = capacity;
+  }
+
+  /**
+   * Add a span to the end of the queue, waiting while the queue is full.
+   *
+   * @param span list of data points of the span
+   * @throws InterruptedException if the thread is interrupted while waiting
+   */
+  public synchronized void put(ArrayList span) throws InterruptedException {
+    while (isFull()) {
+      wait();
+    }
+
+    spans.addLast(span);
+    dataPointCount += span.size();
+    notifyAll();
+  }
+
+  /**
+   * Remove the span at the top of the queue, waiting up to the specified time while the queue is
+   * empty.
+   *
+   * @param timeoutMillis maximum time to wait in milliseconds
+   * @return list of data points of the span, or null if the queue is still empty
+   * @throws InterruptedException if the thread is interrupted while waiting
+   */
+  public synchronized ArrayList poll(long timeoutMillis) throws InterruptedException {
+    final long deadlineMillis = System.currentTimeMillis() + timeoutMillis;
+    long remainingMillis = timeoutMillis;
+    while (spans.size() == 0 && remainingMillis > 0) {
+      wait(remainingMillis);
+      remainingMillis = deadlineMillis - System.currentTimeMillis();
+    }
+
+    if (spans.size() == 0) {
+      return null;
+    }
+
+    ArrayList span = (ArrayList) spans.removeFirst();
+    dataPointCount -= span.size();
+    notifyAll();
+    return span;
+  }
+
+  /**
+   * Check if the queue is full. The queue is full if it holds spans with at least as many data
+   * points as its capacity.
+   *
+   * @return true/false queue is full
+   */
+  public synchronized boolean isFull() {
+    return spans.size() > 0 && dataPointCount >= capacity;
+  }
+
+  /**
+   * Get the number of data points of the spans in the queue.
+   *
+   * @return number of data points
+   */
+  public synchronized int getDataPointCount() {
+    return dataPointCount;
+  }
+}
@@ -0,0 +1,34 @@
+package com.hms.flexyosisoftconnector.datafilter;
+
+import com.hms_networks.americas.sc.extensions.datapoint.DataPoint;
+import com.hms_networks.americas.sc.extensions.datapoint.DataPointBoolean;
+import com.hms_networks.americas.sc.extensions.datapoint.DataPointDword;
+import com.hms_networks.americas.sc.extensions.datapoint.DataPointFloat;
+import com.hms_networks.americas.sc.extensions.datapoint.DataPointInteger;
+
+/**
+ * Utility methods for reading the values of data points without allocating.
+ *
+ * @author HMS Networks, MU Americas Solution Center
+ */
+public class DataPointValues {
+
+  /**
+   * Get the value of a numeric data point. Boolean values are read as 0 or 1.
+   *
+   * @param dataPoint the data point
+   * @return the value, or {@link Double#NaN} if the data point is not numeric
+   */
+  public static double getNumericValue(DataPoint dataPoint) {
+    if (dataPoint instanceof DataPointFloat) {
+      return ((DataPointFloat) dataPoint).getValue();
+    } else if (dataPoint instanceof DataPointInteger) {
+      return ((DataPointInteger) dataPoint).getValue();
+    } else if (dataPoint instanceof DataPointDword) {
+      return ((DataPointDword) dataPoint).getValue();
+    } else if (dataPoint instanceof DataPointBoolean) {
+      return ((DataPointBoolean) dataPoint).getValue() ? 1 : 0;
+    }
+    return Double.NaN;
+  }
+}
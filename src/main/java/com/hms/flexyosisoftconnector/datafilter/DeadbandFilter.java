@@ -0,0 +1,245 @@
+package com.hms.flexyosisoftconnector.datafilter;
+
+import com.hms.flexyosisoftconnector.configuration.OSIsoftTagSettings;
+import com.hms.flexyosisoftconnector.payloadhandler.TagDescriptor;
+import com.hms_networks.americas.sc.extensions.datapoint.DataPoint;
+
+/**
+ * Report-by-exception filter which drops data points that do not differ enough from the last value
+ * sent for their tag.
+ *
+ * <p>A data point is passed on if its value differs from the last sent value by more than the
+ * tag's deadband, or if the tag's maximum interval has passed since the last sent value. The
+ * deadband is the larger of the absolute deadband and the percent deadband, which is a percentage
+ * of the last sent value. When a data point passes the deadband, the last dropped data point is
+ * sent before it so the trend in PI changes at the right time, like PI exception reporting does.
+ *
+ * <p>Tags without a deadband setting, and string tags, are always passed on. The state of each tag
+ * is held in primitive arrays indexed by tag ordinal, so filtering does not allocate.
+ *
+ * @author HMS Networks, MU Americas Solution Center
+ */
+public class DeadbandFilter implements DataPointSink {
+
+  /** Tag setting for the absolute deadband. */
+  public static final String DEADBAND_SETTING = "Deadband";
+
+  /** Tag setting for the deadband as a percentage of the last sent value. */
+  public static final String DEADBAND_PERCENT_SETTING = "DeadbandPercent";
+
+  /** Tag setting for the maximum number of seconds between sent values. */
+  public static final String MAX_INTERVAL_SECONDS_SETTING = "MaxIntervalSeconds";
+
+  /** Default maximum number of seconds between sent values. */
+  static final long MAX_INTERVAL_SECONDS_DEFAULT = 600;
+
+  /** Value of an unset deadband setting. */
+  private static final double NO_DEADBAND = -1;
+
+  /** Tag state for a tag whose settings have not been read. */
+  private static final byte STATE_UNRESOLVED = 0;
+
+  /** Tag state for a tag without a deadband, which passes all data points. */
+  private static final byte STATE_PASS = 1;
+
+  /** Tag state for a filtered tag which has not sent a value. */
+  private static final byte STATE_NOT_SENT = 2;
+
+  /** Tag state for a filtered tag which has sent a value. */
+  private static final byte STATE_SENT = 3;
+
+  /** Stage which data points are passed on to. */
+  private final DataPointSink next;
+
+  /** State of each tag ordinal. */
+  private byte[] tagStates;
+
+  /** Absolute deadband of each tag ordinal. */
+  private double[] absoluteDeadbands;
+
+  /** Percent deadband of each tag ordinal. */
+  private double[] percentDeadbands;
+
+  /** Maximum interval of each tag ordinal in seconds, or 0 for no maximum. */
+  private long[] maxIntervalsSeconds;
+
+  /** Last sent value of each tag ordinal. */
+  private double[] lastSentValues;
+
+  /** Timestamp of the last sent value of each tag ordinal. */
+  private long[] lastSentTimes;
+
+  /** Last dropped data point of each tag ordinal, or null. */
+  private DataPoint[] heldDataPoints;
+
+  /** Timestamp of the last dropped data point of each tag ordinal. */
+  private long[] heldTimes;
+
+  /** Number of data points dropped by the filter. */
+  private long droppedCount;
+
+  /** Number of data points passed on by the filter. */
+  private long passedCount;
+
+  /**
+   * Constructor for the deadband filter.
+   *
+   * @param next stage to pass data points on to
+   * @param tagOrdinalCount number of tag ordinals expected, the state grows if more are seen
+   */
+  public DeadbandFilter(DataPointSink next, int tagOrdinalCount) {
+    this.next = next;
+    allocate(Math.max(tagOrdinalCount, 1));
+  }
+
+  /**
+   * Allocate the per-tag state arrays, copying the existing state.
+   *
+   * @param capacity number of tag ordinals to hold
+   */
+  private void allocate(int capacity) {
+    final int oldCapacity = tagStates != null ? tagStates.length : 0;
+
+    byte[] newTagStates = new byte[capacity];
+    double[] newAbsoluteDeadbands = new double[capacity];
+    double[] newPercentDeadbands = new double[capacity];
+    long[] newMaxIntervalsSeconds = new long[capacity];
+    double[] newLastSentValues = new double[capacity];
+    long[] newLastSentTimes = new long[capacity];
+    DataPoint[] newHeldDataPoints = new DataPoint[capacity];
+    long[] newHeldTimes = new long[capacity];
+
+    if (oldCapacity > 0) {
+      System.arraycopy(tagStates, 0, newTagStates, 0, oldCapacity);
+      System.arraycopy(absoluteDeadbands, 0, newAbsoluteDeadbands, 0, oldCapacity);
+      System.arraycopy(percentDeadbands, 0, newPercentDeadbands, 0, oldCapacity);
+      System.arraycopy(maxIntervalsSeconds, 0, newMaxIntervalsSeconds, 0, oldCapacity);
+      System.arraycopy(lastSentValues, 0, newLastSentValues, 0, oldCapacity);
+      System.arraycopy(lastSentTimes, 0, newLastSentTimes, 0, oldCapacity);
+      System.arraycopy(heldDataPoints, 0, newHeldDataPoints, 0, oldCapacity);
+      System.arraycopy(heldTimes, 0, newHeldTimes, 0, oldCapacity);
+    }
+
+    tagStates = newTagStates;
+    absoluteDeadbands = newAbsoluteDeadbands;
+    percentDeadbands = newPercentDeadbands;
+    maxIntervalsSeconds = newMaxIntervalsSeconds;
+    lastSentValues = newLastSentValues;
+    lastSentTimes = newLastSentTimes;
+    heldDataPoints = newHeldDataPoints;
+    heldTimes = newHeldTimes;
+  }
+
+  /**
+   * Read the deadband settings of a tag.
+   *
+   * @param ordinal ordinal of the tag
+   * @param descriptor descriptor of the tag
+   */
+  private void resolve(int ordinal, TagDescriptor descriptor) {
+    final String tagName = descriptor.getTagName();
+    final String tagGroup = descriptor.getTagGroup();
+    final String tagType = descriptor.getOmfTypeName();
+    absoluteDeadbands[ordinal] =
+        OSIsoftTagSettings.getDouble(tagName, tagGroup, tagType, DEADBAND_SETTING, NO_DEADBAND);
+    percentDeadbands[ordinal] =
+        OSIsoftTagSettings.getDouble(
+            tagName, tagGroup, tagType, DEADBAND_PERCENT_SETTING, NO_DEADBAND);
+    maxIntervalsSeconds[ordinal] =
+        OSIsoftTagSettings.getLong(
+            tagName, tagGroup, tagType, MAX_INTERVAL_SECONDS_SETTING, MAX_INTERVAL_SECONDS_DEFAULT);
+
+    if (absoluteDeadbands[ordinal] < 0 && percentDeadbands[ordinal] < 0) {
+      tagStates[ordinal] = STATE_PASS;
+    } else {
+      tagStates[ordinal] = STATE_NOT_SENT;
+    }
+  }
+
+  /**
+   * Filter a data point and pass it on if it is an exception.
+   *
+   * @param dataPoint the data point
+   * @param descriptor descriptor of the data point's tag
+   * @param epochSeconds timestamp of the data point in seconds since the epoch
+   */
+  public void append(DataPoint dataPoint, TagDescriptor descriptor, long epochSeconds) {
+    final int ordinal = descriptor.getOrdinal();
+    if (ordinal >= tagStates.length) {
+      allocate(Math.max(tagStates.length * 2, ordinal + 1));
+    }
+    if (tagStates[ordinal] == STATE_UNRESOLVED) {
+      resolve(ordinal, descriptor);
+    }
+
+    final double value = DataPointValues.getNumericValue(dataPoint);
+    if (tagStates[ordinal] == STATE_PASS || Double.isNaN(value)) {
+      passedCount++;
+      next.append(dataPoint, descriptor, epochSeconds);
+      return;
+    }
+
+    boolean exceedsDeadband = true;
+    boolean send = true;
+    if (tagStates[ordinal] == STATE_SENT && epochSeconds >= lastSentTimes[ordinal]) {
+      final double lastSentValue = lastSentValues[ordinal];
+      final double deadband =
+          Math.max(
+              absoluteDeadbands[ordinal],
+              (percentDeadbands[ordinal] * Math.abs(lastSentValue)) / 100);
+      exceedsDeadband = Math.abs(value - lastSentValue) > deadband;
+      final long maxIntervalSeconds = maxIntervalsSeconds[ordinal];
+      send =
+          exceedsDeadband
+              || (maxIntervalSeconds > 0
+                  && epochSeconds - lastSentTimes[ordinal] >= maxIntervalSeconds);
+    }
+
+    if (send) {
+      // Send the last dropped point first so the value changes at the right time in PI
+      final DataPoint heldDataPoint = heldDataPoints[ordinal];
+      if (heldDataPoint != null && exceedsDeadband && heldTimes[ordinal] <= epochSeconds) {
+        passedCount++;
+        next.append(heldDataPoint, descriptor, heldTimes[ordinal]);
+      }
+      heldDataPoints[ordinal] = null;
+
+      tagStates[ordinal] = STATE_SENT;
+      lastSentValues[ordinal] = value;
+      lastSentTimes[ordinal] = epochSeconds;
+      passedCount++;
+      next.append(dataPoint, descriptor, epochSeconds);
+    } else {
+      heldDataPoints[ordinal] = dataPoint;
+      heldTimes[ordinal] = epochSeconds;
+      droppedCount++;
+    }
+  }
+
+  /**
+   * Pass on the end of a span of the historical data queue.
+   *
+   * @param latestEpochSeconds latest timestamp appended so far in seconds since the epoch
+   */
+  public void endOfSpan(long latestEpochSeconds) {
+    next.endOfSpan(latestEpochSeconds);
+  }
+
+  /**
+   * Get the number of data points dropped by the filter.
+   *
+   * @return number of dropped data points
+   */
+  public long getDroppedCount() {
+    return droppedCount;
+  }
+
+  /**
+   * Get the number of data points passed on by the filter.
+   *
+   * @return number of passed data points
+   */
+  public long getPassedCount() {
+    return passedCount;
+  }
+}
@@ -0,0 +1,401 @@
+package com.hms.flexyosisoftconnector.datafilter;
+
+import com.hms.flexyosisoftconnector.configuration.OSIsoftTagSettings;
+import com.hms.flexyosisoftconnector.payloadhandler.TagDescriptor;
+import com.hms_networks.americas.sc.extensions.datapoint.DataPoint;
+import com.hms_networks.americas.sc.extensions.datapoint.DataPointBoolean;
+
+/**
+ * Swinging door compressor which only passes on the data points the PI archive would keep.
+ *
+ * <p>The compressor follows the PI archive compression algorithm. For each tag it keeps the last
+ * passed data point and the most recent data point, which is held back. The slopes from the last
+ * passed point to each held value, plus and minus the compression deviation, form a pair of doors.
+ * When a new data point falls outside the doors, the held point is passed on and becomes the start
+ * of new doors. The held point is also passed on once the compression maximum time has passed
+ * since the last passed point, or if data points arrive out of order. At the end of each span of
+ * the historical data queue, held points of tags whose compression maximum time has passed are
+ * passed on, measured both in data time and in the time the point has been held, so the last
+ * value of a tag which stopped changing is not held back longer than the compression maximum time
+ * even when no newer data points arrive.
+ *
+ * <p>Only numeric tags with a compression deviation setting are compressed; all other data points
+ * are passed on. The state of each tag is a fixed set of primitive values, one held data point
+ * reference and the tag descriptor reference, indexed by tag ordinal.
+ *
+ * @author HMS Networks, MU Americas Solution Center
+ */
+public class SwingingDoorCompressor implements DataPointSink {
+
+  /** Tag setting for the compression deviation. */
+  public static final String COMPRESSION_DEVIATION_SETTING = "CompressionDeviation";
+
+  /** Tag setting for the maximum number of seconds between passed values. */
+  public static final String COMPRESSION_MAX_SECONDS_SETTING = "CompressionMaxSeconds";
+
+  /**
+   * Default maximum number of seconds between passed values. This is much shorter than the PI
+   * archive default of 8 hours, as it also bounds how long the last value of a tag is held back.
+   */
+  static final long COMPRESSION_MAX_SECONDS_DEFAULT = 600;
+
+  /** Number of milliseconds per second. */
+  private static final long MILLISECONDS_PER_SECOND = 1000;
+
+  /** Value of an unset compression deviation setting. */
+  private static final double NO_DEVIATION = -1;
+
+  /** Tag state for a tag whose settings have not been read. */
+  private static final byte STATE_UNRESOLVED = 0;
+
+  /** Tag state for a tag without compression, which passes all data points. */
+  private static final byte STATE_PASS = 1;
+
+  /** Tag state for a compressed tag which has not passed a value. */
+  private static final byte STATE_EMPTY = 2;
+
+  /** Tag state for a compressed tag which has passed a value and holds no value. */
+  private static final byte STATE_ARCHIVED = 3;
+
+  /** Tag state for a compressed tag which has passed a value and holds a value. */
+  private static final byte STATE_HOLDING = 4;
+
+  /** Stage which data points are passed on to. */
+  private final DataPointSink next;
+
+  /** State of each tag ordinal. */
+  private byte[] tagStates;
+
+  /** Compression deviation of each tag ordinal. */
+  private double[] deviations;
+
+  /** Compression maximum time of each tag ordinal in seconds, or 0 for no maximum. */
+  private long[] maxTimesSeconds;
+
+  /** Value of the last passed data point of each tag ordinal. */
+  private double[] archivedValues;
+
+  /** Timestamp of the last passed data point of each tag ordinal. */
+  private long[] archivedTimes;
+
+  /** Held data point of each tag ordinal, or null. */
+  private DataPoint[] heldDataPoints;
+
+  /** Descriptor of each resolved tag ordinal, or null. */
+  private TagDescriptor[] descriptors;
+
+  /** Value of the held data point of each tag ordinal. */
+  private double[] heldValues;
+
+  /** Timestamp of the held data point of each tag ordinal. */
+  private long[] heldTimes;
+
+  /** Time the held data point of each tag ordinal was stored, in milliseconds since the epoch. */
+  private long[] heldSinceMillis;
+
+  /** Upper door slope of each tag ordinal. */
+  private double[] slopesHigh;
+
+  /** Lower door slope of each tag ordinal. */
+  private double[] slopesLow;
+
+  /** Number of data points dropped by the compressor. */
+  private long droppedCount;
+
+  /** Number of data points passed on by the compressor. */
+  private long passedCount;
+
+  /**
+   * Constructor for the swinging door compressor.
+   *
+   * @param next stage to pass data points on to
+   * @param tagOrdinalCount number of tag ordinals expected, the state grows if more are seen
+   */
+  public SwingingDoorCompressor(DataPointSink next, int tagOrdinalCount) {
+    this.next = next;
+    allocate(Math.max(tagOrdinalCount, 1));
+  }
+
+  /**
+   * Allocate the per-tag state arrays, copying the existing state.
+   *
+   * @param capacity number of tag ordinals to hold
+   */
+  private void allocate(int capacity) {
+    final int oldCapacity = tagStates != null ? tagStates.length : 0;
+
+    byte[] newTagStates = new byte[capacity];
+    double[] newDeviations = new double[capacity];
+    long[] newMaxTimesSeconds = new long[capacity];
+    double[] newArchivedValues = new double[capacity];
+    long[] newArchivedTimes = new long[capacity];
+    DataPoint[] newHeldDataPoints = new DataPoint[capacity];
+    TagDescriptor[] newDescriptors = new TagDescriptor[capacity];
+    double[] newHeldValues = new double[capacity];
+    long[] newHeldTimes = new long[capacity];
+    long[] newHeldSinceMillis = new long[capacity];
+    double[] newSlopesHigh = new double[capacity];
+    double[] newSlopesLow = new double[capacity];
+
+    if (oldCapacity > 0) {
+      System.arraycopy(tagStates, 0, newTagStates, 0, oldCapacity);
+      System.arraycopy(deviations, 0, newDeviations, 0, oldCapacity);
+      System.arraycopy(maxTimesSeconds, 0, newMaxTimesSeconds, 0, oldCapacity);
+      System.arraycopy(archivedValues, 0, newArchivedValues, 0, oldCapacity);
+      System.arraycopy(archivedTimes, 0, newArchivedTimes, 0, oldCapacity);
+      System.arraycopy(heldDataPoints, 0, newHeldDataPoints, 0, oldCapacity);
+      System.arraycopy(descriptors, 0, newDescriptors, 0, oldCapacity);
+      System.arraycopy(heldValues, 0, newHeldValues, 0, oldCapacity);
+      System.arraycopy(heldTimes, 0, newHeldTimes, 0, oldCapacity);
+      System.arraycopy(heldSinceMillis, 0, newHeldSinceMillis, 0, oldCapacity);
+      System.arraycopy(slopesHigh, 0, newSlopesHigh, 0, oldCapacity);
+      System.arraycopy(slopesLow, 0, newSlopesLow, 0, oldCapacity);
+    }
+
+    tagStates = newTagStates;
+    deviations = newDeviations;
+    maxTimesSeconds = newMaxTimesSeconds;
+    archivedValues = newArchivedValues;
+    archivedTimes = newArchivedTimes;
+    heldDataPoints = newHeldDataPoints;
+    descriptors = newDescriptors;
+    heldValues = newHeldValues;
+    heldTimes = newHeldTimes;
+    heldSinceMillis = newHeldSinceMillis;
+    slopesHigh = newSlopesHigh;
+    slopesLow = newSlopesLow;
+  }
+
+  /**
+   * Read the compression settings of a tag.
+   *
+   * @param ordinal ordinal of the tag
+   * @param descriptor descriptor of the tag
+   */
+  private void resolve(int ordinal, TagDescriptor descriptor) {
+    final String tagName = descriptor.getTagName();
+    final String tagGroup = descriptor.getTagGroup();
+    final String tagType = descriptor.getOmfTypeName();
+    deviations[ordinal] =
+        OSIsoftTagSettings.getDouble(
+            tagName, tagGroup, tagType, COMPRESSION_DEVIATION_SETTING, NO_DEVIATION);
+    maxTimesSeconds[ordinal] =
+        OSIsoftTagSettings.getLong(
+            tagName,
+            tagGroup,
+            tagType,
+            COMPRESSION_MAX_SECONDS_SETTING,
+            COMPRESSION_MAX_SECONDS_DEFAULT);
+    descriptors[ordinal] = descriptor;
+    tagStates[ordinal] = deviations[ordinal] < 0 ? STATE_PASS : STATE_EMPTY;
+  }
+
+  /**
+   * Compress a data point, passing on the held data point if the new one closes the doors.
+   *
+   * @param dataPoint the data point
+   * @param descriptor descriptor of the data point's tag
+   * @param epochSeconds timestamp of the data point in seconds since the epoch
+   */
+  public void append(DataPoint dataPoint, TagDescriptor descriptor, long epochSeconds) {
+    final double value =
+        dataPoint instanceof DataPointBoolean
+            ? Double.NaN
+            : DataPointValues.getNumericValue(dataPoint);
+    appendValue(dataPoint, descriptor, value, epochSeconds);
+  }
+
+  /**
+   * Compress a data point with the specified numeric value.
+   *
+   * @param dataPoint the data point
+   * @param descriptor descriptor of the data point's tag
+   * @param value numeric value of the data point, or {@link Double#NaN} to pass it on uncompressed
+   * @param epochSeconds timestamp of the data point in seconds since the epoch
+   */
+  void appendValue(DataPoint dataPoint, TagDescriptor descriptor, double value, long epochSeconds) {
+    final int ordinal = descriptor.getOrdinal();
+    if (ordinal >= tagStates.length) {
+      allocate(Math.max(tagStates.length * 2, ordinal + 1));
+    }
+    if (tagStates[ordinal] == STATE_UNRESOLVED) {
+      resolve(ordinal, descriptor);
+    }
+
+    if (tagStates[ordinal] == STATE_PASS || Double.isNaN(value)) {
+      passedCount++;
+      next.append(dataPoint, descriptor, epochSeconds);
+      return;
+    }
+
+    switch (tagStates[ordinal]) {
+      case STATE_EMPTY:
+        archive(ordinal, dataPoint, descriptor, value, epochSeconds);
+        break;
+      case STATE_ARCHIVED:
+        if (epochSeconds <= archivedTimes[ordinal]) {
+          archive(ordinal, dataPoint, descriptor, value, epochSeconds);
+        } else {
+          hold(ordinal, dataPoint, value, epochSeconds);
+        }
+        break;
+      default:
+        if (epochSeconds <= heldTimes[ordinal]) {
+          // Out of order or repeated timestamp, restart compression from this data point
+          archiveHeld(ordinal, descriptor);
+          archive(ordinal, dataPoint, descriptor, value, epochSeconds);
+          break;
+        }
+
+        final long archivedTime = archivedTimes[ordinal];
+        final double slope = (value - archivedValues[ordinal]) / (epochSeconds - archivedTime);
+        final long maxTimeSeconds = maxTimesSeconds[ordinal];
+        if (slope > slopesHigh[ordinal]
+            || slope < slopesLow[ordinal]
+            || (maxTimeSeconds > 0 && epochSeconds - archivedTime > maxTimeSeconds)) {
+          // The new value closes the doors, keep the held value and open new doors from it
+          archiveHeld(ordinal, descriptor);
+          hold(ordinal, dataPoint, value, epochSeconds);
+        } else {
+          droppedCount++;
+          narrowDoors(ordinal, value, epochSeconds);
+          setHeld(ordinal, dataPoint, value, epochSeconds);
+        }
+        break;
+    }
+  }
+
+  /**
+   * Pass on a data point and make it the start of new doors.
+   *
+   * @param ordinal ordinal of the tag
+   * @param dataPoint the data point
+   * @param descriptor descriptor of the tag
+   * @param value value of the data point
+   * @param epochSeconds timestamp of the data point
+   */
+  private void archive(
+      int ordinal, DataPoint dataPoint, TagDescriptor descriptor, double value, long epochSeconds) {
+    archivedValues[ordinal] = value;
+    archivedTimes[ordinal] = epochSeconds;
+    heldDataPoints[ordinal] = null;
+    tagStates[ordinal] = STATE_ARCHIVED;
+    passedCount++;
+    next.append(dataPoint, descriptor, epochSeconds);
+  }
+
+  /**
+   * Pass on the held data point of a tag and make it the start of new doors.
+   *
+   * @param ordinal ordinal of the tag
+   * @param descriptor descriptor of the tag
+   */
+  private void archiveHeld(int ordinal, TagDescriptor descriptor) {
+    archive(
+        ordinal, heldDataPoints[ordinal], descriptor, heldValues[ordinal], heldTimes[ordinal]);
+  }
+
+  /**
+   * Hold the first data point after the start of the doors, which sets the initial door slopes.
+   *
+   * @param ordinal ordinal of the tag
+   * @param dataPoint the data point
+   * @param value value of the data point
+   * @param epochSeconds timestamp of the data point, later than the last passed data point
+   */
+  private void hold(int ordinal, DataPoint dataPoint, double value, long epochSeconds) {
+    slopesHigh[ordinal] = Double.POSITIVE_INFINITY;
+    slopesLow[ordinal] = Double.NEGATIVE_INFINITY;
+    narrowDoors(ordinal, value, epochSeconds);
+    setHeld(ordinal, dataPoint, value, epochSeconds);
+    tagStates[ordinal] = STATE_HOLDING;
+  }
+
+  /**
+   * Store the held data point of a tag.
+   *
+   * @param ordinal ordinal of the tag
+   * @param dataPoint the data point
+   * @param value value of the data point
+   * @param epochSeconds timestamp of the data point
+   */
+  private void setHeld(int ordinal, DataPoint dataPoint, double value, long epochSeconds) {
+    heldDataPoints[ordinal] = dataPoint;
+    heldValues[ordinal] = value;
+    heldTimes[ordinal] = epochSeconds;
+    heldSinceMillis[ordinal] = System.currentTimeMillis();
+  }
+
+  /**
+   * Narrow the doors of a tag to the deviation band around a value.
+   *
+   * @param ordinal ordinal of the tag
+   * @param value value within the doors
+   * @param epochSeconds timestamp of the value, later than the last passed data point
+   */
+  private void narrowDoors(int ordinal, double value, long epochSeconds) {
+    final double deviation = deviations[ordinal];
+    final double archivedValue = archivedValues[ordinal];
+    final long elapsedSeconds = epochSeconds - archivedTimes[ordinal];
+    final double slopeHigh = (value + deviation - archivedValue) / elapsedSeconds;
+    final double slopeLow = (value - deviation - archivedValue) / elapsedSeconds;
+    if (slopeHigh < slopesHigh[ordinal]) {
+      slopesHigh[ordinal] = slopeHigh;
+    }
+    if (slopeLow > slopesLow[ordinal]) {
+      slopesLow[ordinal] = slopeLow;
+    }
+  }
+
+  /**
+   * Pass on the held data points of tags whose compression maximum time has passed, then pass on
+   * the end of a span of the historical data queue.
+   *
+   * @param latestEpochSeconds latest timestamp appended so far in seconds since the epoch
+   */
+  public void endOfSpan(long latestEpochSeconds) {
+    releaseHeld(latestEpochSeconds, System.currentTimeMillis());
+    next.endOfSpan(latestEpochSeconds);
+  }
+
+  /**
+   * Pass on the held data points of tags whose compression maximum time has passed since the last
+   * passed data point, or which have been held for longer than the compression maximum time. Data
+   * points appended later are at or after the latest timestamp, so they would close the doors of
+   * the first tags anyway. The second tags have not received a data point for that long, so their
+   * last value is passed on rather than waiting for data which may not come.
+   *
+   * @param latestEpochSeconds latest timestamp appended so far in seconds since the epoch
+   * @param nowMillis current time in milliseconds since the epoch
+   */
+  void releaseHeld(long latestEpochSeconds, long nowMillis) {
+    for (int ordinal = 0; ordinal < tagStates.length; ordinal++) {
+      final long maxTimeSeconds = maxTimesSeconds[ordinal];
+      if (tagStates[ordinal] == STATE_HOLDING
+          && maxTimeSeconds > 0
+          && (latestEpochSeconds - archivedTimes[ordinal] > maxTimeSeconds
+              || nowMillis - heldSinceMillis[ordinal]
+                  > maxTimeSeconds * MILLISECONDS_PER_SECOND)) {
+        archiveHeld(ordinal, descriptors[ordinal]);
+      }
+    }
+  }
+
+  /**
+   * Get the number of data points dropped by the compressor.
+   *
+   * @return number of dropped data points
+   */
+  public long getDroppedCount() {
+    return droppedCount;
+  }
+
+  /**
+   * Get the number of data points passed on by the compressor.
+   *
+   * @return number of passed data points
+   */
+  public long getPassedCount() {
+    return passedCount;
+  }
+}
@@ -0,0 +1,321 @@
+package com.hms.flexyosisoftconnector.datafilter;
+
+import com.hms.flexyosisoftconnector.configuration.OSIsoftTagSettings;
+import com.hms.flexyosisoftconnector.payloadhandler.OsisoftJsonPayload;
+import com.hms.flexyosisoftconnector.payloadhandler.PayloadManager;
+import com.hms.flexyosisoftconnector.payloadhandler.TagDescriptor;
+import com.hms.flexyosisoftconnector.payloadhandler.TagDescriptorTable;
+import com.hms_networks.americas.sc.extensions.datapoint.DataPoint;
+import com.hms_networks.americas.sc.extensions.datapoint.DataPointBoolean;
+import com.hms_networks.americas.sc.extensions.logging.Logger;
+
+/**
+ * Aggregator which replaces the data points of a tag with the average, minimum, maximum and count
+ * of its values over fixed time windows.
+ *
+ * <p>Windows are aligned to multiples of the window length since the epoch. The aggregates of a
+ * window are sent, timestamped at the start of the window, to the containers named after the tag's
+ * container with the suffixes "-avg", "-min", "-max" and "-count". A window is closed when a data
+ * point of a later window arrives, or at the end of a span of the historical data queue once the
+ * queue has moved past the end of the window. Open windows are kept between spans, so a window
+ * which crosses a span boundary is only sent once.
+ *
+ * <p>Only numeric tags with an aggregate window setting are aggregated; all other data points are
+ * passed on. Aggregates are accumulated in primitive arrays indexed by tag ordinal. The aggregate
+ * containers are created when the aggregator is constructed, so only tags known at startup can be
+ * aggregated.
+ *
+ * @author HMS Networks, MU Americas Solution Center
+ */
+public class WindowAggregator implements DataPointSink {
+
+  /** Tag setting for the length of the aggregate windows in seconds. */
+  public static final String AGGREGATE_SECONDS_SETTING = "AggregateSeconds";
+
+  /** Container suffix of the average of each window. */
+  public static final String AVERAGE_CONTAINER_SUFFIX = "-avg";
+
+  /** Container suffix of the minimum of each window. */
+  public static final String MINIMUM_CONTAINER_SUFFIX = "-min";
+
+  /** Container suffix of the maximum of each window. */
+  public static final String MAXIMUM_CONTAINER_SUFFIX = "-max";
+
+  /** Container suffix of the number of values in each window. */
+  public static final String COUNT_CONTAINER_SUFFIX = "-count";
+
+  /** Number of aggregate containers of each aggregated tag. */
+  private static final int AGGREGATES_PER_TAG = 4;
+
+  /** Offset of the average container of a tag in {@link #aggregateDescriptors}. */
+  private static final int AVERAGE_OFFSET = 0;
+
+  /** Offset of the minimum container of a tag in {@link #aggregateDescriptors}. */
+  private static final int MINIMUM_OFFSET = 1;
+
+  /** Offset of the maximum container of a tag in {@link #aggregateDescriptors}. */
+  private static final int MAXIMUM_OFFSET = 2;
+
+  /** Offset of the count container of a tag in {@link #aggregateDescriptors}. */
+  private static final int COUNT_OFFSET = 3;
+
+  /** Stage which data points of tags which are not aggregated are passed on to. */
+  private final DataPointSink next;
+
+  /** Payload manager which receives the aggregates. */
+  private final PayloadManager payloadManager;
+
+  /** Number of tag ordinals which may be aggregated, other tags are passed on. */
+  private final int tagCapacity;
+
+  /** Window length of each tag ordinal in seconds, or 0 if the tag is not aggregated. */
+  private final long[] windowsSeconds;
+
+  /** Start of the open window of each tag ordinal in seconds since the epoch. */
+  private final long[] windowStarts;
+
+  /** Number of values in the open window of each tag ordinal. */
+  private final int[] counts;
+
+  /** Sum of the values in the open window of each tag ordinal. */
+  private final double[] sums;
+
+  /** Minimum value in the open window of each tag ordinal. */
+  private final double[] minimums;
+
+  /** Maximum value in the open window of each tag ordinal. */
+  private final double[] maximums;
+
+  /** Aggregate container descriptors, {@link #AGGREGATES_PER_TAG} for each tag ordinal. */
+  private final TagDescriptor[] aggregateDescriptors;
+
+  /** Ordinals of the aggregated tags. */
+  private final int[] aggregatedOrdinals;
+
+  /** Number of aggregated tags. */
+  private final int aggregatedCount;
+
+  /** Number of data points aggregated. */
+  private long aggregatedDataPointCount;
+
+  /** Number of windows sent. */
+  private long windowCount;
+
+  /**
+   * Constructor for the window aggregator. Creates the aggregate containers of every tag with an
+   * aggregate window setting. The tag descriptor table must be built before calling this method.
+   *
+   * @param next stage to pass data points of tags which are not aggregated on to
+   * @param payloadManager payload manager which receives the aggregates
+   */
+  public WindowAggregator(DataPointSink next, PayloadManager payloadManager) {
+    this.next = next;
+    this.payloadManager = payloadManager;
+
+    tagCapacity = TagDescriptorTable.getOrdinalCount();
+    windowsSeconds = new long[tagCapacity];
+    windowStarts = new long[tagCapacity];
+    counts = new int[tagCapacity];
+    sums = new double[tagCapacity];
+    minimums = new double[tagCapacity];
+    maximums = new double[tagCapacity];
+    aggregateDescriptors = new TagDescriptor[tagCapacity * AGGREGATES_PER_TAG];
+
+    int[] ordinals = new int[tagCapacity];
+    int count = 0;
+    for (int ordinal = 0; ordinal < tagCapacity; ordinal++) {
+      TagDescriptor descriptor = TagDescriptorTable.getDescriptorByOrdinal(ordinal);
+      final long windowSeconds = getWindowSeconds(descriptor);
+      if (windowSeconds > 0 && isNumeric(descriptor)) {
+        windowsSeconds[ordinal] = windowSeconds;
+        createAggregateDescriptors(ordinal, descriptor);
+        ordinals[count++] = ordinal;
+      } else if (windowSeconds > 0) {
+        Logger.LOG_WARN(
+            "Tag " + descriptor.getTagName() + " is not numeric and will not be aggregated.");
+      }
+    }
+    aggregatedOrdinals = ordinals;
+    aggregatedCount = count;
+
+    Logger.LOG_INFO("Aggregating the values of " + aggregatedCount + " tags.");
+  }
+
+  /**
+   * Get the aggregate window length configured for a tag.
+   *
+   * @param descriptor descriptor of the tag
+   * @return window length in seconds, or 0 if the tag is not aggregated
+   */
+  static long getWindowSeconds(TagDescriptor descriptor) {
+    return OSIsoftTagSettings.getLong(
+        descriptor.getTagName(),
+        descriptor.getTagGroup(),
+        descriptor.getOmfTypeName(),
+        AGGREGATE_SECONDS_SETTING,
+        0);
+  }
+
+  /**
+   * Check if any tag known at startup has an aggregate window setting.
+   *
+   * @return true if at least one tag is configured to be aggregated
+   */
+  public static boolean isConfiguredForAnyTag() {
+    final int tagOrdinalCount = TagDescriptorTable.getOrdinalCount();
+    for (int ordinal = 0; ordinal < tagOrdinalCount; ordinal++) {
+      if (getWindowSeconds(TagDescriptorTable.getDescriptorByOrdinal(ordinal)) > 0) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Check if a tag has numeric values which can be aggregated.
+   *
+   * @param descriptor descriptor of the tag
+   * @return true if the tag is a float, integer or DWord tag
+   */
+  private static boolean isNumeric(TagDescriptor descriptor) {
+    final String omfTypeName = descriptor.getOmfTypeName();
+    return omfTypeName.equals(OsisoftJsonPayload.NUMBER_TAG_TYPE)
+        || omfTypeName.equals(OsisoftJsonPayload.INTEGER_TAG_TYPE);
+  }
+
+  /**
+   * Create the aggregate container descriptors of a tag.
+   *
+   * @param ordinal ordinal of the tag
+   * @param descriptor descriptor of the tag
+   */
+  private void createAggregateDescriptors(int ordinal, TagDescriptor descriptor) {
+    final int base = ordinal * AGGREGATES_PER_TAG;
+    aggregateDescriptors[base + AVERAGE_OFFSET] =
+        TagDescriptorTable.createDerivedDescriptor(
+            descriptor, AVERAGE_CONTAINER_SUFFIX, OsisoftJsonPayload.NUMBER_TAG_TYPE);
+    aggregateDescriptors[base + MINIMUM_OFFSET] =
+        TagDescriptorTable.createDerivedDescriptor(
+            descriptor, MINIMUM_CONTAINER_SUFFIX, OsisoftJsonPayload.NUMBER_TAG_TYPE);
+    aggregateDescriptors[base + MAXIMUM_OFFSET] =
+        TagDescriptorTable.createDerivedDescriptor(
+            descriptor, MAXIMUM_CONTAINER_SUFFIX, OsisoftJsonPayload.NUMBER_TAG_TYPE);
+    aggregateDescriptors[base + COUNT_OFFSET] =
+        TagDescriptorTable.createDerivedDescriptor(
+            descriptor, COUNT_CONTAINER_SUFFIX, OsisoftJsonPayload.INTEGER_TAG_TYPE);
+  }
+
+  /**
+   * Add a data point to the open window of its tag, or pass it on if its tag is not aggregated.
+   *
+   * @param dataPoint the data point
+   * @param descriptor descriptor of the data point's tag
+   * @param epochSeconds timestamp of the data point in seconds since the epoch
+   */
+  public void append(DataPoint dataPoint, TagDescriptor descriptor, long epochSeconds) {
+    final int ordinal = descriptor.getOrdinal();
+    final double value = DataPointValues.getNumericValue(dataPoint);
+    if (ordinal >= tagCapacity
+        || windowsSeconds[ordinal] == 0
+        || Double.isNaN(value)
+        || dataPoint instanceof DataPointBoolean) {
+      next.append(dataPoint, descriptor, epochSeconds);
+      return;
+    }
+
+    final long windowSeconds = windowsSeconds[ordinal];
+    if (counts[ordinal] > 0
+        && (epochSeconds >= windowStarts[ordinal] + windowSeconds
+            || epochSeconds < windowStarts[ordinal])) {
+      sendWindow(ordinal);
+    }
+
+    if (counts[ordinal] == 0) {
+      windowStarts[ordinal] = epochSeconds - floorMod(epochSeconds, windowSeconds);
+      sums[ordinal] = value;
+      minimums[ordinal] = value;
+      maximums[ordinal] = value;
+    } else {
+      sums[ordinal] += value;
+      if (value < minimums[ordinal]) {
+        minimums[ordinal] = value;
+      }
+      if (value > maximums[ordinal]) {
+        maximums[ordinal] = value;
+      }
+    }
+    counts[ordinal]++;
+    aggregatedDataPointCount++;
+  }
+
+  /**
+   * Send the windows which end at or before the latest timestamp, then pass on the end of the
+   * span.
+   *
+   * @param latestEpochSeconds latest timestamp appended so far in seconds since the epoch
+   */
+  public void endOfSpan(long latestEpochSeconds) {
+    for (int i = 0; i < aggregatedCount; i++) {
+      final int ordinal = aggregatedOrdinals[i];
+      if (counts[ordinal] > 0
+          && windowStarts[ordinal] + windowsSeconds[ordinal] <= latestEpochSeconds) {
+        sendWindow(ordinal);
+      }
+    }
+    next.endOfSpan(latestEpochSeconds);
+  }
+
+  /**
+   * Send the aggregates of the open window of a tag and clear the window.
+   *
+   * @param ordinal ordinal of the tag
+   */
+  private void sendWindow(int ordinal) {
+    final int base = ordinal * AGGREGATES_PER_TAG;
+    final long windowStart = windowStarts[ordinal];
+    final int count = counts[ordinal];
+    payloadManager.appendValueToPayload(
+        aggregateDescriptors[base + AVERAGE_OFFSET], sums[ordinal] / count, windowStart);
+    payloadManager.appendValueToPayload(
+        aggregateDescriptors[base + MINIMUM_OFFSET], minimums[ordinal], windowStart);
+    payloadManager.appendValueToPayload(
+        aggregateDescriptors[base + MAXIMUM_OFFSET], maximums[ordinal], windowStart);
+    payloadManager.appendValueToPayload(
+        aggregateDescriptors[base + COUNT_OFFSET], count, windowStart);
+    counts[ordinal] = 0;
+    windowCount++;
+  }
+
+  /**
+   * Get the remainder of a division, which is never negative.
+   *
+   * @param dividend value to divide
+   * @param divisor positive value to divide by
+   * @return the remainder
+   */
+  private static long floorMod(long dividend, long divisor) {
+    long remainder = dividend % divisor;
+    if (remainder < 0) {
+      remainder += divisor;
+    }
+    return remainder;
+  }
+
+  /**
+   * Get the number of data points which have been aggregated.
+   *
+   * @return number of aggregated data points
+   */
+  public long getAggregatedDataPointCount() {
+    return aggregatedDataPointCount;
+  }
+
+  /**
+   * Get the number of windows which have been sent.
+   *
+   * @return number of sent windows
+   */
+  public long getWindowCount() {
+    return windowCount;
+  }
+}
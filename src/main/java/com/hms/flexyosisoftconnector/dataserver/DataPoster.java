@@ -1,21 +1,85 @@
 package com.hms.flexyosisoftconnector.dataserver;
 
 import com.hms.flexyosisoftconnector.configuration.OSIsoftConfig;
-import com.hms.flexyosisoftconnector.payloadhandler.PayloadManager;
+import com.hms.flexyosisoftconnector.payloadhandler.ContainerQuarantine;
+import com.hms.flexyosisoftconnector.payloadhandler.DeadLetterFile;
+import com.hms.flexyosisoftconnector.payloadhandler.LatencyStatistics;
+import com.hms.flexyosisoftconnector.payloadhandler.PayloadBatch;
+import com.hms.flexyosisoftconnector.payloadhandler.PayloadByteBuffer;
+import com.hms.flexyosisoftconnector.payloadhandler.PayloadPartition;
+import com.hms.flexyosisoftconnector.payloadhandler.PayloadSizeController;
 import com.hms_networks.americas.sc.extensions.logging.Logger;
 
 public class DataPoster extends Thread {
 
-  /** The PayloadManager to retrieve finished payloads from. */
-  private PayloadManager payloadHolder;
+  /** Number of posts between logging the post latency of a worker. */
+  static final int LATENCY_LOG_INTERVAL_POSTS = 100;
+
+  /** Number of payload posts of all workers waiting for a response. */
+  private static int inFlightCount = 0;
+
+  /** The payload partition to retrieve finished payloads from. */
+  private PayloadPartition payloadHolder;
+
+  /** Prefix of the response files of this worker. */
+  private final String responseFilePrefix;
+
+  /** Number of bytes of the body of the last payload posted by this worker, encoded as UTF-8. */
+  private int lastPostedBytes = 0;
+
+  /** Time taken by each post of this worker. */
+  private final LatencyStatistics postLatency =
+      new LatencyStatistics(LatencyStatistics.DEFAULT_SAMPLE_CAPACITY);
+
+  /**
+   * Constructor for DataPoster class, posting the payloads of one partition. Each worker posts its
+   * own partition, so several payloads are posted at the same time.
+   *
+   * @param payloadPartition passes in the payload partition previously initialized
+   */
+  public DataPoster(PayloadPartition payloadPartition) {
+    payloadHolder = payloadPartition;
+
+    // every worker writes its own response files, including the first
+    responseFilePrefix = "worker" + payloadPartition.getIndex() + "-";
+  }
+
+  /**
+   * Get the number of payload posts of all workers waiting for a response.
+   *
+   * @return in-flight post count
+   */
+  public static synchronized int getInFlightCount() {
+    return inFlightCount;
+  }
+
+  /**
+   * Change the number of payload posts waiting for a response.
+   *
+   * @param change number of posts started, or negative number of posts finished
+   * @return in-flight post count after the change
+   */
+  private static synchronized int changeInFlightCount(int change) {
+    inFlightCount += change;
+    return inFlightCount;
+  }
+
+  /**
+   * Get the number of bytes of the body of the last payload posted by this worker.
+   *
+   * @return posted bytes, or 0 if this worker has not posted a payload
+   */
+  public int getLastPostedBytes() {
+    return lastPostedBytes;
+  }
 
   /**
-   * Constructor for DataPoster class.
+   * Get the statistics of the time taken by each post of this worker.
    *
-   * @param payloadManager passes in the payload manager previously initialized
+   * @return post latency statistics
    */
-  public DataPoster(PayloadManager payloadManager) {
-    payloadHolder = payloadManager;
+  public LatencyStatistics getPostLatency() {
+    return postLatency;
   }
 
   /** Run function used to continuously send payloads to OSIsoft. */
@@ -23,33 +87,62 @@ public class DataPoster extends Thread {
 
     while (true) {
 
-      String payload = payloadHolder.getNextPayload();
+      // wait until a payload is completed, the payload manager wakes this thread immediately
+      PayloadBatch batch = payloadHolder.waitForNextBatch();
 
       // If there are any payloads to send
-      if (payload.length() > 0) {
-        Logger.LOG_DEBUG("Sending completed payload to OSIsoft");
+      if (batch != null) {
+        String payload = batch.getPayload();
+        final int inFlight = changeInFlightCount(1);
+        Logger.LOG_DEBUG(
+            "Worker "
+                + payloadHolder.getIndex()
+                + " sending completed payload to OSIsoft. "
+                + inFlight
+                + " posts in flight.");
 
+        lastPostedBytes = PayloadByteBuffer.encodedLength(payload);
+        final long postStartTimeMs = System.currentTimeMillis();
         boolean retval = false;
         switch (OSIsoftConfig.getCommunicationType()) {
           case OSIsoftConfig.OMF:
-            retval = OSIsoftServer.postOMFBatch(payload);
+            retval = OSIsoftServer.postOMFBatch(payload, responseFilePrefix);
             break;
           case OSIsoftConfig.PI_WEB_API:
-            retval = OSIsoftServer.postBatch(payload);
+            retval = OSIsoftServer.postBatch(payload, responseFilePrefix);
             break;
           case OSIsoftConfig.OCS:
             // see if we need to update the OCS token
             OSIsoftConfig.updateOcsToken();
             // send the data after updating
-            retval = OSIsoftServer.postOcsBatch(payload);
+            retval = OSIsoftServer.postOcsBatch(payload, responseFilePrefix);
             break;
           default:
             Logger.LOG_SERIOUS(OSIsoftConfig.COM_ERR_MSG);
             break;
         }
 
+        final long postLatencyMs = System.currentTimeMillis() - postStartTimeMs;
+        changeInFlightCount(-1);
+        postLatency.record(postLatencyMs);
+        if (postLatency.getSampleCount() % LATENCY_LOG_INTERVAL_POSTS == 0) {
+          Logger.LOG_DEBUG(
+              "Worker " + payloadHolder.getIndex() + " post latency " + postLatency.getSummary());
+        }
+
+        // adjust the size of the next payloads based on how this post performed
+        PayloadSizeController.recordPost(
+            lastPostedBytes,
+            lastPostedBytes,
+            postLatencyMs,
+            retval ? PayloadSizeController.POST_SUCCEEDED : OSIsoftServer.getLastRequestResult());
+
+        // new payloads are spooled while the server cannot be reached
+        payloadHolder.setServerReachable(retval || OSIsoftServer.wasLastRequestRejected());
+
         if (!retval) {
           Logger.LOG_WARN("Unable to send payload to OSIsoft");
+          handleFailedPost(batch);
         } else {
           // retval indicates that message was sent successfully, remove payload from queue
           payloadHolder.popNextPayload();
@@ -67,4 +160,83 @@ public class DataPoster extends Thread {
       }
     }
   }
+
+  /**
+   * Update the payload at the top of the payload queue after it failed to post. Payloads which
+   * failed to connect or authenticate are sent again unchanged. For OMF payloads rejected by the
+   * server, the containers reported in the errors are quarantined, and only the rejected containers
+   * are sent again, without the containers which are quarantined. A rejected payload without
+   * identified containers is split in two halves.
+   *
+   * @param batch the payload batch at the top of the payload queue which failed to post
+   */
+  private void handleFailedPost(PayloadBatch batch) {
+    final boolean rejected =
+        OSIsoftServer.wasLastRequestRejected()
+            && OSIsoftConfig.getCommunicationType() != OSIsoftConfig.PI_WEB_API;
+    PayloadBatch remaining = batch;
+
+    // the server accepted the containers it did not report, only send the rejected ones again
+    if (rejected && OSIsoftServer.getLastRejectedMessageIndexes().length > 0) {
+      PayloadBatch rejectedContainers =
+          batch.selectContainers(OSIsoftServer.getLastRejectedMessageIndexes());
+      if (rejectedContainers != null && rejectedContainers != batch) {
+        Logger.LOG_WARN(
+            "OSIsoft accepted part of the payload. Sending the "
+                + OSIsoftServer.getLastRejectedMessageIndexes().length
+                + " rejected containers again.");
+        remaining = rejectedContainers;
+      }
+    }
+
+    // quarantine the containers the server rejected and remove their values so the rest is sent
+    if (rejected) {
+      final String[] rejectedIds = OSIsoftServer.getLastRejectedContainerIds();
+      for (int i = 0; i < rejectedIds.length; i++) {
+        ContainerQuarantine.quarantineContainer(rejectedIds[i]);
+      }
+    }
+    String withoutQuarantined =
+        ContainerQuarantine.removeQuarantinedContainers(remaining.getPayload());
+    if (withoutQuarantined != null) {
+      remaining = withoutQuarantined.length() > 0 ? new PayloadBatch(withoutQuarantined) : null;
+      DeadLetterFile.flush();
+    } else if (remaining == batch && rejected) {
+      bisectRejectedBatch(batch);
+      return;
+    }
+
+    if (remaining != batch) {
+      payloadHolder.replaceNextBatch(
+          remaining != null ? new PayloadBatch[] {remaining} : new PayloadBatch[0]);
+    }
+  }
+
+  /**
+   * Split a payload rejected by the server in two halves which are posted separately, so the other
+   * values of the payload are not blocked by the rejected values. A rejected payload holding a
+   * single value is written to the dead letter file instead, as a whole if it cannot be parsed, so
+   * it is never sent again.
+   *
+   * @param batch the rejected payload batch at the top of the payload queue
+   */
+  private void bisectRejectedBatch(PayloadBatch batch) {
+    PayloadBatch[] halves = batch.split();
+    if (halves != null) {
+      Logger.LOG_WARN(
+          "Payload was rejected by OSIsoft. Splitting it into payloads of "
+              + halves[0].getLength()
+              + " and "
+              + halves[1].getLength()
+              + " bytes to isolate the rejected values.");
+      payloadHolder.replaceNextBatch(halves);
+    } else {
+      if (!batch.writeToDeadLetterFile()) {
+        DeadLetterFile.writePayload(batch.getPayload());
+      }
+      Logger.LOG_WARN("Rejected value was written to " + DeadLetterFile.FILE_PATH + ".");
+      payloadHolder.popNextPayload();
+      DeadLetterFile.flush();
+    }
+  }
 }
@@ -4,6 +4,9 @@ import com.ewon.ewonitf.EWException;
 import com.hms.flexyosisoftconnector.configuration.OSIsoftConfig;
 import com.hms.flexyosisoftconnector.payloadhandler.OsisoftJsonPayload;
 import com.hms.flexyosisoftconnector.payloadhandler.PayloadBuilder;
+import com.hms.flexyosisoftconnector.payloadhandler.PayloadSizeController;
+import com.hms.flexyosisoftconnector.payloadhandler.TagDescriptor;
+import com.hms.flexyosisoftconnector.payloadhandler.TagDescriptorTable;
 import com.hms_networks.americas.sc.extensions.fileutils.FileAccessManager;
 import com.hms_networks.americas.sc.extensions.json.JSONArray;
 import com.hms_networks.americas.sc.extensions.json.JSONException;
@@ -27,8 +30,45 @@ import java.io.IOException;
  */
 public class OSIsoftServer {
 
-  /** Boolean to represent when the last sent message was succesfully sent. */
-  private static boolean connected = true;
+  /**
+   * Boolean to represent when the server rejected the content of the last message sent by the
+   * calling thread, such as values which do not match the type of their container. Each poster
+   * worker sends its own messages, so this is stored per thread.
+   */
+  private static final ThreadLocal lastRequestRejected = new ThreadLocal();
+
+  /**
+   * Indexes of the messages the server rejected in the last message sent by the calling thread, in
+   * ascending order.
+   */
+  private static final ThreadLocal lastRejectedMessageIndexes = new ThreadLocal();
+
+  /**
+   * Identifiers reported in the errors of the last message sent by the calling thread, including
+   * the IDs of the rejected containers.
+   */
+  private static final ThreadLocal lastRejectedContainerIds = new ThreadLocal();
+
+  /**
+   * Result of the last request of the calling thread, one of the post results of {@link
+   * PayloadSizeController}. Each thread holds its own one-element array, so setting the result does
+   * not allocate.
+   */
+  private static final ThreadLocal lastRequestResult =
+      new ThreadLocal() {
+        protected Object initialValue() {
+          return new int[] {PayloadSizeController.POST_SUCCEEDED};
+        }
+      };
+
+  /** HTTP status code of a request which is too large for the server. */
+  static final int HTTP_STATUS_PAYLOAD_TOO_LARGE = 413;
+
+  /** Lowest HTTP status code of a server error, such as the server being overloaded. */
+  static final int HTTP_STATUS_SERVER_ERROR = 500;
+
+  /** Number of milliseconds in a second. */
+  private static final long MILLISECONDS_PER_SECOND = 1000;
 
   /** Ewon error code representing a send error */
   public static final int SEND_ERROR = 32603;
@@ -67,6 +107,10 @@ public class OSIsoftServer {
   static final String BOOLEAN_RESPONSE_FILE_NAME =
       OsisoftJsonPayload.BOOLEAN_TAG_TYPE + RESPONSE_FILE_NAME;
 
+  /** Save the response for initializing group container OMF types. */
+  static final String GROUP_RESPONSE_FILE_NAME =
+      OsisoftJsonPayload.GROUP_CONTAINER_TYPE + RESPONSE_FILE_NAME;
+
   /** Save the response for initializing boolean OMF types. */
   static final String DATA_RESPONSE_FILE_NAME = "dataMessage" + RESPONSE_FILE_NAME;
 
@@ -92,7 +136,6 @@ public class OSIsoftServer {
    * @param ErrorMessage Specific message to log
    */
   private static void RequestHttpsError(Exception e, String ErrorMessage) {
-    connected = false;
     Logger.LOG_CRITICAL(ErrorMessage);
     Logger.LOG_EXCEPTION(e);
   }
@@ -112,6 +155,8 @@ public class OSIsoftServer {
   public static boolean RequestHttps(
       String CnxParam, String Method, String Headers, String TextFields, String FileName) {
     String responseBodyString = null;
+    boolean connected = false;
+    final long requestStartMs = System.currentTimeMillis();
     if (FileName.length() > 0) {
       FileName = RESPONSE_DIRECTORY + FileName;
     }
@@ -141,7 +186,16 @@ public class OSIsoftServer {
     }
 
     // There is no point trying to parse or check
+    lastRequestRejected.set(Boolean.FALSE);
+    lastRejectedMessageIndexes.set(new int[0]);
+    lastRejectedContainerIds.set(new String[0]);
     if (!connected) {
+      // a request which fails once the HTTP timeout has passed timed out
+      final long requestMs = System.currentTimeMillis() - requestStartMs;
+      setLastRequestResult(
+          requestMs >= OSIsoftConfig.getHttpTimeoutSeconds() * MILLISECONDS_PER_SECOND
+              ? PayloadSizeController.POST_OVERLOADED
+              : PayloadSizeController.POST_FAILED);
       return false;
     }
 
@@ -169,9 +223,79 @@ public class OSIsoftServer {
     if (connected) {
       success = OSIsoftServerResponseUtil.checkForMessages(response, CnxParam, FileName);
     }
+    if (!success && OSIsoftServerResponseUtil.isContentRejected(response)) {
+      lastRequestRejected.set(Boolean.TRUE);
+      lastRejectedMessageIndexes.set(OSIsoftServerResponseUtil.getRejectedMessageIndexes(response));
+      lastRejectedContainerIds.set(OSIsoftServerResponseUtil.getRejectedContainerIds(response));
+    }
+
+    final int statusCode = OSIsoftServerResponseUtil.getHighestStatusCode(response);
+    if (success) {
+      setLastRequestResult(PayloadSizeController.POST_SUCCEEDED);
+    } else if (statusCode == HTTP_STATUS_PAYLOAD_TOO_LARGE
+        || statusCode >= HTTP_STATUS_SERVER_ERROR) {
+      setLastRequestResult(PayloadSizeController.POST_OVERLOADED);
+    } else {
+      setLastRequestResult(PayloadSizeController.POST_FAILED);
+    }
     return success;
   }
 
+  /**
+   * Get the result of the last request of the calling thread. A request which timed out, or which
+   * the server refused as too large or overloaded, is overloaded. Other failed requests, such as
+   * requests which cannot reach the server or whose content is rejected, failed.
+   *
+   * @return {@link PayloadSizeController#POST_SUCCEEDED}, {@link
+   *     PayloadSizeController#POST_OVERLOADED} or {@link PayloadSizeController#POST_FAILED}
+   */
+  public static int getLastRequestResult() {
+    return ((int[]) lastRequestResult.get())[0];
+  }
+
+  /**
+   * Set the result of the last request of the calling thread.
+   *
+   * @param result result of the request
+   */
+  private static void setLastRequestResult(int result) {
+    ((int[]) lastRequestResult.get())[0] = result;
+  }
+
+  /**
+   * Check if the server rejected the content of the last request of the calling thread, as opposed
+   * to the request failing to connect or authenticate. Retrying a rejected request fails again.
+   *
+   * @return true if the content of the last request was rejected
+   */
+  public static boolean wasLastRequestRejected() {
+    final Boolean rejected = (Boolean) lastRequestRejected.get();
+    return rejected != null && rejected.booleanValue();
+  }
+
+  /**
+   * Get the indexes of the messages the server rejected in the last request of the calling thread.
+   * For an OMF data message, these are the indexes of the rejected containers, the other containers
+   * were accepted.
+   *
+   * @return rejected message indexes in ascending order, or an empty array if none were reported
+   */
+  public static int[] getLastRejectedMessageIndexes() {
+    final int[] indexes = (int[]) lastRejectedMessageIndexes.get();
+    return indexes != null ? indexes : new int[0];
+  }
+
+  /**
+   * Get the identifiers reported in the errors of the last request of the calling thread. These
+   * include the IDs of the rejected containers, along with other identifiers such as type IDs.
+   *
+   * @return reported identifiers, or an empty array if none were reported
+   */
+  public static String[] getLastRejectedContainerIds() {
+    final String[] ids = (String[]) lastRejectedContainerIds.get();
+    return ids != null ? ids : new String[0];
+  }
+
   /**
    * Attempts to initialize a new tag into OSIsoft and retrieve the relevant information.
    *
@@ -395,8 +519,11 @@ public class OSIsoftServer {
         PayloadBuilder.getBooleanTypeBody(),
         BOOLEAN_RESPONSE_FILE_NAME);
 
+    initGroupTypes(
+        OSIsoftConfig.getOmfUrl(), OSIsoftConfig.getOmfPostHeaders(), GROUP_RESPONSE_FILE_NAME);
+
     // setup containers
-    final int numTagsInList = TagInfoManager.getTagInfoList().size();
+    final int numTagsInList = TagDescriptorTable.getOrdinalCount();
     final int numTagsInitializing = 100;
 
     messageTypeHeader = "&messagetype=container";
@@ -415,11 +542,33 @@ public class OSIsoftServer {
     }
   }
 
+  /**
+   * Initialize the types of the group containers, which have one property for each tag of their
+   * tag group.
+   *
+   * @param url OMF endpoint URL
+   * @param postHeaders OMF post headers
+   * @param responseFileName name of the response file
+   */
+  private void initGroupTypes(String url, String postHeaders, String responseFileName) {
+    final String messageTypeHeader = "&messagetype=type";
+    final int tagOrdinalCount = TagDescriptorTable.getOrdinalCount();
+    for (int i = 0; i < tagOrdinalCount; i++) {
+      TagDescriptor descriptor = TagDescriptorTable.getDescriptorByOrdinal(i);
+      if (descriptor.isGroupContainer()) {
+        RequestHttps(
+            url,
+            "POST",
+            postHeaders + messageTypeHeader,
+            PayloadBuilder.getGroupTypeBody(descriptor),
+            responseFileName);
+      }
+    }
+  }
+
   /** Initialize the Flexy tags in OSIsoft for use by PI Web API's legacy data message format. */
   private void initLegacyFormat() {
-    // web id's are stored in the payload builder
-    PayloadBuilder.initWebIdList();
-
+    // web id's are stored in the tag descriptor table, which was built on startup
     for (int i = 0; i < TagInfoManager.getTagInfoList().size(); i++) {
       TagInfo tag = (TagInfo) TagInfoManager.getTagInfoList().get(i);
 
@@ -477,11 +626,13 @@ public class OSIsoftServer {
         PayloadBuilder.getBooleanTypeBody(),
         responseFilename);
 
+    initGroupTypes(OSIsoftConfig.getOcsUrl(), OSIsoftConfig.getOcsPostHeaders(), responseFilename);
+
     // setup containers
     String messageTypeHeader = "&messagetype=container";
 
     // initialize tag containers
-    final int numTagsInList = TagInfoManager.getTagInfoList().size();
+    final int numTagsInList = TagDescriptorTable.getOrdinalCount();
     final int numTagsInitializing = 100;
 
     for (int currentTagIndex = 0;
@@ -505,6 +656,18 @@ public class OSIsoftServer {
    * @return returns the http response code
    */
   public static boolean postOMFBatch(String payload) {
+    return postOMFBatch(payload, "");
+  }
+
+  /**
+   * Posts the OMF batch to OSIsoft, writing the response to a file with the specified prefix.
+   * Poster workers posting at the same time use different prefixes.
+   *
+   * @param payload the payload to post
+   * @param responseFilePrefix prefix of the response file name
+   * @return returns the http response code
+   */
+  public static boolean postOMFBatch(String payload, String responseFilePrefix) {
 
     String postHeaderType = "&messagetype=type";
 
@@ -517,7 +680,7 @@ public class OSIsoftServer {
             "POST",
             OSIsoftConfig.getOmfPostHeaders() + postHeaderType,
             payload,
-            DATA_RESPONSE_FILE_NAME);
+            responseFilePrefix + DATA_RESPONSE_FILE_NAME);
     if (!requestSuccess) {
       Logger.LOG_SERIOUS("Could not post batch of OMF data points to OSIsoft.");
     }
@@ -531,6 +694,18 @@ public class OSIsoftServer {
    * @return returns the http response code
    */
   public static boolean postOcsBatch(String payload) {
+    return postOcsBatch(payload, "");
+  }
+
+  /**
+   * Posts the OMF batch to OSIsoft Cloud Services, writing the response to a file with the
+   * specified prefix. Poster workers posting at the same time use different prefixes.
+   *
+   * @param payload the payload to post
+   * @param responseFilePrefix prefix of the response file name
+   * @return returns the http response code
+   */
+  public static boolean postOcsBatch(String payload, String responseFilePrefix) {
 
     String postHeaderType = "&messagetype=type";
 
@@ -543,7 +718,7 @@ public class OSIsoftServer {
             "POST",
             OSIsoftConfig.getOcsPostHeaders() + postHeaderType,
             payload,
-            OCS_RESPONSE_FILE_NAME);
+            responseFilePrefix + OCS_RESPONSE_FILE_NAME);
     if (!requestSuccess) {
       Logger.LOG_SERIOUS("Could not post batch of data point to OCS.");
     }
@@ -557,13 +732,25 @@ public class OSIsoftServer {
    * @return returns the http response code
    */
   public static boolean postBatch(String payload) {
+    return postBatch(payload, "");
+  }
+
+  /**
+   * Posts the PIWebAPI batch to OSIsoft, writing the response to a file with the specified prefix.
+   * Poster workers posting at the same time use different prefixes.
+   *
+   * @param payload the payload to post
+   * @param responseFilePrefix prefix of the response file name
+   * @return returns the http response code
+   */
+  public static boolean postBatch(String payload, String responseFilePrefix) {
     boolean requestSuccess =
         RequestHttps(
             OSIsoftConfig.getServerUrl() + "/batch",
             "POST",
             OSIsoftConfig.getPostHeaders(),
             payload,
-            PI_WEB_API_RESPONSE_FILE_NAME);
+            responseFilePrefix + PI_WEB_API_RESPONSE_FILE_NAME);
 
     if (!requestSuccess) {
       Logger.LOG_SERIOUS("Could not post batch of data points to OSIsoft.");
@@ -4,6 +4,9 @@ import com.hms.flexyosisoftconnector.configuration.OSIsoftConfig;
 import com.hms_networks.americas.sc.extensions.json.JSONArray;
 import com.hms_networks.americas.sc.extensions.json.JSONObject;
 import com.hms_networks.americas.sc.extensions.logging.Logger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 /**
  * Utility class for parsing OSIsoft server responses and checking the contents.
@@ -175,6 +178,150 @@ public class OSIsoftServerResponseUtil {
     return messageSuccessful;
   }
 
+  /**
+   * Checks if an HTTPS response from the OSIsoft server rejected the content of the request, as
+   * opposed to the request failing because of its authentication or the server. The content was
+   * rejected if the response only has a "Messages" field, which holds the events found in the
+   * messages of the request.
+   *
+   * @param response The response from the OSIsoft server to check
+   * @return true if the response rejected the content of the request
+   */
+  public static boolean isContentRejected(JSONObject response) {
+    return response != null
+        && response.has(MESSAGES_FIELD_KEY)
+        && !response.has(MESSAGE_FIELD_KEY)
+        && !response.has(ERRORS_FIELD_KEY);
+  }
+
+  /**
+   * Gets the indexes of the messages of a request which the OSIsoft server rejected with an error
+   * severity. For an OMF data message, each index is the index of a container in the message.
+   *
+   * @param response The response from the OSIsoft server to check
+   * @return the rejected message indexes in ascending order without duplicates, or an empty array
+   *     if the response has no rejected messages or cannot be parsed
+   */
+  public static int[] getRejectedMessageIndexes(JSONObject response) {
+    int[] indexes = new int[0];
+    if (response == null || !response.has(MESSAGES_FIELD_KEY)) {
+      return indexes;
+    }
+
+    try {
+      JSONArray messages = response.getJSONArray(MESSAGES_FIELD_KEY);
+      indexes = new int[messages.length()];
+      int indexCount = 0;
+      for (int i = 0; i < messages.length(); i++) {
+        JSONObject message = messages.getJSONObject(i);
+        JSONObject status = message.getJSONObject(MESSAGE_STATUS_FIELD_KEY);
+        if (status
+            .getString(MESSAGE_STATUS_HIGHEST_SEVERITY_FIELD_KEY)
+            .equalsIgnoreCase(SEVERITY_ERROR_KEY)) {
+          indexes[indexCount++] = message.getInt(MESSAGE_MESSAGE_INDEX_FIELD_KEY);
+        }
+      }
+
+      // sort the indexes and remove duplicates, a message may be reported more than once
+      Arrays.sort(indexes, 0, indexCount);
+      int uniqueCount = 0;
+      for (int i = 0; i < indexCount; i++) {
+        if (uniqueCount == 0 || indexes[i] != indexes[uniqueCount - 1]) {
+          indexes[uniqueCount++] = indexes[i];
+        }
+      }
+      int[] uniqueIndexes = new int[uniqueCount];
+      System.arraycopy(indexes, 0, uniqueIndexes, 0, uniqueCount);
+      return uniqueIndexes;
+    } catch (Exception e) {
+      Logger.LOG_SERIOUS("Unable to read the rejected message indexes of a response.");
+      Logger.LOG_EXCEPTION(e);
+      return new int[0];
+    }
+  }
+
+  /**
+   * Gets the highest status code of the messages in an HTTPS response from the OSIsoft server. An
+   * OMF response reports the HTTP status of each message of the request, such as 413 for a message
+   * which is too large or 503 when the server is overloaded.
+   *
+   * @param response The response from the OSIsoft server to check
+   * @return the highest status code, or 0 if the response has no status codes or cannot be parsed
+   */
+  public static int getHighestStatusCode(JSONObject response) {
+    int highestCode = 0;
+    if (response == null || !response.has(MESSAGES_FIELD_KEY)) {
+      return highestCode;
+    }
+
+    try {
+      JSONArray messages = response.getJSONArray(MESSAGES_FIELD_KEY);
+      for (int i = 0; i < messages.length(); i++) {
+        JSONObject message = messages.getJSONObject(i);
+        if (message.has(MESSAGE_STATUS_FIELD_KEY)) {
+          JSONObject status = message.getJSONObject(MESSAGE_STATUS_FIELD_KEY);
+          if (status.has(MESSAGE_STATUS_CODE_FIELD_KEY)) {
+            highestCode = Math.max(highestCode, status.getInt(MESSAGE_STATUS_CODE_FIELD_KEY));
+          }
+        }
+      }
+    } catch (Exception e) {
+      Logger.LOG_SERIOUS("Unable to read the status codes of a response.");
+      Logger.LOG_EXCEPTION(e);
+    }
+    return highestCode;
+  }
+
+  /**
+   * Gets the identifiers reported by the OSIsoft server in the parameters of the events with an
+   * error severity. These include the IDs of rejected containers, along with other identifiers such
+   * as type IDs.
+   *
+   * @param response The response from the OSIsoft server to check
+   * @return the reported identifiers without duplicates, or an empty array if the response has no
+   *     rejected messages or cannot be parsed
+   */
+  public static String[] getRejectedContainerIds(JSONObject response) {
+    if (response == null || !response.has(MESSAGES_FIELD_KEY)) {
+      return new String[0];
+    }
+
+    try {
+      List ids = new ArrayList();
+      JSONArray messages = response.getJSONArray(MESSAGES_FIELD_KEY);
+      for (int i = 0; i < messages.length(); i++) {
+        JSONArray events = messages.getJSONObject(i).getJSONArray(MESSAGE_EVENTS_FIELD_KEY);
+        for (int j = 0; j < events.length(); j++) {
+          JSONObject event = events.getJSONObject(j);
+          final String severity = event.getString(MESSAGE_EVENT_SEVERITY_FIELD_KEY);
+          if (!severity.equalsIgnoreCase(SEVERITY_ERROR_KEY)) {
+            continue;
+          }
+
+          JSONArray parameters =
+              event
+                  .getJSONObject(MESSAGE_EVENT_EVENT_INFO_FIELD_KEY)
+                  .getJSONArray(MESSAGE_EVENT_EVENT_INFO_PARAMETERS_FIELD_KEY);
+          for (int k = 0; k < parameters.length(); k++) {
+            final String id =
+                parameters
+                    .getJSONObject(k)
+                    .getString(MESSAGE_EVENT_EVENT_INFO_PARAMETER_VALUE_FIELD_KEY);
+            if (!ids.contains(id)) {
+              ids.add(id);
+            }
+          }
+        }
+      }
+
+      return (String[]) ids.toArray(new String[ids.size()]);
+    } catch (Exception e) {
+      Logger.LOG_SERIOUS("Unable to read the rejected container IDs of a response.");
+      Logger.LOG_EXCEPTION(e);
+      return new String[0];
+    }
+  }
+
   /**
    * Handles a single message in an HTTPS response from the OSIsoft server.
    *
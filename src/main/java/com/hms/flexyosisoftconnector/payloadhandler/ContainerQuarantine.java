@@ -0,0 +1,218 @@
+package com.hms.flexyosisoftconnector.payloadhandler;
+
+import com.hms.flexyosisoftconnector.configuration.OSIsoftConfig;
+import com.hms_networks.americas.sc.extensions.json.JSONArray;
+import com.hms_networks.americas.sc.extensions.json.JSONException;
+import com.hms_networks.americas.sc.extensions.json.JSONObject;
+import com.hms_networks.americas.sc.extensions.logging.Logger;
+import java.util.Hashtable;
+
+/**
+ * Set of OMF containers which were rejected by the OSIsoft server, such as for a type mismatch or
+ * an invalid name.
+ *
+ * <p>A rejected container is quarantined for {@link OSIsoftConfig#getContainerQuarantineSeconds()}
+ * seconds. Values of a quarantined container are removed from the payload which was rejected and
+ * diverted from new payloads to the {@link DeadLetterFile}, so the values of other containers are
+ * not held back by a payload which is retried forever. Once the quarantine time has passed, values
+ * are sent to the container again.
+ *
+ * <p>The quarantine end time of each container is stored in an array indexed by tag ordinal, so
+ * checking a data point only needs an array lookup while any container is quarantined.
+ *
+ * @author HMS Networks, MU Americas Solution Center
+ */
+public class ContainerQuarantine {
+
+  /** Key of the container ID of a container in an OMF data message. */
+  private static final String CONTAINER_ID_KEY = "containerid";
+
+  /** Key of the values of a container in an OMF data message. */
+  private static final String VALUES_KEY = "values";
+
+  /** Marker for a container ID which does not belong to a known container. */
+  private static final int NOT_FOUND = -1;
+
+  /** Number of milliseconds in a second. */
+  private static final long MILLISECONDS_PER_SECOND = 1000;
+
+  /** System time until which each container ordinal is quarantined, or 0 if it is not. */
+  private static volatile long[] quarantinedUntilMillis = new long[0];
+
+  /** Number of containers which are quarantined. */
+  private static volatile int quarantinedCount = 0;
+
+  /** Ordinal of each container ID, built when the server first rejects a payload. */
+  private static Hashtable ordinalsByContainerId = null;
+
+  /** Number of ordinals in the tag descriptor table when the container ID map was built. */
+  private static int mappedOrdinalCount = 0;
+
+  /**
+   * Quarantine a container rejected by the OSIsoft server. Identifiers which do not belong to a
+   * known container, such as type IDs, are ignored.
+   *
+   * @param containerId identifier reported by the server
+   * @return true if the identifier belongs to a known container which is now quarantined
+   */
+  public static synchronized boolean quarantineContainer(String containerId) {
+    final long quarantineSeconds = OSIsoftConfig.getContainerQuarantineSeconds();
+    if (quarantineSeconds <= 0
+        || OSIsoftConfig.getCommunicationType() == OSIsoftConfig.PI_WEB_API) {
+      return false;
+    }
+
+    final int ordinal = findContainerOrdinal(containerId);
+    if (ordinal == NOT_FOUND) {
+      return false;
+    }
+
+    long[] untilMillis = quarantinedUntilMillis;
+    if (ordinal >= untilMillis.length) {
+      long[] newUntilMillis = new long[TagDescriptorTable.getOrdinalCount()];
+      System.arraycopy(untilMillis, 0, newUntilMillis, 0, untilMillis.length);
+      untilMillis = newUntilMillis;
+    }
+    if (untilMillis[ordinal] == 0) {
+      quarantinedCount++;
+    }
+    untilMillis[ordinal] =
+        System.currentTimeMillis() + quarantineSeconds * MILLISECONDS_PER_SECOND;
+    quarantinedUntilMillis = untilMillis;
+
+    Logger.LOG_WARN(
+        "Container "
+            + containerId
+            + " was rejected by the server. Its values will be written to "
+            + DeadLetterFile.FILE_PATH
+            + " for the next "
+            + quarantineSeconds
+            + " seconds.");
+    return true;
+  }
+
+  /**
+   * Check if the values of a tag are sent to a quarantined container. The quarantine of the
+   * container is ended if its quarantine time has passed.
+   *
+   * @param descriptor descriptor of the tag or container
+   * @return true if the values must be diverted to the dead letter file
+   */
+  public static boolean isQuarantined(TagDescriptor descriptor) {
+    if (quarantinedCount == 0) {
+      return false;
+    }
+
+    final TagDescriptor container =
+        descriptor.getGroupContainer() != null ? descriptor.getGroupContainer() : descriptor;
+    return isQuarantined(container.getOrdinal(), System.currentTimeMillis());
+  }
+
+  /**
+   * Check if a container ordinal is quarantined, and end its quarantine if the quarantine time has
+   * passed.
+   *
+   * @param ordinal ordinal of the container
+   * @param nowMillis current system time in milliseconds
+   * @return true if the container is quarantined
+   */
+  private static boolean isQuarantined(int ordinal, long nowMillis) {
+    final long[] untilMillis = quarantinedUntilMillis;
+    if (ordinal >= untilMillis.length || untilMillis[ordinal] == 0) {
+      return false;
+    } else if (nowMillis < untilMillis[ordinal]) {
+      return true;
+    }
+
+    synchronized (ContainerQuarantine.class) {
+      // read the end time again, the container may have been quarantined again or grown the array
+      final long[] lockedUntilMillis = quarantinedUntilMillis;
+      if (lockedUntilMillis[ordinal] == 0) {
+        return false;
+      } else if (nowMillis < lockedUntilMillis[ordinal]) {
+        return true;
+      }
+      lockedUntilMillis[ordinal] = 0;
+      quarantinedCount--;
+      Logger.LOG_INFO(
+          "Quarantine of container "
+              + TagDescriptorTable.getDescriptorByOrdinal(ordinal).getContainerId()
+              + " has ended. Its values will be sent again.");
+    }
+    return false;
+  }
+
+  /**
+   * Remove the quarantined containers from a rejected OMF data message and write their values to
+   * the dead letter file.
+   *
+   * @param payload the rejected OMF data message
+   * @return the data message without the quarantined containers, an empty string if no containers
+   *     remain, or null if the data message has no quarantined containers
+   */
+  public static String removeQuarantinedContainers(String payload) {
+    if (quarantinedCount == 0) {
+      return null;
+    }
+
+    final long nowMillis = System.currentTimeMillis();
+    try {
+      JSONArray containers = new JSONArray(payload);
+      JSONArray remainingContainers = new JSONArray();
+      int remainingCount = 0;
+      for (int i = 0; i < containers.length(); i++) {
+        JSONObject container = containers.getJSONObject(i);
+        final String containerId = container.getString(CONTAINER_ID_KEY);
+        final int ordinal = findContainerOrdinal(containerId);
+        if (ordinal != NOT_FOUND && isQuarantined(ordinal, nowMillis)) {
+          DeadLetterFile.writeContainer(
+              containerId, container.toString(), container.getJSONArray(VALUES_KEY).length());
+        } else {
+          remainingContainers.put(container);
+          remainingCount++;
+        }
+      }
+
+      if (remainingCount == containers.length()) {
+        return null;
+      }
+      return remainingCount > 0 ? remainingContainers.toString() : "";
+    } catch (JSONException e) {
+      Logger.LOG_SERIOUS("Unable to remove quarantined containers from a rejected payload.");
+      Logger.LOG_EXCEPTION(e);
+      return null;
+    }
+  }
+
+  /**
+   * Get the number of containers which are quarantined.
+   *
+   * @return number of quarantined containers
+   */
+  public static int getQuarantinedCount() {
+    return quarantinedCount;
+  }
+
+  /**
+   * Find the ordinal of a container by its ID. The map of container IDs is built once, and built
+   * again if tags have been added to the tag descriptor table since.
+   *
+   * @param containerId ID of the container
+   * @return ordinal of the container, or {@link #NOT_FOUND}
+   */
+  private static synchronized int findContainerOrdinal(String containerId) {
+    final int ordinalCount = TagDescriptorTable.getOrdinalCount();
+    if (ordinalsByContainerId == null || mappedOrdinalCount != ordinalCount) {
+      ordinalsByContainerId = new Hashtable(ordinalCount * 2);
+      for (int ordinal = 0; ordinal < ordinalCount; ordinal++) {
+        ordinalsByContainerId.put(
+            TagDescriptorTable.getDescriptorByOrdinal(ordinal).getContainerId(),
+            new Integer(ordinal));
+      }
+      mappedOrdinalCount = ordinalCount;
+    }
+
+    final Integer ordinal = (Integer) ordinalsByContainerId.get(containerId);
+    return ordinal != null ? ordinal.intValue() : NOT_FOUND;
+  }
+}
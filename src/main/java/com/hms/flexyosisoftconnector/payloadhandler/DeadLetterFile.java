@@ -0,0 +1,178 @@
+package com.hms.flexyosisoftconnector.payloadhandler;
+
+import com.hms_networks.americas.sc.extensions.datapoint.DataPoint;
+import com.hms_networks.americas.sc.extensions.datapoint.DataType;
+import com.hms_networks.americas.sc.extensions.fileutils.FileAccessManager;
+import com.hms_networks.americas.sc.extensions.logging.Logger;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Local file which holds the values of containers rejected by the OSIsoft server, so they are kept
+ * for inspection instead of blocking the values of other containers.
+ *
+ * <p>Each line of the file is a JSON object holding a container ID and either a single value or the
+ * values of a rejected payload, or holding a rejected payload which could not be parsed as a
+ * string. Lines are collected in memory and appended to the file when {@link #flush()} is called
+ * or enough lines are pending. The file is bounded in size: once it exceeds {@link
+ * #MAX_FILE_SIZE_BYTES}, it replaces the previous file at {@link #OLD_FILE_PATH} and a new file is
+ * started.
+ *
+ * @author HMS Networks, MU Americas Solution Center
+ */
+public class DeadLetterFile {
+
+  /** Path of the dead letter file. */
+  public static final String FILE_PATH = "/usr/OSIsoftDeadLetters.json";
+
+  /** Path the dead letter file is moved to once it exceeds its maximum size. */
+  public static final String OLD_FILE_PATH = "/usr/OSIsoftDeadLetters.old.json";
+
+  /** Size in bytes after which the dead letter file is replaced by a new file. */
+  static final long MAX_FILE_SIZE_BYTES = 1048576;
+
+  /** Number of pending characters after which lines are appended to the file. */
+  static final int FLUSH_THRESHOLD_CHARS = 4096;
+
+  /** Lines which have not been appended to the file yet. */
+  private static final StringBuffer pendingLines = new StringBuffer();
+
+  /** Buffer used to format timestamps. */
+  private static final PayloadByteBuffer timestampBuffer = new PayloadByteBuffer(32);
+
+  /** Number of values written to the dead letter file. */
+  private static long valueCount = 0;
+
+  /**
+   * Add a data point of a rejected container to the dead letter file.
+   *
+   * @param containerId ID of the container the data point was sent to
+   * @param dataPoint the data point
+   * @param epochSeconds timestamp of the data point in seconds since the epoch
+   */
+  public static synchronized void writeDataPoint(
+      String containerId, DataPoint dataPoint, long epochSeconds) {
+    final String value;
+    if (dataPoint.getType().equals(DataType.STRING)) {
+      value = "\"" + TagDescriptorTable.escapeJsonString(dataPoint.getValueString()) + "\"";
+    } else {
+      value = dataPoint.getValueString();
+    }
+    writeValue(containerId, value, epochSeconds);
+  }
+
+  /**
+   * Add a numeric value of a rejected container, such as an aggregate, to the dead letter file.
+   * NaN and infinite values have no JSON number representation and are written as strings.
+   *
+   * @param containerId ID of the container the value was sent to
+   * @param value the value
+   * @param epochSeconds timestamp of the value in seconds since the epoch
+   */
+  public static synchronized void writeNumber(String containerId, double value, long epochSeconds) {
+    if (Double.isNaN(value) || Double.isInfinite(value)) {
+      writeValue(containerId, "\"" + value + "\"", epochSeconds);
+    } else {
+      writeValue(containerId, String.valueOf(value), epochSeconds);
+    }
+  }
+
+  /**
+   * Add the values of a rejected container of a payload to the dead letter file.
+   *
+   * @param containerId ID of the container
+   * @param containerJson JSON object of the container from the payload, including its values
+   * @param valuesInContainer number of values in the container
+   */
+  public static synchronized void writeContainer(
+      String containerId, String containerJson, int valuesInContainer) {
+    pendingLines.append(containerJson).append('\n');
+    valueCount += valuesInContainer;
+    Logger.LOG_WARN(
+        "Moved "
+            + valuesInContainer
+            + " values of rejected container "
+            + containerId
+            + " to the dead letter file.");
+    flushIfFull();
+  }
+
+  /**
+   * Add a rejected payload which cannot be divided into containers to the dead letter file, as a
+   * string holding the whole payload.
+   *
+   * @param payload the rejected payload
+   */
+  public static synchronized void writePayload(String payload) {
+    pendingLines
+        .append("{\"payload\": \"")
+        .append(TagDescriptorTable.escapeJsonString(payload))
+        .append("\"}\n");
+    Logger.LOG_WARN(
+        "Moved a rejected payload of " + payload.length() + " characters to the dead letter file.");
+    flushIfFull();
+  }
+
+  /**
+   * Add a single value line to the dead letter file.
+   *
+   * @param containerId ID of the container the value was sent to
+   * @param value JSON representation of the value
+   * @param epochSeconds timestamp of the value in seconds since the epoch
+   */
+  private static void writeValue(String containerId, String value, long epochSeconds) {
+    timestampBuffer.setLength(0);
+    TimestampEncoder.writeUtc(timestampBuffer, epochSeconds);
+    pendingLines
+        .append("{\"containerid\": \"")
+        .append(TagDescriptorTable.escapeJsonString(containerId))
+        .append("\", \"timestamp\": \"")
+        .append(timestampBuffer.toString())
+        .append("\", \"value\": ")
+        .append(value)
+        .append("}\n");
+    valueCount++;
+    flushIfFull();
+  }
+
+  /** Append the pending lines to the file if enough lines are pending. */
+  private static void flushIfFull() {
+    if (pendingLines.length() >= FLUSH_THRESHOLD_CHARS) {
+      flush();
+    }
+  }
+
+  /** Append the pending lines to the dead letter file. */
+  public static synchronized void flush() {
+    if (pendingLines.length() == 0) {
+      return;
+    }
+
+    File file = new File(FILE_PATH);
+    if (file.length() + pendingLines.length() > MAX_FILE_SIZE_BYTES) {
+      File oldFile = new File(OLD_FILE_PATH);
+      oldFile.delete();
+      if (!file.renameTo(oldFile)) {
+        Logger.LOG_WARN("Unable to replace the old dead letter file. Starting a new file.");
+        file.delete();
+      }
+    }
+
+    try {
+      FileAccessManager.appendStringToFile(FILE_PATH, pendingLines.toString());
+    } catch (IOException e) {
+      Logger.LOG_SERIOUS("Unable to write to the dead letter file. Rejected values are lost.");
+      Logger.LOG_EXCEPTION(e);
+    }
+    pendingLines.setLength(0);
+  }
+
+  /**
+   * Get the number of values written to the dead letter file.
+   *
+   * @return number of values
+   */
+  public static synchronized long getValueCount() {
+    return valueCount;
+  }
+}
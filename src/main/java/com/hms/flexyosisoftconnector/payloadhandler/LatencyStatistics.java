@@ -0,0 +1,113 @@
+package com.hms.flexyosisoftconnector.payloadhandler;
+
+import java.util.Arrays;
+
+/**
+ * Percentiles of the most recent latency samples, such as the time payloads take to be completed.
+ *
+ * <p>Samples are recorded into a fixed size ring, so recording does not allocate. Percentiles are
+ * computed from a sorted copy of the ring when they are requested, which is only done for logging.
+ *
+ * @author HMS Networks, MU Americas Solution Center
+ */
+public class LatencyStatistics {
+
+  /** Default number of recent samples percentiles are computed from. */
+  public static final int DEFAULT_SAMPLE_CAPACITY = 256;
+
+  /** Most recent samples in milliseconds. */
+  private final long[] samples;
+
+  /** Index in {@link #samples} the next sample is recorded at. */
+  private int nextSample;
+
+  /** Number of samples recorded since the statistics were created. */
+  private long sampleCount;
+
+  /** Largest sample recorded since the statistics were created in milliseconds. */
+  private long maxMs;
+
+  /**
+   * Constructor for latency statistics.
+   *
+   * @param sampleCapacity number of recent samples percentiles are computed from
+   */
+  public LatencyStatistics(int sampleCapacity) {
+    samples = new long[sampleCapacity];
+  }
+
+  /**
+   * Record a latency sample.
+   *
+   * @param latencyMs latency in milliseconds
+   */
+  public synchronized void record(long latencyMs) {
+    samples[nextSample] = latencyMs;
+    nextSample = (nextSample + 1) % samples.length;
+    sampleCount++;
+    if (latencyMs > maxMs) {
+      maxMs = latencyMs;
+    }
+  }
+
+  /**
+   * Get the number of samples recorded since the statistics were created.
+   *
+   * @return number of samples
+   */
+  public synchronized long getSampleCount() {
+    return sampleCount;
+  }
+
+  /**
+   * Get the largest sample recorded since the statistics were created.
+   *
+   * @return largest latency in milliseconds
+   */
+  public synchronized long getMaxMs() {
+    return maxMs;
+  }
+
+  /**
+   * Get a percentile of the most recent samples, using the nearest rank method.
+   *
+   * @param percentile percentile from 0 to 100
+   * @return latency in milliseconds, or 0 if no samples have been recorded
+   */
+  public synchronized long getPercentileMs(double percentile) {
+    final int count = (int) Math.min(sampleCount, samples.length);
+    if (count == 0) {
+      return 0;
+    }
+
+    long[] sorted = new long[count];
+    System.arraycopy(samples, 0, sorted, 0, count);
+    Arrays.sort(sorted);
+    int rank = (int) Math.ceil(percentile / 100 * count) - 1;
+    if (rank < 0) {
+      rank = 0;
+    } else if (rank >= count) {
+      rank = count - 1;
+    }
+    return sorted[rank];
+  }
+
+  /**
+   * Get a summary of the 50th, 90th and 99th percentiles and the maximum for logging.
+   *
+   * @return summary string
+   */
+  public synchronized String getSummary() {
+    return "p50 "
+        + getPercentileMs(50)
+        + " ms, p90 "
+        + getPercentileMs(90)
+        + " ms, p99 "
+        + getPercentileMs(99)
+        + " ms, max "
+        + maxMs
+        + " ms over "
+        + sampleCount
+        + " samples";
+  }
+}
@@ -2,16 +2,13 @@ package com.hms.flexyosisoftconnector.payloadhandler;
 
 import com.hms.flexyosisoftconnector.configuration.OSIsoftConfig;
 import com.hms_networks.americas.sc.extensions.datapoint.DataPoint;
-import com.hms_networks.americas.sc.extensions.datapoint.DataType;
 import com.hms_networks.americas.sc.extensions.logging.Logger;
-import com.hms_networks.americas.sc.extensions.system.time.SCTimeUtils;
-import com.hms_networks.americas.sc.extensions.taginfo.TagConstants;
-import com.hms_networks.americas.sc.extensions.taginfo.TagInfoManager;
 
 /**
- * This class will hold a payload string and a status
+ * This class will hold a payload and a status
  *
- * <p>The payload string will be appended to until the status has been set to done
+ * <p>The payload will be appended to until the status has been set to done. Data points are
+ * serialized by a {@link PayloadSerializer} which groups the values of each tag together.
  *
  * @author HMS Networks Inc. Solution Center
  */
@@ -20,8 +17,8 @@ public class OsisoftJsonPayload {
   /** Current payload status */
   int status;
 
-  /** String builder for payload */
-  final StringBuffer payload;
+  /** Serializer which builds the payload */
+  PayloadSerializer serializer;
 
   /** Constant representing payload not started */
   static final int PAYLOAD_NOT_STARTED = 0;
@@ -38,31 +35,9 @@ public class OsisoftJsonPayload {
   /** Constant representing payload completion */
   static final int PAYLOAD_COMPLETE = 4;
 
-  /** Constant representing how many datapoints can be added to a payload */
-  static final int MAX_DATA_POINTS = 200;
-
-  /**
-   * The unfinished payload will have an array of strings. Each tag has it's own array that gets
-   * added to when the tag is encountered.
-   */
-  TagPayload[] tagPayloadArr;
-
-  /** Array of boolean flags for tags encountered (by ID) */
-  boolean[] tagNamesEncountered;
-
   /** Count of tags encountered */
   int dataPointsEncounteredCount = 0;
 
-  /**
-   * Offset for indexing tags in {@link #tagNamesEncountered}
-   *
-   * <p>This offset will be equal to the lowest valued tag ID found.
-   */
-  int tagIndexOffset;
-
-  /** Size of encountered tags array */
-  int tagsEncounteredArraySize;
-
   /**
    * Timestamp for the start of payload
    *
@@ -72,9 +47,30 @@ public class OsisoftJsonPayload {
    */
   long payloadStartTimestamp = 0;
 
-  /** This is the number of seconds to wait before cutting off the payload and completing it. */
+  /**
+   * This is the number of seconds to wait before cutting off the payload and completing it. It does
+   * not apply while values are coalesced, see {@link OSIsoftConfig#getPayloadCoalesceSeconds()}.
+   */
   static final long PAY_LOAD_TIME_PERIOD_SECONDS = 10;
 
+  /** System time in milliseconds when the first value was added to the payload. */
+  long firstValueMillis = 0;
+
+  /** Offset of the first byte of each OMF container in the completed payload. */
+  private int[] containerStarts = null;
+
+  /** Offset after the last byte of each OMF container in the completed payload. */
+  private int[] containerEnds = null;
+
+  /** Number of payloads completed. */
+  private long completedPayloadCount = 0;
+
+  /** Number of values in all completed payloads. */
+  private long completedValueCount = 0;
+
+  /** Number of containers (or legacy sub-requests) in all completed payloads. */
+  private long completedContainerCount = 0;
+
   /**
    * represents either OMF or the legacy data format. The valid values are piwebapi which is 1, or
    * omf which is 0
@@ -96,6 +92,9 @@ public class OsisoftJsonPayload {
   /** The OSIsoft tag type identifier stored as a string for strings. */
   public static final String STRING_TAG_TYPE = "string";
 
+  /** The type name of a container holding the values of the tags of a tag group. */
+  public static final String GROUP_CONTAINER_TYPE = "group";
+
   /**
    * Constructor for the OsisoftJsonPayload.
    *
@@ -109,57 +108,43 @@ public class OsisoftJsonPayload {
       Logger.LOG_SERIOUS("Invalid communication type set. Please check the config file settings.");
     }
 
-    payload = new StringBuffer();
     status = PAYLOAD_NOT_STARTED;
     communicationType = comType;
 
-    startPayload();
-
-    // set up array for tags encountered
-    int lowestSeen = TagInfoManager.getLowestTagIdSeen();
-    int highestSeen = TagInfoManager.getHighestTagIdSeen();
-
-    if (highestSeen != TagConstants.UNINIT_INT_VAL) {
-      tagIndexOffset = lowestSeen;
-      tagsEncounteredArraySize = highestSeen - lowestSeen + 1;
-      tagNamesEncountered = new boolean[tagsEncounteredArraySize];
-      tagPayloadArr = new TagPayload[tagsEncounteredArraySize];
-    } else {
+    // set up per-tag structures indexed by tag ordinal
+    final int tagOrdinalCount = TagDescriptorTable.getOrdinalCount();
+    if (tagOrdinalCount == 0) {
       Logger.LOG_SERIOUS(
           "Unable to initialize tags list."
               + " It is possible no tags have been added to this device.");
-      tagNamesEncountered = new boolean[0];
     }
-  }
 
-  /**
-   * Set the value of the tagId's index to true if it is being 'added' to this array
-   *
-   * @param tagId Id of the tag
-   */
-  private void addToTagsEncounteredArray(int tagId) {
-    int index = tagId - tagIndexOffset;
-    tagNamesEncountered[index] = true;
+    serializer = new PayloadSerializer(communicationType, tagOrdinalCount);
+    startPayload();
   }
 
   /**
-   * Return if the specified tag ID has been encountered
+   * Get the payload as a string
    *
-   * @param tagId tag ID
-   * @return true if tag ID has been encountered
+   * @return payload string
    */
-  private boolean checkIfTagIdEncountered(int tagId) {
-    int index = tagId - tagIndexOffset;
-    return tagNamesEncountered[index];
+  public String getPayload() {
+    return serializer.getOutput().toString();
   }
 
   /**
-   * Get the payload as a string
+   * Get the completed payload as a payload batch, with the positions of its OMF containers.
    *
-   * @return payload string
+   * @return payload batch
    */
-  public String getPayload() {
-    return payload.toString();
+  public PayloadBatch getBatch() {
+    final String payload = getPayload();
+
+    // the positions are byte offsets, which are only character offsets if all bytes are ASCII
+    if (containerStarts != null && payload.length() == serializer.getOutput().length()) {
+      return new PayloadBatch(payload, containerStarts, containerEnds);
+    }
+    return new PayloadBatch(payload);
   }
 
   /**
@@ -170,28 +155,16 @@ public class OsisoftJsonPayload {
    */
   public void startPayload() {
 
-    payload.setLength(0);
-    tagNamesEncountered = new boolean[tagsEncounteredArraySize];
-    tagPayloadArr = new TagPayload[tagsEncounteredArraySize];
     payloadStartTimestamp = 0;
+    firstValueMillis = 0;
     dataPointsEncounteredCount = 0;
-    String startOfPayload;
+    containerStarts = null;
+    containerEnds = null;
 
-    switch (communicationType) {
-      case OSIsoftConfig.OMF:
-        startOfPayload = PayloadBuilder.startOMFDataMessage();
-        break;
-      case OSIsoftConfig.PI_WEB_API:
-        startOfPayload = PayloadBuilder.startBatchOldFormat();
-        break;
-      default:
-        Logger.LOG_SERIOUS(comsErrMsg);
-        startOfPayload = "no communication type";
-        break;
-    }
+    // The serializer writes the start of the payload when it is reset
+    serializer.reset();
 
-    int originalPayloadLength = payload.length();
-    boolean didAppendToPayload = payload.append(startOfPayload).length() > originalPayloadLength;
+    boolean didAppendToPayload = serializer.getOutput().length() > 0;
     if (didAppendToPayload) {
       status = PAYLOAD_HEADER_COMPLETE;
     } else {
@@ -206,189 +179,230 @@ public class OsisoftJsonPayload {
    */
   public void appendDataPointToPayLoad(DataPoint dataPoint) {
 
-    addDataPoint(dataPoint);
+    // parse the timestamp once, it is used for both the payload and the time period checks
+    final long time = Long.parseLong(dataPoint.getTimeStamp());
+
+    // descriptors are built at startup, this only creates one for a tag added since then
+    appendDataPointToPayLoad(dataPoint, TagDescriptorTable.getDescriptor(dataPoint), time);
+  }
+
+  /**
+   * Append a data point to the payload
+   *
+   * @param dataPoint the data point to append
+   * @param descriptor descriptor of the data point's tag
+   * @param time timestamp of the data point in seconds since the epoch
+   */
+  public void appendDataPointToPayLoad(DataPoint dataPoint, TagDescriptor descriptor, long time) {
+
+    addDataPoint(dataPoint, descriptor, time);
+
+    didReachMaxPayloadSize();
+
+    didTakeTooLong(time);
+
+    completePayloadAttempt();
+  }
+
+  /**
+   * Append a numeric value which is not read from a data point, such as an aggregate, to the
+   * payload. Values are only supported by OMF payloads, and NaN and infinite values are skipped.
+   *
+   * @param descriptor descriptor of the value's container
+   * @param value the value
+   * @param time timestamp of the value in seconds since the epoch
+   */
+  public void appendValueToPayload(TagDescriptor descriptor, double value, long time) {
+    if (communicationType != OSIsoftConfig.OMF) {
+      Logger.LOG_SERIOUS("Values without a data point are only supported by OMF payloads.");
+      return;
+    }
+
+    if (!serializer.writeOmfNumber(descriptor.getOrdinal(), descriptor, value, time)) {
+      Logger.LOG_DEBUG(
+          "Skipped non-finite value " + value + " of container " + descriptor.getContainerId());
+      return;
+    }
+    valueAdded(time);
 
-    didReachMaxDataPoints();
+    didReachMaxPayloadSize();
 
-    didTakeTooLong(dataPoint);
+    didTakeTooLong(time);
 
     completePayloadAttempt();
   }
 
   /**
    * Ensures that we do not wait endlessly for a payload to fill up completely. Cuts off the payload
-   * after {@link #PAY_LOAD_TIME_PERIOD_SECONDS}
+   * after {@link #PAY_LOAD_TIME_PERIOD_SECONDS}, unless values are coalesced, which writes them
+   * grouped by container rather than in timestamp order.
    *
-   * @param data the data point to check
+   * @param time timestamp of the data point in seconds since the epoch
    */
-  private void didTakeTooLong(DataPoint data) {
-    long time = Long.parseLong(data.getTimeStamp());
-
-    /*
-     * The initial value of the start time is 0.
-     * set the value to 0 whenever the payload is complete.
-     *
-     * In either case, start a new time period and set the time.
-     */
-    if (payloadStartTimestamp == 0) {
-      payloadStartTimestamp = time;
+  private void didTakeTooLong(long time) {
 
-    } else if (payloadStartTimestamp < (time - PAY_LOAD_TIME_PERIOD_SECONDS)) {
+    // the start of the time period is set when the first value is added, see valueAdded
+    if (OSIsoftConfig.getPayloadCoalesceSeconds() == 0
+        && payloadStartTimestamp < (time - PAY_LOAD_TIME_PERIOD_SECONDS)) {
       // start a new payload due to reaching time period limit
       status = PAYLOAD_VALUES_COMPLETE;
     }
+
+    didLingerTooLong(System.currentTimeMillis());
   }
 
   /**
-   * Adds a datapoint to the payload
+   * Ensures that a payload with values is completed within {@link
+   * OSIsoftConfig#getPayloadLingerMs()} of its first value being added, measured by the system
+   * clock, no matter how slowly data points arrive.
    *
-   * @param dataPoint The data point to add
+   * @param nowMillis current system time in milliseconds
    */
-  private void addDataPoint(DataPoint dataPoint) {
-    String newPayloadPart = "";
-    int index = tagIdToIndex(dataPoint.getTagId());
-
-    String timestamp;
-    try {
-      timestamp = SCTimeUtils.getIso8601FormattedTimestampForDataPoint(dataPoint);
-    } catch (Exception e) {
-      timestamp = dataPoint.getTimeStamp();
-      Logger.LOG_SERIOUS(
-          "Unable to format data point timestamp for tag: "
-              + dataPoint.getTagName()
-              + " with value: "
-              + dataPoint.getValueString()
-              + ". Using raw timestamp.");
-      Logger.LOG_EXCEPTION(e);
+  private void didLingerTooLong(long nowMillis) {
+    final long lingerMs = OSIsoftConfig.getPayloadLingerMs();
+    if (status == PAYLOAD_VALUES_IN_PROGRESS
+        && lingerMs > 0
+        && nowMillis - firstValueMillis >= lingerMs) {
+      status = PAYLOAD_VALUES_COMPLETE;
     }
-    boolean isFirstPoint;
+  }
 
-    // if we have not seen that tag before, init it
-    if (checkIfTagIdEncountered(dataPoint.getTagId())) {
-      isFirstPoint = false;
-    } else {
-      // the tag has not been seen it yet
-      addToTagsEncounteredArray(dataPoint.getTagId());
-      tagPayloadArr[index] = new TagPayload();
-      ((TagPayload) tagPayloadArr[index]).setDataPoint(dataPoint);
+  /**
+   * Completes the payload if it has had values for longer than the linger time. This is called
+   * periodically, so a payload is completed even if no more data points arrive.
+   *
+   * @param nowMillis current system time in milliseconds
+   */
+  public void completeIfLingerExpired(long nowMillis) {
+    didLingerTooLong(nowMillis);
+    completePayloadAttempt();
+  }
 
-      isFirstPoint = true;
+  /**
+   * Completes the payload if it has values, without waiting for it to fill up. This is called at
+   * the end of a flush of coalesced values.
+   */
+  public void completeIfHasValues() {
+    if (status == PAYLOAD_VALUES_IN_PROGRESS) {
+      status = PAYLOAD_VALUES_COMPLETE;
     }
+    completePayloadAttempt();
+  }
+
+  /**
+   * Get the system time when the first value was added to the payload.
+   *
+   * @return system time in milliseconds, or 0 if the payload has no values
+   */
+  public long getFirstValueMillis() {
+    return firstValueMillis;
+  }
+
+  /**
+   * Adds a datapoint to the payload
+   *
+   * @param dataPoint The data point to add
+   * @param descriptor descriptor of the data point's tag
+   * @param time timestamp of the data point in seconds since the epoch
+   */
+  private void addDataPoint(DataPoint dataPoint, TagDescriptor descriptor, long time) {
+    final int index = descriptor.getOrdinal();
 
     switch (communicationType) {
       case OSIsoftConfig.OMF:
-        newPayloadPart =
-            PayloadBuilder.addPointToOMFDataMessage(dataPoint, timestamp, isFirstPoint);
+        if (descriptor.getGroupContainer() != null) {
+          serializer.writeOmfGroupValue(descriptor, dataPoint, time);
+        } else {
+          serializer.writeOmfValue(index, descriptor, dataPoint, time);
+        }
         break;
       case OSIsoftConfig.PI_WEB_API:
-        newPayloadPart =
-            PayloadBuilder.addPointOldFormat(dataPoint, timestamp, dataPointsEncounteredCount);
+        if (descriptor.getLegacyResource() == null) {
+          // the tag has no WebID, which is logged when the tag is found, so there is no stream
+          return;
+        }
+        serializer.writeLegacyValue(index, descriptor, dataPoint, time);
         break;
       default:
         Logger.LOG_SERIOUS(comsErrMsg);
         break;
     }
 
-    ((TagPayload) tagPayloadArr[index]).add(newPayloadPart);
+    valueAdded(time);
+  }
 
-    // might remove all this if statement
+  /**
+   * Updates the payload status after a value has been added.
+   *
+   * @param time timestamp of the value in seconds since the epoch
+   */
+  private void valueAdded(long time) {
+    // the first value starts the time period and the linger time of the payload
     if (status == PAYLOAD_HEADER_COMPLETE) {
 
       status = PAYLOAD_VALUES_IN_PROGRESS;
 
-      long time = Long.parseLong(dataPoint.getTimeStamp());
       payloadStartTimestamp = time;
+      firstValueMillis = System.currentTimeMillis();
     }
 
     // add to the count of data points
     dataPointsEncounteredCount++;
   }
 
-  /** Checks to see if the payload has added up to the max number of points. */
-  private void didReachMaxDataPoints() {
+  /**
+   * Checks to see if the payload has reached its target size in bytes, or has added up to the max
+   * number of points.
+   */
+  private void didReachMaxPayloadSize() {
 
-    if (dataPointsEncounteredCount >= MAX_DATA_POINTS) {
+    if (serializer.getProjectedLength() >= PayloadSizeController.getTargetSizeBytes()
+        || dataPointsEncounteredCount >= OSIsoftConfig.getPayloadMaxDataPoints()) {
       status = PAYLOAD_VALUES_COMPLETE;
     }
   }
 
-  /**
-   * Get the index of the {@link #tagNamesEncountered} from the tag ID.
-   *
-   * @param tagId ID of the tag
-   * @return returns the index
-   */
-  private int tagIdToIndex(int tagId) {
-    int index = tagId - tagIndexOffset;
-    return index;
-  }
-
   /** Completes the payload if it has values */
   public void completePayloadAttempt() {
     if (status == PAYLOAD_VALUES_COMPLETE) {
       // Payload has values, end the payload
-      boolean firstPayload = true;
-
       // add all the tag's info to the payload
-      for (int i = 0; i < tagPayloadArr.length; i++) {
-
-        if (tagPayloadArr[i] != null && tagPayloadArr[i].getPayload().length() > 1) {
-
-          TagPayload tagPayload = (TagPayload) tagPayloadArr[i];
-
-          String tagName = tagPayload.getDataPoint().getTagName();
-          String typeString = "";
-
-          if (tagPayload.getDataPoint().getType() == DataType.FLOAT) {
-            typeString = NUMBER_TAG_TYPE;
-          } else if (tagPayload.getDataPoint().getType() == DataType.INTEGER) {
-            typeString = INTEGER_TAG_TYPE;
-          } else if (tagPayload.getDataPoint().getType() == DataType.BOOLEAN) {
-            typeString = BOOLEAN_TAG_TYPE;
-          } else if (tagPayload.getDataPoint().getType() == DataType.DWORD) {
-            typeString = NUMBER_TAG_TYPE;
-          } else if (tagPayload.getDataPoint().getType() == DataType.STRING) {
-            typeString = STRING_TAG_TYPE;
-          } else {
-            Logger.LOG_SERIOUS(
-                "Unsupported tag type was selected for Ewon tag "
-                    + tagPayload.getDataPoint().getTagName());
-            Logger.LOG_SERIOUS(
-                "Please change that Ewon tag type to one of the following: Integer, Boolean, DWord,"
-                    + " Float, or String.");
-          }
-
-          switch (communicationType) {
-            case OSIsoftConfig.OMF:
-              if (!firstPayload) {
-                payload.append(",");
-              } else {
-                firstPayload = false;
-              }
-              payload.append(PayloadBuilder.addContainerStartToOMFDataMessage(tagName, typeString));
-              payload.append(tagPayload.getPayload());
-              payload.append(PayloadBuilder.addContainerEndToOMFDataMessage());
-              break;
-            case OSIsoftConfig.PI_WEB_API:
-              payload.append(tagPayload.getPayload());
-              break;
-            default:
-              Logger.LOG_SERIOUS(comsErrMsg);
-              break;
-          }
+      // only visit the tags which have values, not the whole tag ID range
+      final int[] tagsWithValues = serializer.getTagsWithValues();
+      final int tagsWithValuesCount = serializer.getTagsWithValuesCount();
+      if (communicationType == OSIsoftConfig.OMF) {
+        containerStarts = new int[tagsWithValuesCount];
+        containerEnds = new int[tagsWithValuesCount];
+      }
+      for (int n = 0; n < tagsWithValuesCount; n++) {
+        final int i = tagsWithValues[n];
+        TagDescriptor descriptor = TagDescriptorTable.getDescriptorByOrdinal(i);
+        switch (communicationType) {
+          case OSIsoftConfig.OMF:
+            if (descriptor.isGroupContainer()) {
+              serializer.writeOmfGroupContainer(i, descriptor.getContainerHeader());
+            } else {
+              serializer.writeOmfContainer(i, descriptor.getContainerHeader());
+            }
+            containerStarts[n] = serializer.getLastContainerStart();
+            containerEnds[n] = serializer.getOutput().length();
+            break;
+          case OSIsoftConfig.PI_WEB_API:
+            serializer.writeLegacyRequest(i, descriptor);
+            break;
+          default:
+            Logger.LOG_SERIOUS(comsErrMsg);
+            break;
         }
       }
 
       boolean allAppended = false;
-      int originalPayloadLength = payload.length();
       switch (communicationType) {
         case OSIsoftConfig.OMF:
-          allAppended =
-              payload.append(PayloadBuilder.endOMFDataMessage()).length() > originalPayloadLength;
+          allAppended = serializer.writeOutput(PayloadBuilder.endOMFDataMessage());
           break;
         case OSIsoftConfig.PI_WEB_API:
-          allAppended =
-              payload.append(PayloadBuilder.endBatchOldFormat()).length() > originalPayloadLength;
+          allAppended = serializer.writeOutput(PayloadBuilder.endBatchOldFormat());
           break;
         default:
           Logger.LOG_SERIOUS(comsErrMsg);
@@ -401,10 +415,65 @@ public class OsisoftJsonPayload {
 
       } else {
         status = PAYLOAD_COMPLETE;
+        recordCompletedPayload(tagsWithValuesCount);
       }
     }
   }
 
+  /**
+   * Update the values per container statistics with a completed payload.
+   *
+   * @param containerCount number of containers in the payload
+   */
+  private void recordCompletedPayload(int containerCount) {
+    completedPayloadCount++;
+    completedValueCount += dataPointsEncounteredCount;
+    completedContainerCount += containerCount;
+
+    Logger.LOG_DEBUG(
+        "Payload completed with "
+            + dataPointsEncounteredCount
+            + " values in "
+            + containerCount
+            + " containers. Average of "
+            + getValuesPerContainer()
+            + " values per container over "
+            + completedPayloadCount
+            + " payloads.");
+  }
+
+  /**
+   * Get the average number of values per container of all completed payloads. Each container of a
+   * payload repeats the container header, so a higher ratio means a smaller share of the payload
+   * is spent on headers.
+   *
+   * @return values per container, or 0 if no payload has been completed
+   */
+  public double getValuesPerContainer() {
+    if (completedContainerCount == 0) {
+      return 0;
+    }
+    return (double) completedValueCount / completedContainerCount;
+  }
+
+  /**
+   * Get the number of values in all completed payloads.
+   *
+   * @return completed value count
+   */
+  long getCompletedValueCount() {
+    return completedValueCount;
+  }
+
+  /**
+   * Get the number of containers (or legacy sub-requests) in all completed payloads.
+   *
+   * @return completed container count
+   */
+  long getCompletedContainerCount() {
+    return completedContainerCount;
+  }
+
   /**
    * Checks if the payload status is set to {@link #PAYLOAD_COMPLETE}
    *
@@ -0,0 +1,304 @@
+package com.hms.flexyosisoftconnector.payloadhandler;
+
+import com.hms_networks.americas.sc.extensions.json.JSONArray;
+import com.hms_networks.americas.sc.extensions.json.JSONException;
+import com.hms_networks.americas.sc.extensions.json.JSONObject;
+import com.hms_networks.americas.sc.extensions.logging.Logger;
+
+/**
+ * A completed payload waiting in the payload queue, with the positions of its OMF containers.
+ *
+ * <p>If the server rejects a payload without identifying the rejected container, the payload can
+ * be split in two halves which are posted separately. Repeating this isolates the rejected values
+ * in a few posts, while the other values are accepted. Payloads are split at the container
+ * positions recorded when the payload was completed, so the payload does not need to be parsed.
+ * Payloads without recorded positions, and payloads with a single container, are parsed to split
+ * them, which is only done after the server rejected them.
+ *
+ * @author HMS Networks, MU Americas Solution Center
+ */
+public class PayloadBatch {
+
+  /** Key of the container ID of a container in an OMF data message. */
+  private static final String CONTAINER_ID_KEY = "containerid";
+
+  /** Key of the values of a container in an OMF data message. */
+  private static final String VALUES_KEY = "values";
+
+  /** Separator between the containers of an OMF data message. */
+  private static final char CONTAINER_SEPARATOR = ',';
+
+  /** Number of heap bytes used by each character of a string. */
+  private static final int BYTES_PER_CHAR = 2;
+
+  /** Number of heap bytes used by each container position. */
+  private static final int BYTES_PER_CONTAINER = 8;
+
+  /** Estimated number of heap bytes used by the objects of a batch besides its contents. */
+  private static final int OVERHEAD_BYTES = 64;
+
+  /** The payload string which is posted. */
+  private final String payload;
+
+  /** Offset of the first character of each container in the payload, or null if not known. */
+  private final int[] containerStarts;
+
+  /** Offset after the last character of each container in the payload, or null if not known. */
+  private final int[] containerEnds;
+
+  /** Estimated number of heap bytes held by the batch. */
+  private final long heapBytes;
+
+  /**
+   * Constructor for a payload batch without recorded container positions, such as a legacy format
+   * payload.
+   *
+   * @param payload the payload string
+   */
+  public PayloadBatch(String payload) {
+    this(payload, null, null);
+  }
+
+  /**
+   * Constructor for an OMF payload batch with the positions of its containers.
+   *
+   * @param payload the OMF data message
+   * @param containerStarts offset of the first character of each container
+   * @param containerEnds offset after the last character of each container
+   */
+  PayloadBatch(String payload, int[] containerStarts, int[] containerEnds) {
+    this.payload = payload;
+    this.containerStarts = containerStarts;
+    this.containerEnds = containerEnds;
+
+    long containerBytes = 0;
+    if (containerStarts != null) {
+      containerBytes = (long) containerStarts.length * BYTES_PER_CONTAINER;
+    }
+    heapBytes = estimateHeapBytes(payload.length()) + containerBytes;
+  }
+
+  /**
+   * Estimate the number of heap bytes held by a batch with a payload of the specified length,
+   * without its container positions.
+   *
+   * @param payloadLength number of characters of the payload
+   * @return estimated heap bytes
+   */
+  public static long estimateHeapBytes(int payloadLength) {
+    return (long) payloadLength * BYTES_PER_CHAR + OVERHEAD_BYTES;
+  }
+
+  /**
+   * Get the payload string which is posted.
+   *
+   * @return payload string
+   */
+  public String getPayload() {
+    return payload;
+  }
+
+  /**
+   * Get the number of characters of the payload.
+   *
+   * @return payload length
+   */
+  public int getLength() {
+    return payload.length();
+  }
+
+  /**
+   * Get the estimated number of heap bytes held by the batch, including its container positions.
+   *
+   * @return estimated heap bytes
+   */
+  public long getHeapBytes() {
+    return heapBytes;
+  }
+
+  /**
+   * Split an OMF payload into two payloads holding half of its containers each, or half of the
+   * values of its only container.
+   *
+   * @return the two halves, or null if the payload holds a single value or cannot be parsed
+   */
+  public PayloadBatch[] split() {
+    if (containerStarts != null && containerStarts.length > 1) {
+      final int half = containerStarts.length / 2;
+      return new PayloadBatch[] {
+        getContainers(0, half), getContainers(half, containerStarts.length)
+      };
+    }
+
+    try {
+      JSONArray containers = new JSONArray(payload);
+      if (containers.length() > 1) {
+        final int half = containers.length() / 2;
+        return new PayloadBatch[] {
+          new PayloadBatch(copyRange(containers, 0, half).toString()),
+          new PayloadBatch(copyRange(containers, half, containers.length()).toString())
+        };
+      } else if (containers.length() == 1) {
+        JSONObject container = containers.getJSONObject(0);
+        JSONArray values = container.getJSONArray(VALUES_KEY);
+        if (values.length() > 1) {
+          final int half = values.length() / 2;
+          final String containerId = container.getString(CONTAINER_ID_KEY);
+          return new PayloadBatch[] {
+            createContainerBatch(containerId, copyRange(values, 0, half)),
+            createContainerBatch(containerId, copyRange(values, half, values.length()))
+          };
+        }
+      }
+    } catch (JSONException e) {
+      Logger.LOG_SERIOUS("Unable to split a rejected payload.");
+      Logger.LOG_EXCEPTION(e);
+    }
+    return null;
+  }
+
+  /**
+   * Write the containers of an OMF payload to the dead letter file.
+   *
+   * @return true if the containers were written, false if the payload cannot be parsed
+   */
+  public boolean writeToDeadLetterFile() {
+    try {
+      JSONArray containers = new JSONArray(payload);
+      for (int i = 0; i < containers.length(); i++) {
+        JSONObject container = containers.getJSONObject(i);
+        DeadLetterFile.writeContainer(
+            container.getString(CONTAINER_ID_KEY),
+            container.toString(),
+            container.getJSONArray(VALUES_KEY).length());
+      }
+      return true;
+    } catch (JSONException e) {
+      Logger.LOG_SERIOUS("Unable to write a rejected payload to the dead letter file.");
+      Logger.LOG_EXCEPTION(e);
+      return false;
+    }
+  }
+
+  /**
+   * Create a payload batch with a range of the containers of this payload.
+   *
+   * @param first index of the first container
+   * @param end index after the last container
+   * @return payload batch with the containers
+   */
+  private PayloadBatch getContainers(int first, int end) {
+    int[] indexes = new int[end - first];
+    for (int i = 0; i < indexes.length; i++) {
+      indexes[i] = first + i;
+    }
+    return getContainers(indexes);
+  }
+
+  /**
+   * Create a payload batch with some of the containers of this payload, using the recorded
+   * container positions.
+   *
+   * @param indexes indexes of the containers in ascending order
+   * @return payload batch with the containers
+   */
+  private PayloadBatch getContainers(int[] indexes) {
+    int[] starts = new int[indexes.length];
+    int[] ends = new int[indexes.length];
+    StringBuffer containers = new StringBuffer(payload.length());
+    containers.append(PayloadBuilder.startOMFDataMessage());
+    for (int i = 0; i < indexes.length; i++) {
+      if (i > 0) {
+        containers.append(CONTAINER_SEPARATOR);
+      }
+      starts[i] = containers.length();
+      containers.append(payload.substring(containerStarts[indexes[i]], containerEnds[indexes[i]]));
+      ends[i] = containers.length();
+    }
+    containers.append(PayloadBuilder.endOMFDataMessage());
+    return new PayloadBatch(containers.toString(), starts, ends);
+  }
+
+  /**
+   * Select the containers of an OMF payload which must be sent again, such as the containers the
+   * server rejected while it accepted the others.
+   *
+   * @param indexes indexes of the containers in ascending order
+   * @return payload batch with the containers, this payload batch if all containers are selected,
+   *     or null if an index is not the index of a container of the payload
+   */
+  public PayloadBatch selectContainers(int[] indexes) {
+    final int containerCount;
+    JSONArray parsedContainers = null;
+    if (containerStarts != null) {
+      containerCount = containerStarts.length;
+    } else {
+      try {
+        parsedContainers = new JSONArray(payload);
+      } catch (JSONException e) {
+        Logger.LOG_SERIOUS("Unable to select the containers of a payload.");
+        Logger.LOG_EXCEPTION(e);
+        return null;
+      }
+      containerCount = parsedContainers.length();
+    }
+
+    for (int i = 0; i < indexes.length; i++) {
+      if (indexes[i] < 0 || indexes[i] >= containerCount) {
+        return null;
+      }
+    }
+    if (indexes.length == containerCount) {
+      return this;
+    } else if (parsedContainers == null) {
+      return getContainers(indexes);
+    }
+
+    try {
+      JSONArray containers = new JSONArray();
+      for (int i = 0; i < indexes.length; i++) {
+        containers.put(parsedContainers.get(indexes[i]));
+      }
+      return new PayloadBatch(containers.toString());
+    } catch (JSONException e) {
+      Logger.LOG_SERIOUS("Unable to select the containers of a payload.");
+      Logger.LOG_EXCEPTION(e);
+      return null;
+    }
+  }
+
+  /**
+   * Create a payload batch with a single container.
+   *
+   * @param containerId ID of the container
+   * @param values values of the container
+   * @return payload batch with the container
+   * @throws JSONException if the container cannot be created
+   */
+  private static PayloadBatch createContainerBatch(String containerId, JSONArray values)
+      throws JSONException {
+    JSONObject container = new JSONObject();
+    container.put(CONTAINER_ID_KEY, containerId);
+    container.put(VALUES_KEY, values);
+    JSONArray containers = new JSONArray();
+    containers.put(container);
+    return new PayloadBatch(containers.toString());
+  }
+
+  /**
+   * Copy a range of the elements of a JSON array to a new JSON array.
+   *
+   * @param array the array to copy from
+   * @param first index of the first element
+   * @param end index after the last element
+   * @return new array with the elements
+   * @throws JSONException if an element cannot be read
+   */
+  private static JSONArray copyRange(JSONArray array, int first, int end) throws JSONException {
+    JSONArray copy = new JSONArray();
+    for (int i = first; i < end; i++) {
+      copy.put(array.get(i));
+    }
+    return copy;
+  }
+}
@@ -1,13 +1,10 @@
 package com.hms.flexyosisoftconnector.payloadhandler;
 
-import com.ewon.ewonitf.SysControlBlock;
 import com.hms.flexyosisoftconnector.configuration.OSIsoftConfig;
-import com.hms.flexyosisoftconnector.configuration.OSIsoftTagNamingScheme;
 import com.hms_networks.americas.sc.extensions.datapoint.DataPoint;
 import com.hms_networks.americas.sc.extensions.datapoint.DataType;
 import com.hms_networks.americas.sc.extensions.logging.Logger;
 import com.hms_networks.americas.sc.extensions.taginfo.TagInfo;
-import com.hms_networks.americas.sc.extensions.taginfo.TagInfoManager;
 import com.hms_networks.americas.sc.extensions.taginfo.TagType;
 
 /**
@@ -17,35 +14,28 @@ import com.hms_networks.americas.sc.extensions.taginfo.TagType;
  */
 public class PayloadBuilder {
 
-  /** array of tag web id's */
-  private static String tagWebIdList[];
-
-  /** Index offset used to find the tagWebIDList index from the tag ID. */
-  private static int tagWebIdListIndexOffset;
-
-  /** Initialize an array of tag web ID's for legacy function web ID lookup. */
-  public static void initWebIdList() {
-    // setup an indicted array of web Id's
-    int lowestSeen = TagInfoManager.getLowestTagIdSeen();
-    int highestSeen = TagInfoManager.getHighestTagIdSeen();
-    tagWebIdListIndexOffset = lowestSeen;
-    int tagListArraySize = highestSeen - lowestSeen + 1;
-
-    if (tagListArraySize == -1) {
-      tagListArraySize = 1;
+  /**
+   * Set the web ID to the retrieved web ID from initializing a tag.
+   *
+   * @param tagId tag's ID
+   * @param webID tag's webID
+   */
+  public static void setTagWebId(int tagId, String webID) {
+    TagDescriptor descriptor = TagDescriptorTable.getDescriptor(tagId);
+    if (descriptor != null) {
+      descriptor.setWebId(webID);
     }
-    tagWebIdList = new String[tagListArraySize];
   }
 
   /**
-   * Set the web idea to the retrieved web id from initializing a tag.
+   * Get the web ID retrieved for a tag when it was initialized.
    *
    * @param tagId tag's ID
-   * @param webID tag's webID
+   * @return tag's webID
    */
-  public static void setTagWebId(int tagId, String webID) {
-    int index = tagId - tagWebIdListIndexOffset;
-    tagWebIdList[index] = webID;
+  public static String getTagWebId(int tagId) {
+    TagDescriptor descriptor = TagDescriptorTable.getDescriptor(tagId);
+    return descriptor != null ? descriptor.getWebId() : null;
   }
 
   /**
@@ -64,7 +54,7 @@ public class PayloadBuilder {
    * @return the payload segment as a string
    */
   public static String endBatchOldFormat() {
-    String payload = "}";
+    String payload = "\n}";
     return payload;
   }
 
@@ -89,88 +79,16 @@ public class PayloadBuilder {
   }
 
   /**
-   * Adds a data point to the payload via the legacy format.
+   * Get the legacy PI Web API resource which recorded values are written to for a PI point stream.
+   * All values of a tag in a batch are written to this resource in a single sub-request.
    *
-   * @param dataPoint the data point to add
-   * @param batchCount which data point we are adding
-   * @return returns a JSON segment containing the added data point.
+   * @param webId the PI point's web ID
+   * @return the resource URL as UTF-8 bytes
    */
-  public static String addPointOldFormat(DataPoint dataPoint, String timeStamp, int batchCount) {
-    int index = dataPoint.getTagId() - tagWebIdListIndexOffset;
-    String webId = tagWebIdList[index];
-    String targetURL = OSIsoftConfig.getServerUrl();
-    String authCredentials = OSIsoftConfig.getServerLogin();
-
-    String payload =
-        "  \""
-            + Integer.toString(batchCount)
-            + "\": {\n"
-            + "    \"Method\": \"POST\",\n"
-            + "    \"Resource\": \""
-            + targetURL
-            + "streams/"
-            + webId
-            + "/Value\",\n"
-            + "    \"Content\": \""
-            + buildBody(dataPoint.getValueString(), timeStamp, true)
-            + "\",\n"
-            + "    \"Headers\": {\"Authorization\": \"Basic "
-            + authCredentials
-            + "\""
-            + "}\n"
-            + "  },\n";
-    return payload;
-  }
-
-  /**
-   * BuildBody is used to add a data point to the legacy format of PIWebApi.
-   *
-   * @param value Data point value
-   * @param timestamp Data point time stamp
-   * @param escapeQuotes Indicator to include escape characters before quotes
-   * @return the payload segment as a string
-   */
-  private static String buildBody(String value, String timestamp, boolean escapeQuotes) {
-    String quote;
-    if (escapeQuotes) {
-      quote = "\\\"";
-    } else {
-      quote = "\"";
-    }
-
-    String jsonBody =
-        "{"
-            + quote
-            + "Timestamp"
-            + quote
-            + ": "
-            + quote
-            + timestamp
-            + quote
-            + ","
-            + quote
-            + "Value"
-            + quote
-            + ": "
-            + value
-            + ","
-            + quote
-            + "UnitsAbbreviation"
-            + quote
-            + ": "
-            + quote
-            + quote
-            + ","
-            + quote
-            + "Good"
-            + quote
-            + ": true,"
-            + quote
-            + "Questionable"
-            + quote
-            + ": false"
-            + "}";
-    return jsonBody;
+  public static byte[] getRecordedValuesResource(String webId) {
+    String serverUrl = OSIsoftConfig.getServerUrl();
+    String separator = serverUrl != null && serverUrl.endsWith("/") ? "" : "/";
+    return PayloadByteBuffer.bytesOf(serverUrl + separator + "streams/" + webId + "/recorded");
   }
 
   /**
@@ -197,18 +115,10 @@ public class PayloadBuilder {
   /**
    * This constructs the start of a new container.
    *
-   * @param tagName the tag's name
+   * @param containerId the container ID of the tag, see {@link TagDescriptor#getContainerId()}
    * @return the payload segment as a string
    */
-  public static String addContainerStartToOMFDataMessage(String tagName, String tagType) {
-
-    /* Ensure the container is uniquely identified across devices communicating to the same
-     * OSIsoft server under the same type declaration.
-     * Types are treated as immutable and changing the type creates a new container.
-     */
-    final String containerId =
-        OSIsoftTagNamingScheme.extractTagNameFromComponents(tagName, tagType);
-
+  public static String addContainerStartToOMFDataMessage(String containerId) {
     // each tag's container id is set to the tag's name
     String payload = "{" + "\"containerid\": \"" + containerId + "\"" + "," + "\"values\": [";
 
@@ -355,6 +265,62 @@ public class PayloadBuilder {
     return payload;
   }
 
+  /**
+   * Setup the format for how the data of a group container will be stored with omf. The type has
+   * one property for each tag sent in the group container.
+   *
+   * @param groupContainer descriptor of the group container
+   * @return returns the JSON payload to construct a new Type message.
+   */
+  public static String getGroupTypeBody(TagDescriptor groupContainer) {
+    StringBuffer payload = new StringBuffer();
+    payload
+        .append("[{" + "\"id\": \"")
+        .append(groupContainer.getTypeId())
+        .append(
+            "\","
+                + "\"classification\": \"dynamic\","
+                + "\"type\": \"object\","
+                + "\"properties\": {"
+                + "\"timestamp\": {"
+                + "\"type\": \"string\","
+                + "\"format\": \"date-time\","
+                + "\"isindex\": true"
+                + "}");
+
+    final int tagOrdinalCount = TagDescriptorTable.getOrdinalCount();
+    for (int i = 0; i < tagOrdinalCount; i++) {
+      TagDescriptor descriptor = TagDescriptorTable.getDescriptorByOrdinal(i);
+      if (descriptor.getGroupContainer() != groupContainer) {
+        continue;
+      }
+
+      final String type = descriptor.getOmfTypeName();
+      payload
+          .append(",\"")
+          .append(TagDescriptorTable.escapeJsonString(descriptor.getTagName()))
+          .append("\": {")
+          .append("\"type\": \"")
+          .append(type)
+          .append("\",");
+
+      // include format if not booleans or strings
+      if (type.equals(OsisoftJsonPayload.NUMBER_TAG_TYPE)) {
+        payload.append("\"format\": \"float32\",");
+      } else if (type.equals(OsisoftJsonPayload.INTEGER_TAG_TYPE)) {
+        payload.append("\"format\": \"int32\",");
+      }
+
+      payload
+          .append("\"description\": \"Ewon Flexy's tag value stored as a ")
+          .append(type)
+          .append("\"}");
+    }
+
+    payload.append("}" + "}]");
+    return payload.toString();
+  }
+
   /**
    * Setup the format for how data from this device will be stored with omf
    *
@@ -388,67 +354,45 @@ public class PayloadBuilder {
    * This sets up OMF to have the containers for each tag. Instead of doing all of them at once, it
    * will get the complete payload for container setup in batches.
    *
-   * @param startTagIndex The starting index of which tag to resume getting JSON for.
+   * <p>Containers are indexed by tag ordinal, see {@link TagDescriptorTable}, which includes the
+   * additional containers of tags such as aggregate containers and group containers. Tags which
+   * are sent in a group container do not have a container of their own.
+   *
+   * @param startTagIndex The starting ordinal of which tag to resume getting JSON for.
    * @param numToProccess How many tags will be have JSON returned for them.
    * @return returns the JSON segment to construct a container for each of the tags.
    */
   public static String getContainerSettingJson(int startTagIndex, int numToProccess) {
-    String typeID = "";
-
     StringBuffer payload = new StringBuffer();
 
     payload.append(startOMFDataMessage());
     int endTagIndex;
-    if ((startTagIndex + numToProccess) < TagInfoManager.getTagInfoList().size()) {
+    if ((startTagIndex + numToProccess) < TagDescriptorTable.getOrdinalCount()) {
       endTagIndex = (startTagIndex + numToProccess);
     } else {
-      endTagIndex = TagInfoManager.getTagInfoList().size();
+      endTagIndex = TagDescriptorTable.getOrdinalCount();
     }
+    boolean firstContainer = true;
     for (int i = startTagIndex; i < endTagIndex; i++) {
-      if (TagInfoManager.getTagInfoList().get(i) != null) {
-        TagInfo currentTag = (TagInfo) TagInfoManager.getTagInfoList().get(i);
-        String tagName = currentTag.getName();
-        String typeString = "";
-
-        if (currentTag.getType() == TagType.FLOAT) {
-          typeString = OsisoftJsonPayload.NUMBER_TAG_TYPE;
-        } else if (currentTag.getType() == TagType.INTEGER) {
-          typeString = OsisoftJsonPayload.INTEGER_TAG_TYPE;
-        } else if (currentTag.getType() == TagType.BOOLEAN) {
-          typeString = OsisoftJsonPayload.BOOLEAN_TAG_TYPE;
-        } else if (currentTag.getType() == TagType.DWORD) {
-          typeString = OsisoftJsonPayload.NUMBER_TAG_TYPE;
-        } else if (currentTag.getType() == TagType.STRING) {
-          typeString = OsisoftJsonPayload.STRING_TAG_TYPE;
-        } else {
-          Logger.LOG_SERIOUS("Unsupported tag type was selected for tag " + tagName);
-          Logger.LOG_SERIOUS(
-              "Please change that tag type to one of the following: Integer, Boolean, DWord,"
-                  + " Float, or String.");
-        }
-        typeID = "HMS-" + typeString + "-type-" + getFlexyName();
-
-        // after the first tag, separate by comma
-        if (i > startTagIndex) {
-          payload.append(",");
-        }
-
-        /* Ensure the container is uniquely identified across devices communicating to the same
-         * OSIsoft server under the same Type declaration.
-         * Types are treated as immutable and changing the type creates a new container.
-         */
-        final String containerId =
-            OSIsoftTagNamingScheme.extractTagNameFromComponents(tagName, typeString);
-
-        payload
-            .append("{" + "\"id\": \"")
-            .append(containerId)
-            .append("\",")
-            .append("\"typeid\": \"")
-            .append(typeID)
-            .append("\"")
-            .append("}");
+      TagDescriptor descriptor = TagDescriptorTable.getDescriptorByOrdinal(i);
+      if (descriptor.getGroupContainer() != null) {
+        continue;
       }
+
+      // after the first tag, separate by comma
+      if (!firstContainer) {
+        payload.append(",");
+      }
+      firstContainer = false;
+
+      payload
+          .append("{" + "\"id\": \"")
+          .append(TagDescriptorTable.escapeJsonString(descriptor.getContainerId()))
+          .append("\",")
+          .append("\"typeid\": \"")
+          .append(descriptor.getTypeId())
+          .append("\"")
+          .append("}");
     }
 
     payload.append(endOMFDataMessage());
@@ -456,21 +400,12 @@ public class PayloadBuilder {
   }
 
   /**
-   * Reads the unique name given to the Flexy
+   * Get the unique name given to the Flexy, which is read once when the configuration is loaded.
    *
    * @return Name of the Flexy
    */
   private static String getFlexyName() {
-    String res = "";
-    SysControlBlock SCB;
-    try {
-      SCB = new SysControlBlock(SysControlBlock.SYS);
-      res = SCB.getItem("Identification");
-    } catch (Exception e) {
-      Logger.LOG_EXCEPTION(e);
-      Logger.LOG_SERIOUS("Error reading Ewon's name");
-    }
-    return res;
+    return OSIsoftConfig.getFlexyName();
   }
 
   /**
@@ -0,0 +1,373 @@
+package com.hms.flexyosisoftconnector.payloadhandler;
+
+import com.hms_networks.americas.sc.extensions.logging.Logger;
+import java.io.UnsupportedEncodingException;
+
+/**
+ * Growable, reusable byte buffer used to serialize payloads without building intermediate strings.
+ *
+ * <p>Strings are written to the buffer as UTF-8 directly from their characters. The backing array
+ * is only reallocated when a payload outgrows the current capacity, so in steady state writing to
+ * the buffer does not allocate.
+ *
+ * @author HMS Networks, MU Americas Solution Center
+ */
+public class PayloadByteBuffer {
+
+  /** Character encoding used for all payload bytes. */
+  static final String PAYLOAD_ENCODING = "UTF-8";
+
+  /** Largest number of decimal places or significant digits written by the decimal formatting. */
+  public static final int MAX_PRECISION_DIGITS = 17;
+
+  /** Powers of ten which are exactly representable as doubles and longs. */
+  private static final long[] POWERS_OF_TEN = {
+    1L,
+    10L,
+    100L,
+    1000L,
+    10000L,
+    100000L,
+    1000000L,
+    10000000L,
+    100000000L,
+    1000000000L,
+    10000000000L,
+    100000000000L,
+    1000000000000L,
+    10000000000000L,
+    100000000000000L,
+    1000000000000000L,
+    10000000000000000L,
+    100000000000000000L,
+    1000000000000000000L
+  };
+
+  /** Largest magnitude which can be scaled to a long by the decimal formatting. */
+  private static final double MAX_SCALED_VALUE = 9.0e18;
+
+  /** Backing array for the buffer contents. */
+  private byte[] buffer;
+
+  /** Number of valid bytes in {@link #buffer}. */
+  private int length;
+
+  /**
+   * Constructor for a payload byte buffer.
+   *
+   * @param initialCapacity initial size of the backing array in bytes
+   */
+  public PayloadByteBuffer(int initialCapacity) {
+    buffer = new byte[Math.max(initialCapacity, 1)];
+    length = 0;
+  }
+
+  /**
+   * Get the number of bytes written to the buffer.
+   *
+   * @return number of bytes in the buffer
+   */
+  public int length() {
+    return length;
+  }
+
+  /**
+   * Get the backing array of the buffer. Only the first {@link #length()} bytes are valid.
+   *
+   * @return backing array of the buffer
+   */
+  public byte[] getBytes() {
+    return buffer;
+  }
+
+  /**
+   * Set the number of valid bytes in the buffer. This can only be used to shrink the buffer, such
+   * as clearing it for reuse.
+   *
+   * @param newLength new length of the buffer
+   */
+  public void setLength(int newLength) {
+    if (newLength < 0 || newLength > length) {
+      throw new IllegalArgumentException("Invalid payload buffer length " + newLength);
+    }
+    length = newLength;
+  }
+
+  /**
+   * Ensure the backing array can hold the specified number of additional bytes.
+   *
+   * @param additionalBytes number of bytes about to be written
+   */
+  private void ensureCapacity(int additionalBytes) {
+    int requiredCapacity = length + additionalBytes;
+    if (requiredCapacity > buffer.length) {
+      int newCapacity = buffer.length * 2;
+      if (newCapacity < requiredCapacity) {
+        newCapacity = requiredCapacity;
+      }
+      byte[] newBuffer = new byte[newCapacity];
+      System.arraycopy(buffer, 0, newBuffer, 0, length);
+      buffer = newBuffer;
+    }
+  }
+
+  /**
+   * Append a single byte to the buffer.
+   *
+   * @param b byte to append
+   */
+  public void append(byte b) {
+    ensureCapacity(1);
+    buffer[length++] = b;
+  }
+
+  /**
+   * Append an array of bytes to the buffer.
+   *
+   * @param bytes bytes to append
+   */
+  public void append(byte[] bytes) {
+    append(bytes, 0, bytes.length);
+  }
+
+  /**
+   * Append a range of an array of bytes to the buffer.
+   *
+   * @param bytes source array
+   * @param offset index of the first byte to append
+   * @param count number of bytes to append
+   */
+  public void append(byte[] bytes, int offset, int count) {
+    ensureCapacity(count);
+    System.arraycopy(bytes, offset, buffer, length, count);
+    length += count;
+  }
+
+  /**
+   * Append a range of another payload byte buffer to this buffer.
+   *
+   * @param source buffer to copy from
+   * @param start index of the first byte to copy
+   * @param end index after the last byte to copy
+   */
+  public void append(PayloadByteBuffer source, int start, int end) {
+    append(source.buffer, start, end - start);
+  }
+
+  /**
+   * Append a string to the buffer encoded as UTF-8.
+   *
+   * @param string string to append
+   */
+  public void append(String string) {
+    final int stringLength = string.length();
+
+    // Worst case of three bytes per UTF-16 character
+    ensureCapacity(stringLength * 3);
+    for (int i = 0; i < stringLength; i++) {
+      char c = string.charAt(i);
+      if (c < 0x80) {
+        buffer[length++] = (byte) c;
+      } else if (c < 0x800) {
+        buffer[length++] = (byte) (0xC0 | (c >> 6));
+        buffer[length++] = (byte) (0x80 | (c & 0x3F));
+      } else if (c >= 0xD800 && c <= 0xDBFF && i + 1 < stringLength) {
+        // Surrogate pair, combine into a single code point
+        int codePoint = 0x10000 + ((c - 0xD800) << 10) + (string.charAt(++i) - 0xDC00);
+        buffer[length++] = (byte) (0xF0 | (codePoint >> 18));
+        buffer[length++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+        buffer[length++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+        buffer[length++] = (byte) (0x80 | (codePoint & 0x3F));
+      } else {
+        buffer[length++] = (byte) (0xE0 | (c >> 12));
+        buffer[length++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+        buffer[length++] = (byte) (0x80 | (c & 0x3F));
+      }
+    }
+  }
+
+  /**
+   * Get the number of bytes of a string encoded as UTF-8, as appended by {@link #append(String)}.
+   *
+   * @param string string to measure
+   * @return encoded length in bytes
+   */
+  public static int encodedLength(String string) {
+    final int stringLength = string.length();
+    int encodedLength = 0;
+    for (int i = 0; i < stringLength; i++) {
+      char c = string.charAt(i);
+      if (c < 0x80) {
+        encodedLength++;
+      } else if (c < 0x800) {
+        encodedLength += 2;
+      } else if (c >= 0xD800 && c <= 0xDBFF && i + 1 < stringLength) {
+        // Surrogate pair, encoded as a single code point
+        i++;
+        encodedLength += 4;
+      } else {
+        encodedLength += 3;
+      }
+    }
+    return encodedLength;
+  }
+
+  /**
+   * Append the decimal representation of an integer to the buffer.
+   *
+   * @param value integer to append
+   */
+  public void append(int value) {
+    append((long) value);
+  }
+
+  /**
+   * Append the decimal representation of a long to the buffer.
+   *
+   * @param value long to append
+   */
+  public void append(long value) {
+    if (value == Long.MIN_VALUE) {
+      append(String.valueOf(value));
+      return;
+    }
+
+    ensureCapacity(20);
+    if (value < 0) {
+      buffer[length++] = (byte) '-';
+      value = -value;
+    }
+
+    // Count digits, then write them back to front
+    int digits = 1;
+    for (long remaining = value / 10; remaining > 0; remaining /= 10) {
+      digits++;
+    }
+    int position = length + digits - 1;
+    do {
+      buffer[position--] = (byte) ('0' + (value % 10));
+      value /= 10;
+    } while (value > 0);
+    length += digits;
+  }
+
+  /**
+   * Append a number rounded to a number of decimal places. Trailing zeros of the fraction are not
+   * written. Values within a rounding error of a half may round either way. Values which cannot be
+   * rounded with long arithmetic, such as very large values or NaN, are written in full.
+   *
+   * @param value number to append
+   * @param decimalPlaces number of decimal places, from 0 to {@link #MAX_PRECISION_DIGITS}
+   */
+  public void appendDecimal(double value, int decimalPlaces) {
+    final double magnitude = Math.abs(value);
+    final double scaledMagnitude = magnitude * POWERS_OF_TEN[decimalPlaces];
+    if (!(scaledMagnitude < MAX_SCALED_VALUE)) {
+      // NaN, infinite or too large to scale
+      append(String.valueOf(value));
+      return;
+    }
+
+    final long scaled = (long) (scaledMagnitude + 0.5);
+    if (value < 0 && scaled != 0) {
+      append((byte) '-');
+    }
+
+    final long divisor = POWERS_OF_TEN[decimalPlaces];
+    append(scaled / divisor);
+
+    long fraction = scaled % divisor;
+    if (fraction == 0) {
+      return;
+    }
+
+    // Drop trailing zeros, then write the remaining digits with leading zeros
+    int fractionDigits = decimalPlaces;
+    while (fraction % 10 == 0) {
+      fraction /= 10;
+      fractionDigits--;
+    }
+    ensureCapacity(fractionDigits + 1);
+    buffer[length++] = (byte) '.';
+    for (int position = length + fractionDigits - 1; position >= length; position--) {
+      buffer[position] = (byte) ('0' + (fraction % 10));
+      fraction /= 10;
+    }
+    length += fractionDigits;
+  }
+
+  /**
+   * Append a number rounded to a number of significant digits. Digits left of the decimal point
+   * beyond the significant digits are written as zeros. Values which cannot be rounded exactly with
+   * long arithmetic, such as very large or very small values, are written in full.
+   *
+   * @param value number to append
+   * @param significantDigits number of significant digits, from 1 to {@link #MAX_PRECISION_DIGITS}
+   */
+  public void appendSignificant(double value, int significantDigits) {
+    final double magnitude = Math.abs(value);
+    if (magnitude == 0) {
+      append((byte) '0');
+      return;
+    } else if (!(magnitude < MAX_SCALED_VALUE)) {
+      // NaN, infinite or too large to scale
+      append(String.valueOf(value));
+      return;
+    }
+
+    // Find the exponent of the leading digit, 10^exponent <= magnitude < 10^(exponent + 1)
+    int exponent = 0;
+    if (magnitude >= 1) {
+      while (exponent + 1 < POWERS_OF_TEN.length && magnitude >= POWERS_OF_TEN[exponent + 1]) {
+        exponent++;
+      }
+    } else {
+      exponent = -1;
+      while (-exponent < POWERS_OF_TEN.length
+          && magnitude * POWERS_OF_TEN[-exponent] < 1) {
+        exponent--;
+      }
+    }
+
+    final int decimalPlaces = significantDigits - 1 - exponent;
+    if (decimalPlaces > MAX_PRECISION_DIGITS) {
+      append(String.valueOf(value));
+    } else if (decimalPlaces >= 0) {
+      appendDecimal(value, decimalPlaces);
+    } else {
+      // Round to a multiple of a power of ten left of the decimal point
+      final long unit = POWERS_OF_TEN[-decimalPlaces];
+      final long rounded = ((long) (magnitude / unit + 0.5)) * unit;
+      append(value < 0 ? -rounded : rounded);
+    }
+  }
+
+  /**
+   * Get the contents of the buffer as a string.
+   *
+   * @return buffer contents decoded as UTF-8
+   */
+  public String toString() {
+    try {
+      return new String(buffer, 0, length, PAYLOAD_ENCODING);
+    } catch (UnsupportedEncodingException e) {
+      Logger.LOG_SERIOUS("Unable to decode payload bytes as " + PAYLOAD_ENCODING + ".");
+      Logger.LOG_EXCEPTION(e);
+      return "";
+    }
+  }
+
+  /**
+   * Get the static UTF-8 bytes of a payload fragment. Intended for building constants.
+   *
+   * @param fragment payload fragment
+   * @return UTF-8 encoded bytes of the fragment
+   */
+  static byte[] bytesOf(String fragment) {
+    PayloadByteBuffer fragmentBuffer = new PayloadByteBuffer(fragment.length() * 3);
+    fragmentBuffer.append(fragment);
+    byte[] bytes = new byte[fragmentBuffer.length()];
+    System.arraycopy(fragmentBuffer.buffer, 0, bytes, 0, bytes.length);
+    return bytes;
+  }
+}
@@ -0,0 +1,358 @@
+package com.hms.flexyosisoftconnector.payloadhandler;
+
+import com.hms_networks.americas.sc.extensions.datapoint.DataPoint;
+
+/**
+ * Buffer which holds the values of a partition across polls of the historical logs, so the values
+ * of each container are written to the payload together.
+ *
+ * <p>Values are held until the estimated size of the buffered values reaches a byte budget, the
+ * number of buffered values reaches a maximum, or the oldest buffered value has been held for the
+ * coalesce time. The buffered values are then written to the payload grouped by container, in the
+ * order the containers were first seen, so a payload which is completed during a flush is only
+ * split between two containers, and each container header is written once for all of its values.
+ *
+ * <p>The values are stored in arrays indexed by sample, linked into a list for each container
+ * ordinal, so no objects are created per buffered value.
+ *
+ * @author HMS Networks, MU Americas Solution Center
+ */
+public class PayloadCoalescer {
+
+  /** Estimated number of payload bytes of a value, without its container header. */
+  static final int ESTIMATED_VALUE_BYTES = 64;
+
+  /** Initial capacity of the sample arrays. */
+  private static final int INITIAL_SAMPLE_CAPACITY = 256;
+
+  /** Marker for a container without samples, or a sample without a successor. */
+  private static final int NO_SAMPLE = -1;
+
+  /** Data point of each sample, or null for a numeric value. */
+  private DataPoint[] sampleDataPoints = new DataPoint[INITIAL_SAMPLE_CAPACITY];
+
+  /** Descriptor of each sample's tag or container. */
+  private TagDescriptor[] sampleDescriptors = new TagDescriptor[INITIAL_SAMPLE_CAPACITY];
+
+  /** Numeric value of each sample which has no data point. */
+  private double[] sampleValues = new double[INITIAL_SAMPLE_CAPACITY];
+
+  /** Timestamp of each sample in seconds since the epoch. */
+  private long[] sampleEpochSeconds = new long[INITIAL_SAMPLE_CAPACITY];
+
+  /** Next sample of the same container, or {@link #NO_SAMPLE}. */
+  private int[] nextSamples = new int[INITIAL_SAMPLE_CAPACITY];
+
+  /** Number of buffered samples. */
+  private int sampleCount = 0;
+
+  /** First sample of each container ordinal, or {@link #NO_SAMPLE}. */
+  private int[] firstSamples = new int[0];
+
+  /** Last sample of each container ordinal. */
+  private int[] lastSamples = new int[0];
+
+  /** Ordinals of the containers with samples, in the order they were first seen. */
+  private int[] containers = new int[0];
+
+  /** Number of containers with samples. */
+  private int containerCount = 0;
+
+  /** Sample indexes grouped by container, filled by {@link #startFlush(boolean)}. */
+  private int[] flushOrder = new int[INITIAL_SAMPLE_CAPACITY];
+
+  /** Estimated number of payload bytes of the buffered samples. */
+  private long pendingBytes = 0;
+
+  /** System time in milliseconds when the first buffered sample was added. */
+  private long firstSampleMillis = 0;
+
+  /** Number of flushes. */
+  private long flushCount = 0;
+
+  /** Number of flushes because the buffer was full. */
+  private long fullFlushCount = 0;
+
+  /** Number of values written by all flushes. */
+  private long flushedValueCount = 0;
+
+  /** Number of containers written by all flushes. */
+  private long flushedContainerCount = 0;
+
+  /**
+   * Add a data point to the buffer.
+   *
+   * @param dataPoint the data point
+   * @param descriptor descriptor of the data point's tag
+   * @param epochSeconds timestamp of the data point in seconds since the epoch
+   * @param nowMillis current system time in milliseconds
+   */
+  void addDataPoint(
+      DataPoint dataPoint, TagDescriptor descriptor, long epochSeconds, long nowMillis) {
+    add(dataPoint, descriptor, 0, epochSeconds, nowMillis);
+  }
+
+  /**
+   * Add a numeric value which is not read from a data point, such as an aggregate, to the buffer.
+   *
+   * @param descriptor descriptor of the value's container
+   * @param value the value
+   * @param epochSeconds timestamp of the value in seconds since the epoch
+   * @param nowMillis current system time in milliseconds
+   */
+  void addValue(TagDescriptor descriptor, double value, long epochSeconds, long nowMillis) {
+    add(null, descriptor, value, epochSeconds, nowMillis);
+  }
+
+  /**
+   * Add a sample to the end of its container's list.
+   *
+   * @param dataPoint the data point, or null for a numeric value
+   * @param descriptor descriptor of the sample's tag or container
+   * @param value numeric value of a sample without a data point
+   * @param epochSeconds timestamp of the sample in seconds since the epoch
+   * @param nowMillis current system time in milliseconds
+   */
+  private void add(
+      DataPoint dataPoint,
+      TagDescriptor descriptor,
+      double value,
+      long epochSeconds,
+      long nowMillis) {
+    if (sampleCount == sampleDataPoints.length) {
+      growSamples(sampleCount * 2);
+    }
+    final int sample = sampleCount++;
+    sampleDataPoints[sample] = dataPoint;
+    sampleDescriptors[sample] = descriptor;
+    sampleValues[sample] = value;
+    sampleEpochSeconds[sample] = epochSeconds;
+    nextSamples[sample] = NO_SAMPLE;
+    if (sample == 0) {
+      firstSampleMillis = nowMillis;
+    }
+
+    // tags sent in a group container are grouped by the group container
+    final TagDescriptor container =
+        descriptor.getGroupContainer() != null ? descriptor.getGroupContainer() : descriptor;
+    final int ordinal = container.getOrdinal();
+    if (ordinal >= firstSamples.length) {
+      growContainers(Math.max(firstSamples.length * 2, ordinal + 1));
+    }
+    if (firstSamples[ordinal] == NO_SAMPLE) {
+      firstSamples[ordinal] = sample;
+      containers[containerCount++] = ordinal;
+      final byte[] header = container.getContainerHeader();
+      pendingBytes += header != null ? header.length : 0;
+    } else {
+      nextSamples[lastSamples[ordinal]] = sample;
+    }
+    lastSamples[ordinal] = sample;
+    pendingBytes += ESTIMATED_VALUE_BYTES;
+  }
+
+  /**
+   * Grow the sample arrays, copying the buffered samples.
+   *
+   * @param capacity number of samples to hold
+   */
+  private void growSamples(int capacity) {
+    DataPoint[] newDataPoints = new DataPoint[capacity];
+    TagDescriptor[] newDescriptors = new TagDescriptor[capacity];
+    double[] newValues = new double[capacity];
+    long[] newEpochSeconds = new long[capacity];
+    int[] newNextSamples = new int[capacity];
+    System.arraycopy(sampleDataPoints, 0, newDataPoints, 0, sampleCount);
+    System.arraycopy(sampleDescriptors, 0, newDescriptors, 0, sampleCount);
+    System.arraycopy(sampleValues, 0, newValues, 0, sampleCount);
+    System.arraycopy(sampleEpochSeconds, 0, newEpochSeconds, 0, sampleCount);
+    System.arraycopy(nextSamples, 0, newNextSamples, 0, sampleCount);
+    sampleDataPoints = newDataPoints;
+    sampleDescriptors = newDescriptors;
+    sampleValues = newValues;
+    sampleEpochSeconds = newEpochSeconds;
+    nextSamples = newNextSamples;
+    flushOrder = new int[capacity];
+  }
+
+  /**
+   * Grow the container arrays, copying the lists of the buffered containers.
+   *
+   * @param capacity number of container ordinals to hold
+   */
+  private void growContainers(int capacity) {
+    final int oldCapacity = firstSamples.length;
+    int[] newFirstSamples = new int[capacity];
+    int[] newLastSamples = new int[capacity];
+    int[] newContainers = new int[capacity];
+    System.arraycopy(firstSamples, 0, newFirstSamples, 0, oldCapacity);
+    System.arraycopy(lastSamples, 0, newLastSamples, 0, oldCapacity);
+    System.arraycopy(containers, 0, newContainers, 0, containerCount);
+    for (int i = oldCapacity; i < capacity; i++) {
+      newFirstSamples[i] = NO_SAMPLE;
+    }
+    firstSamples = newFirstSamples;
+    lastSamples = newLastSamples;
+    containers = newContainers;
+  }
+
+  /**
+   * Check if the buffer is full and should be flushed.
+   *
+   * @param budgetBytes maximum estimated size of the buffered values in bytes
+   * @param maxValues maximum number of buffered values
+   * @return true if the estimated size or the number of values has reached its limit
+   */
+  boolean isFull(long budgetBytes, int maxValues) {
+    return pendingBytes >= budgetBytes || sampleCount >= maxValues;
+  }
+
+  /**
+   * Check if the oldest buffered value has been held for the coalesce time.
+   *
+   * @param nowMillis current system time in milliseconds
+   * @param coalesceMillis coalesce time in milliseconds
+   * @return true if the buffer has values and the oldest has been held for the coalesce time
+   */
+  boolean hasExpired(long nowMillis, long coalesceMillis) {
+    return sampleCount > 0 && nowMillis - firstSampleMillis >= coalesceMillis;
+  }
+
+  /**
+   * Get the number of buffered values.
+   *
+   * @return buffered value count
+   */
+  int getSampleCount() {
+    return sampleCount;
+  }
+
+  /**
+   * Get the estimated payload size of the buffered values.
+   *
+   * @return estimated size in bytes, including one header for each container
+   */
+  long getPendingBytes() {
+    return pendingBytes;
+  }
+
+  /**
+   * Start a flush of the buffer. The returned array holds the first {@link #getSampleCount()}
+   * sample indexes grouped by container, and is valid until the next sample is added. Call {@link
+   * #clear()} once the samples have been written.
+   *
+   * @param full true if the flush is because the buffer is full, false if its values expired
+   * @return sample indexes grouped by container
+   */
+  int[] startFlush(boolean full) {
+    int position = 0;
+    for (int n = 0; n < containerCount; n++) {
+      for (int sample = firstSamples[containers[n]];
+          sample != NO_SAMPLE;
+          sample = nextSamples[sample]) {
+        flushOrder[position++] = sample;
+      }
+    }
+
+    flushCount++;
+    if (full) {
+      fullFlushCount++;
+    }
+    flushedValueCount += sampleCount;
+    flushedContainerCount += containerCount;
+    return flushOrder;
+  }
+
+  /**
+   * Get the data point of a sample.
+   *
+   * @param sample index of the sample
+   * @return the data point, or null if the sample is a numeric value
+   */
+  DataPoint getDataPoint(int sample) {
+    return sampleDataPoints[sample];
+  }
+
+  /**
+   * Get the descriptor of a sample.
+   *
+   * @param sample index of the sample
+   * @return descriptor of the sample's tag or container
+   */
+  TagDescriptor getDescriptor(int sample) {
+    return sampleDescriptors[sample];
+  }
+
+  /**
+   * Get the numeric value of a sample which has no data point.
+   *
+   * @param sample index of the sample
+   * @return the value
+   */
+  double getValue(int sample) {
+    return sampleValues[sample];
+  }
+
+  /**
+   * Get the timestamp of a sample.
+   *
+   * @param sample index of the sample
+   * @return timestamp in seconds since the epoch
+   */
+  long getEpochSeconds(int sample) {
+    return sampleEpochSeconds[sample];
+  }
+
+  /** Remove all buffered values, releasing their data points. */
+  void clear() {
+    for (int n = 0; n < containerCount; n++) {
+      firstSamples[containers[n]] = NO_SAMPLE;
+    }
+    for (int sample = 0; sample < sampleCount; sample++) {
+      sampleDataPoints[sample] = null;
+      sampleDescriptors[sample] = null;
+    }
+    sampleCount = 0;
+    containerCount = 0;
+    pendingBytes = 0;
+    firstSampleMillis = 0;
+  }
+
+  /**
+   * Get the number of flushes.
+   *
+   * @return flush count
+   */
+  long getFlushCount() {
+    return flushCount;
+  }
+
+  /**
+   * Get the number of flushes because the buffer was full. The other flushes were because the
+   * oldest value had been held for the coalesce time.
+   *
+   * @return full flush count
+   */
+  long getFullFlushCount() {
+    return fullFlushCount;
+  }
+
+  /**
+   * Get the number of values written by all flushes.
+   *
+   * @return flushed value count
+   */
+  long getFlushedValueCount() {
+    return flushedValueCount;
+  }
+
+  /**
+   * Get the number of containers written by all flushes. A container is counted once per flush,
+   * no matter how many of its values were flushed.
+   *
+   * @return flushed container count
+   */
+  long getFlushedContainerCount() {
+    return flushedContainerCount;
+  }
+}
@@ -1,46 +1,58 @@
 package com.hms.flexyosisoftconnector.payloadhandler;
 
+import com.hms.flexyosisoftconnector.configuration.OSIsoftConfig;
 import com.hms_networks.americas.sc.extensions.datapoint.DataPoint;
+import com.hms_networks.americas.sc.extensions.fileutils.FileAccessManager;
 import com.hms_networks.americas.sc.extensions.logging.Logger;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
+import java.io.File;
+import java.io.IOException;
 
 /**
  * This class constructs payloads to send to OSISoft.
  *
- * <p>The payloads will be stored as an array of strings, where each string is a complete payload.
+ * <p>The containers are divided into one {@link PayloadPartition} per poster worker, by a hash of
+ * their container ID. Each partition builds and queues its own payloads, so the values of a
+ * container are always posted by the same worker in the order they were read. The partition of a
+ * container only depends on its ID and the number of partitions, so it does not change when tags
+ * are added or removed, and the number of partitions is only changed once the payload spools are
+ * empty.
+ *
+ * <p>If {@link OSIsoftConfig#getPayloadCoalesceSeconds()} is set, the values of each partition are
+ * held in its {@link PayloadCoalescer} across polls of the historical logs, and written to the
+ * payload grouped by container when the coalescer is full or its oldest value has been held for
+ * the coalesce time.
  *
  * @author HMS Networks Inc. Solution Center
  */
 public class PayloadManager {
 
-  /** List containing completed payloads */
-  private final List payloads;
-
-  /** Maximum number of payloads */
-  static final int MAX_PAYLOADS = 8;
-
   /**
-   * When the payload queue is full, wait this long before checking if there is room for a new
-   * payload.
+   * Maximum number of payloads of all partitions. The queues are limited by {@link
+   * OSIsoftConfig#getPayloadQueueBudgetBytes()} first, this only limits many small payloads.
    */
-  static final int WAIT_FOR_PAYLOAD_SEND_MILLISECONDS = 1000;
+  static final int MAX_PAYLOADS = 64;
 
-  /** Holds the not fully constructed payload information as it gets built. */
-  OsisoftJsonPayload osisoftPayload;
+  /**
+   * Path of the file storing the number of partitions the payload spools were written with. Without
+   * this file, the payload spool is of a single partition.
+   */
+  private static final String PARTITION_COUNT_FILE_PATH = PayloadSpool.DIRECTORY + "partitions.txt";
 
-  /** Constant for status okay */
-  static final int STATUS_OKAY = 4;
+  /** Payload partitions, each posted by its own poster worker. */
+  private final PayloadPartition[] partitions;
 
-  /** Constant for status stop */
-  static final int STATUS_STOP = 5;
+  /**
+   * Number of payloads of values a coalescer holds. A flush of several payloads writes most
+   * containers to a single payload, rather than a few values of every container to each payload.
+   */
+  static final int COALESCER_PAYLOADS = 4;
 
-  /** Current payload manager status */
-  private int status = STATUS_OKAY;
+  /** Number of milliseconds per second. */
+  private static final long MILLISECONDS_PER_SECOND = 1000;
 
-  /** Index of the top of the payload queue */
-  static final int TOP_OF_QUEUE_INDEX = 0;
+  /** Time from the first value of each payload being added to the payload being completed. */
+  private final LatencyStatistics flushLatency =
+      new LatencyStatistics(LatencyStatistics.DEFAULT_SAMPLE_CAPACITY);
 
   /**
    * Constructor for the Payload Manager.
@@ -48,12 +60,151 @@ public class PayloadManager {
    * @param communicationType The communication type can be OMF or PIWebApi format.
    */
   public PayloadManager(int communicationType) {
+    this(communicationType, 1);
+  }
+
+  /**
+   * Constructor for the Payload Manager with the specified number of partitions. The payload queue
+   * budget, maximum number of payloads and payload spool size are divided between the partitions.
+   *
+   * @param communicationType The communication type can be OMF or PIWebApi format.
+   * @param partitionCount number of partitions, one for each poster worker
+   */
+  public PayloadManager(int communicationType, int partitionCount) {
+    final long spoolMaxBytes = OSIsoftConfig.getPayloadSpoolMaxBytes();
+    if (spoolMaxBytes > 0) {
+      partitionCount = getSpooledPartitionCount(partitionCount, spoolMaxBytes);
+    }
+
+    partitions = new PayloadPartition[partitionCount];
+    for (int i = 0; i < partitionCount; i++) {
+      partitions[i] =
+          new PayloadPartition(
+              i,
+              communicationType,
+              Math.max(1, MAX_PAYLOADS / partitionCount),
+              OSIsoftConfig.getPayloadQueueBudgetBytes() / partitionCount,
+              getSpoolDirectory(i),
+              spoolMaxBytes / partitionCount);
+    }
+
+    if (spoolMaxBytes > 0) {
+      try {
+        FileAccessManager.writeStringToFile(
+            PARTITION_COUNT_FILE_PATH, Integer.toString(partitionCount));
+      } catch (IOException e) {
+        Logger.LOG_SERIOUS("Unable to write the payload spool partition count.");
+        Logger.LOG_EXCEPTION(e);
+      }
+    }
+  }
+
+  /**
+   * Get the number of partitions to use with the payload spool. If the spools left by a previous
+   * run were written with a different number of partitions and still hold payloads, that number is
+   * used until they have been sent, as containers would otherwise move to other partitions and be
+   * posted out of order, and the spools of removed partitions would never be sent.
+   *
+   * @param configuredCount configured number of partitions
+   * @param spoolMaxBytes maximum size of the payload spools of all partitions in bytes
+   * @return number of partitions to use
+   */
+  private static int getSpooledPartitionCount(int configuredCount, long spoolMaxBytes) {
+    final int storedCount = readStoredPartitionCount();
+    if (storedCount == configuredCount) {
+      return configuredCount;
+    }
+
+    for (int i = 0; i < storedCount; i++) {
+      final String spoolDirectory = getSpoolDirectory(i);
+      if (new File(spoolDirectory).exists()
+          && new PayloadSpool(spoolDirectory, spoolMaxBytes / storedCount).hasRecords()) {
+        Logger.LOG_WARN(
+            "The payload spool holds payloads of "
+                + storedCount
+                + " poster workers. Using "
+                + storedCount
+                + " poster workers instead of "
+                + configuredCount
+                + " until they have been sent. The configured count is used after the next"
+                + " restart with an empty payload spool.");
+        return storedCount;
+      }
+    }
+    return configuredCount;
+  }
+
+  /**
+   * Read the number of partitions the payload spools were written with.
+   *
+   * @return stored partition count, or 1 if it was not stored or cannot be read
+   */
+  private static int readStoredPartitionCount() {
+    if (!new File(PARTITION_COUNT_FILE_PATH).exists()) {
+      return 1;
+    }
+
+    try {
+      final int count =
+          Integer.parseInt(FileAccessManager.readFileToString(PARTITION_COUNT_FILE_PATH).trim());
+      if (count >= 1 && count <= OSIsoftConfig.POSTER_WORKER_COUNT_MAX) {
+        return count;
+      }
+      Logger.LOG_WARN("Invalid payload spool partition count of " + count + ". Using 1.");
+    } catch (Exception e) {
+      Logger.LOG_WARN("Unable to read the payload spool partition count. Using 1.");
+      Logger.LOG_EXCEPTION(e);
+    }
+    return 1;
+  }
+
+  /**
+   * Get the payload spool directory of a partition. The first partition uses the spool directory
+   * of a single partition.
+   *
+   * @param index index of the partition
+   * @return spool directory, ending with a separator
+   */
+  private static String getSpoolDirectory(int index) {
+    return index == 0
+        ? PayloadSpool.DIRECTORY
+        : PayloadSpool.DIRECTORY + "partition-" + index + "/";
+  }
+
+  /**
+   * Get the number of partitions.
+   *
+   * @return partition count
+   */
+  public int getPartitionCount() {
+    return partitions.length;
+  }
+
+  /**
+   * Get a partition, holding the payloads posted by one poster worker.
+   *
+   * @param index index of the partition
+   * @return the partition
+   */
+  public PayloadPartition getPartition(int index) {
+    return partitions[index];
+  }
 
-    // The unfinished payload information is stored in this.
-    osisoftPayload = new OsisoftJsonPayload(communicationType);
+  /**
+   * Get the partition of the container a tag's values are sent in, by a hash of the container ID.
+   * The hash of a string is the same in every run of the application.
+   *
+   * @param descriptor descriptor of the tag or container
+   * @return the partition
+   */
+  private PayloadPartition getPartition(TagDescriptor descriptor) {
+    if (partitions.length == 1) {
+      return partitions[0];
+    }
 
-    // The complete payload strings are stored in this.
-    payloads = Collections.synchronizedList(new ArrayList());
+    final TagDescriptor container =
+        descriptor.getGroupContainer() != null ? descriptor.getGroupContainer() : descriptor;
+    return partitions[(container.getContainerId().hashCode() & 0x7fffffff) % partitions.length];
   }
 
   /**
@@ -63,117 +214,250 @@ public class PayloadManager {
    */
   public void appendDataPointToPayLoad(DataPoint dataPoint) {
 
-    osisoftPayload.appendDataPointToPayLoad(dataPoint);
-    checkPayloadStatus();
+    appendDataPointToPayLoad(
+        dataPoint,
+        TagDescriptorTable.getDescriptor(dataPoint),
+        Long.parseLong(dataPoint.getTimeStamp()));
   }
 
   /**
-   * Check the status of the payload at the specified index. If it is a complete payload, add it to
-   * the list of start new payload.
+   * Append a new datapoint to a payload, with its tag descriptor and timestamp already resolved.
+   *
+   * @param dataPoint holds all the information for a new datapoint.
+   * @param descriptor descriptor of the data point's tag
+   * @param epochSeconds timestamp of the data point in seconds since the epoch
    */
-  private void checkPayloadStatus() {
-    if (osisoftPayload.statusIsComplete()) {
-      addToQueue(osisoftPayload.getPayload());
-      osisoftPayload.startPayload();
+  public void appendDataPointToPayLoad(
+      DataPoint dataPoint, TagDescriptor descriptor, long epochSeconds) {
+
+    if (ContainerQuarantine.isQuarantined(descriptor)) {
+      DeadLetterFile.writeDataPoint(descriptor.getContainerId(), dataPoint, epochSeconds);
+      return;
     }
+
+    final PayloadPartition partition = getPartition(descriptor);
+    if (OSIsoftConfig.getPayloadCoalesceSeconds() > 0) {
+      partition.coalescer.addDataPoint(
+          dataPoint, descriptor, epochSeconds, System.currentTimeMillis());
+      flushCoalescerIfFull(partition);
+      return;
+    }
+    partition.osisoftPayload.appendDataPointToPayLoad(dataPoint, descriptor, epochSeconds);
+    checkPayloadStatus(partition);
   }
 
   /**
-   * Add the specified payload string to the payload queue list.
+   * Append a numeric value which is not read from a data point, such as an aggregate, to a payload.
+   * Values are only supported by OMF payloads.
    *
-   * @param payload payload to add to queue
+   * @param descriptor descriptor of the value's container
+   * @param value the value
+   * @param epochSeconds timestamp of the value in seconds since the epoch
    */
-  private void addToQueue(String payload) {
-    waitForPayloadSend();
+  public void appendValueToPayload(TagDescriptor descriptor, double value, long epochSeconds) {
 
-    synchronized (payloads) {
-      payloads.add(payload);
+    if (ContainerQuarantine.isQuarantined(descriptor)) {
+      DeadLetterFile.writeNumber(descriptor.getContainerId(), value, epochSeconds);
+      return;
     }
 
-    Logger.LOG_DEBUG("Payload completed count is: " + payloads.size());
-    if (payloads.size() >= MAX_PAYLOADS) {
-      status = STATUS_STOP;
+    final PayloadPartition partition = getPartition(descriptor);
+    if (OSIsoftConfig.getPayloadCoalesceSeconds() > 0) {
+      partition.coalescer.addValue(descriptor, value, epochSeconds, System.currentTimeMillis());
+      flushCoalescerIfFull(partition);
+      return;
     }
+    partition.osisoftPayload.appendValueToPayload(descriptor, value, epochSeconds);
+    checkPayloadStatus(partition);
   }
 
   /**
-   * Gets the next payload from the top of the payload queue without removing.
+   * Flush the coalesced values of a partition if they have reached the target size or the maximum
+   * number of data points of {@link #COALESCER_PAYLOADS} payloads.
    *
-   * @return next payload
+   * @param partition partition of the coalescer
    */
-  public String getNextPayload() {
-    String payload = "";
+  private void flushCoalescerIfFull(PayloadPartition partition) {
+    if (partition.coalescer.isFull(
+        (long) PayloadSizeController.getTargetSizeBytes() * COALESCER_PAYLOADS,
+        OSIsoftConfig.getPayloadMaxDataPoints() * COALESCER_PAYLOADS)) {
+      flushCoalescer(partition, true);
+    }
+  }
 
-    synchronized (payloads) {
-      if (!payloads.isEmpty()) {
-        payload = (String) payloads.get(TOP_OF_QUEUE_INDEX);
-        if (status == STATUS_STOP) {
-          status = STATUS_OKAY;
-        }
+  /**
+   * Write the coalesced values of a partition to its payload grouped by container, queueing each
+   * payload completed on the way, then complete the payload.
+   *
+   * @param partition partition of the coalescer
+   * @param full true if the coalescer is full, false if its oldest value has expired
+   */
+  private void flushCoalescer(PayloadPartition partition, boolean full) {
+    final PayloadCoalescer coalescer = partition.coalescer;
+    final OsisoftJsonPayload osisoftPayload = partition.osisoftPayload;
+    final int sampleCount = coalescer.getSampleCount();
+    final int[] samples = coalescer.startFlush(full);
+    for (int n = 0; n < sampleCount; n++) {
+      final int sample = samples[n];
+      final DataPoint dataPoint = coalescer.getDataPoint(sample);
+      if (dataPoint != null) {
+        osisoftPayload.appendDataPointToPayLoad(
+            dataPoint, coalescer.getDescriptor(sample), coalescer.getEpochSeconds(sample));
+      } else {
+        osisoftPayload.appendValueToPayload(
+            coalescer.getDescriptor(sample),
+            coalescer.getValue(sample),
+            coalescer.getEpochSeconds(sample));
       }
+      checkPayloadStatus(partition);
     }
+    coalescer.clear();
 
-    return payload;
+    osisoftPayload.completeIfHasValues();
+    checkPayloadStatus(partition);
   }
 
   /**
-   * Remove payload from the top of the payload queue.
-   *
-   * @return next payload or empty string for an empty queue
+   * Flush the coalesced values which have been held for the coalesce time, and complete the payload
+   * being built if it has waited longer than the payload linger time for more data points. This
+   * should be called periodically, including when no data points were read.
    */
-  public String popNextPayload() {
-    String payload = "";
-
-    synchronized (payloads) {
-      if (!payloads.isEmpty()) {
-        payload = (String) payloads.remove(TOP_OF_QUEUE_INDEX);
-        if (status == STATUS_STOP) {
-          status = STATUS_OKAY;
-        }
+  public void flushLingeringPayload() {
+    final long nowMillis = System.currentTimeMillis();
+    final long coalesceMillis = OSIsoftConfig.getPayloadCoalesceSeconds() * MILLISECONDS_PER_SECOND;
+    for (int i = 0; i < partitions.length; i++) {
+      if (partitions[i].coalescer.hasExpired(nowMillis, coalesceMillis)) {
+        flushCoalescer(partitions[i], false);
       }
+      partitions[i].osisoftPayload.completeIfLingerExpired(nowMillis);
+      checkPayloadStatus(partitions[i]);
     }
+  }
 
-    return payload;
+  /**
+   * Get the statistics of the time from the first value of each payload being added to the payload
+   * being completed.
+   *
+   * @return payload flush latency statistics
+   */
+  public LatencyStatistics getFlushLatency() {
+    return flushLatency;
   }
 
-  /** Clear the contents of the payload queue. */
-  public void clearQueue() {
-    synchronized (payloads) {
-      payloads.clear();
+  /**
+   * Log the payload flush latency percentiles, the values per container ratio and the coalescer
+   * statistics.
+   */
+  public void logStatistics() {
+    if (flushLatency.getSampleCount() > 0) {
+      Logger.LOG_DEBUG(
+          "Payload flush latency "
+              + flushLatency.getSummary()
+              + ". Average of "
+              + getValuesPerContainer()
+              + " values per container.");
+    }
+    logCoalescerStatistics();
+    if (DeadLetterFile.getValueCount() > 0) {
+      Logger.LOG_DEBUG(
+          DeadLetterFile.getValueCount()
+              + " values of rejected containers have been written to "
+              + DeadLetterFile.FILE_PATH
+              + ". "
+              + ContainerQuarantine.getQuarantinedCount()
+              + " containers are quarantined.");
+    }
+    long spoolBytes = 0;
+    for (int i = 0; i < partitions.length; i++) {
+      spoolBytes += partitions[i].getSpoolBytes();
+    }
+    if (spoolBytes > 0) {
+      Logger.LOG_DEBUG("Payload spool holds " + spoolBytes + " bytes.");
     }
   }
 
+  /** Log the flushes of the coalescers of all partitions and their values per container ratio. */
+  private void logCoalescerStatistics() {
+    long flushCount = 0;
+    long fullFlushCount = 0;
+    long valueCount = 0;
+    long containerCount = 0;
+    long pendingCount = 0;
+    for (int i = 0; i < partitions.length; i++) {
+      final PayloadCoalescer coalescer = partitions[i].coalescer;
+      flushCount += coalescer.getFlushCount();
+      fullFlushCount += coalescer.getFullFlushCount();
+      valueCount += coalescer.getFlushedValueCount();
+      containerCount += coalescer.getFlushedContainerCount();
+      pendingCount += coalescer.getSampleCount();
+    }
+    if (flushCount == 0 && pendingCount == 0) {
+      return;
+    }
+
+    Logger.LOG_DEBUG(
+        "Payload coalescer flushed "
+            + valueCount
+            + " values of "
+            + containerCount
+            + " containers in "
+            + flushCount
+            + " flushes, "
+            + fullFlushCount
+            + " of them full. Average of "
+            + (containerCount > 0 ? (double) valueCount / containerCount : 0)
+            + " values per container. "
+            + pendingCount
+            + " values are waiting.");
+  }
+
   /**
-   * Only store up to {@link #MAX_PAYLOADS} payloads for OSIsoft to send out. If there is a full
-   * queue, wait for payloads to be sent out before adding more.
+   * Get the average number of values per container of all payloads completed so far.
+   *
+   * @return values per container, or 0 if no payload has been completed
    */
-  private void waitForPayloadSend() {
+  public double getValuesPerContainer() {
+    long valueCount = 0;
+    long containerCount = 0;
+    for (int i = 0; i < partitions.length; i++) {
+      valueCount += partitions[i].osisoftPayload.getCompletedValueCount();
+      containerCount += partitions[i].osisoftPayload.getCompletedContainerCount();
+    }
+    if (containerCount == 0) {
+      return 0;
+    }
+    return (double) valueCount / containerCount;
+  }
 
-    // Wait until status is not STOP
-    while (status == STATUS_STOP) {
-      if (payloads.size() != MAX_PAYLOADS) {
-        status = STATUS_OKAY;
-      }
-      try {
-        Thread.sleep(WAIT_FOR_PAYLOAD_SEND_MILLISECONDS);
-      } catch (InterruptedException e) {
-        Logger.LOG_EXCEPTION(e);
-        Logger.LOG_SERIOUS("Payload Manager was unable to thread sleep.");
-      }
+  /**
+   * Check the status of the payload being built by the specified partition. If it is a complete
+   * payload, add it to the partition's queue and start a new payload.
+   *
+   * @param partition partition of the payload
+   */
+  private void checkPayloadStatus(PayloadPartition partition) {
+    final OsisoftJsonPayload osisoftPayload = partition.osisoftPayload;
+    if (osisoftPayload.statusIsComplete()) {
+      flushLatency.record(System.currentTimeMillis() - osisoftPayload.getFirstValueMillis());
+      partition.addToQueue(osisoftPayload.getBatch());
+      osisoftPayload.startPayload();
     }
   }
 
   /**
-   * Check if the payload queue is full.
+   * Check if the payload queue of any partition is full. A queue is full if a payload of the
+   * current target size would not fit in its share of the payload queue byte budget, or it holds
+   * its share of {@link #MAX_PAYLOADS} payloads. The queues are never full while the payload spool
+   * is enabled.
    *
    * @return true/false queue is full
    */
   public boolean isQueueFull() {
-    boolean isFull = false;
-
-    synchronized (payloads) {
-      isFull = payloads.size() >= MAX_PAYLOADS;
+    for (int i = 0; i < partitions.length; i++) {
+      if (partitions[i].isQueueFull()) {
+        return true;
+      }
     }
-    return isFull;
+    return false;
   }
 }
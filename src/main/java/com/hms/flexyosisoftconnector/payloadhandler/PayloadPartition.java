@@ -0,0 +1,297 @@
+package com.hms.flexyosisoftconnector.payloadhandler;
+
+import com.hms_networks.americas.sc.extensions.logging.Logger;
+
+/**
+ * Payloads of a share of the containers, built and queued separately from the payloads of the
+ * other containers, and posted by a single poster worker.
+ *
+ * <p>Each container is always added to the same partition, so the values of a container are posted
+ * in the order they were read, while the partitions are posted at the same time.
+ *
+ * <p>The payloads will be stored in a bounded queue of payload batches, where each batch is a
+ * complete payload. If the payload spool is enabled, payloads are written to the spool instead
+ * while the queue is full or the server cannot be reached, and read back once the queue is empty.
+ *
+ * @author HMS Networks, MU Americas Solution Center
+ */
+public class PayloadPartition {
+
+  /** Index of the partition. */
+  private final int index;
+
+  /** Holds the not fully constructed payload information as it gets built. */
+  final OsisoftJsonPayload osisoftPayload;
+
+  /** Holds values across polls until they are written to the payload, if coalescing is enabled. */
+  final PayloadCoalescer coalescer;
+
+  /** Queue containing completed payload batches */
+  private final PayloadQueue payloads;
+
+  /** Spool holding payloads on the file system, or null if the payload spool is disabled. */
+  private final PayloadSpool spool;
+
+  /**
+   * Lock ordering the payloads written to and read from the spool with the payloads added to the
+   * queue.
+   */
+  private final Object spoolLock = new Object();
+
+  /**
+   * Number of batches at the top of the queue read from the spool. The spool cursor is committed
+   * once they have all been removed.
+   */
+  private int spooledBatchesInQueue = 0;
+
+  /** Flag indicating that the last payload post reached the server. */
+  private volatile boolean serverReachable = true;
+
+  /**
+   * Constructor for a payload partition.
+   *
+   * @param index index of the partition
+   * @param communicationType The communication type can be OMF or PIWebApi format.
+   * @param maxPayloads maximum number of payloads in the queue
+   * @param budgetBytes maximum number of estimated heap bytes of the payloads in the queue
+   * @param spoolDirectory directory of the payload spool
+   * @param spoolMaxBytes maximum size of the payload spool in bytes, or 0 to disable the spool
+   */
+  PayloadPartition(
+      int index,
+      int communicationType,
+      int maxPayloads,
+      long budgetBytes,
+      String spoolDirectory,
+      long spoolMaxBytes) {
+    this.index = index;
+
+    // The unfinished payload information is stored in this.
+    osisoftPayload = new OsisoftJsonPayload(communicationType);
+
+    // Values waiting to be written to the payload grouped by container are stored in this.
+    coalescer = new PayloadCoalescer();
+
+    // The complete payload batches are stored in this.
+    payloads = new PayloadQueue(maxPayloads, budgetBytes);
+
+    // Payloads which do not fit in the queue are stored in this, if it is enabled.
+    spool = spoolMaxBytes > 0 ? new PayloadSpool(spoolDirectory, spoolMaxBytes) : null;
+  }
+
+  /**
+   * Get the index of the partition.
+   *
+   * @return partition index
+   */
+  public int getIndex() {
+    return index;
+  }
+
+  /**
+   * Add the specified payload batch to the payload queue. If the queue is full, this waits until
+   * a payload has been sent. If the payload spool is enabled, the payload is written to the spool
+   * instead while the queue is full, the server cannot be reached or the spool holds older
+   * payloads.
+   *
+   * <p>While the spool holds older payloads, a payload is never added to the queue, as it would be
+   * sent before them. If it cannot be written to the spool, it is moved to the {@link
+   * DeadLetterFile} instead.
+   *
+   * @param payload payload to add to queue
+   */
+  void addToQueue(PayloadBatch payload) {
+    if (spool != null) {
+      synchronized (spoolLock) {
+        if (spool.hasRecords()
+            || !serverReachable
+            || !payloads.hasRoomFor(payload.getHeapBytes())) {
+          if (spool.append(payload.getPayload())) {
+            Logger.LOG_DEBUG(
+                "Payload completed and written to the payload spool, holding "
+                    + spool.getTotalBytes()
+                    + " bytes.");
+            return;
+          } else if (spool.hasRecords()) {
+            Logger.LOG_SERIOUS(
+                "Unable to write a payload to the payload spool, which holds older payloads."
+                    + " The payload was moved to the dead letter file.");
+            DeadLetterFile.writePayload(payload.getPayload());
+            return;
+          }
+        }
+      }
+    }
+
+    try {
+      payloads.put(payload);
+    } catch (InterruptedException e) {
+      Logger.LOG_EXCEPTION(e);
+      Logger.LOG_SERIOUS("Payload Manager was interrupted while waiting for a payload to be sent.");
+      return;
+    }
+
+    Logger.LOG_DEBUG(
+        "Payload completed count is: "
+            + payloads.size()
+            + ", holding an estimated "
+            + payloads.getHeldBytes()
+            + " bytes.");
+  }
+
+  /**
+   * Gets the next payload from the top of the payload queue without removing.
+   *
+   * @return next payload
+   */
+  public String getNextPayload() {
+    PayloadBatch batch = getNextBatch();
+    return batch != null ? batch.getPayload() : "";
+  }
+
+  /**
+   * Gets the next payload batch from the top of the payload queue without removing.
+   *
+   * @return next payload batch or null for an empty queue
+   */
+  public PayloadBatch getNextBatch() {
+    return payloads.peek();
+  }
+
+  /**
+   * Gets the next payload batch from the top of the payload queue without removing, waiting until
+   * a payload is completed if the queue is empty.
+   *
+   * @return next payload batch or null if the thread was interrupted while waiting
+   */
+  public PayloadBatch waitForNextBatch() {
+    loadSpooledPayload();
+    try {
+      return payloads.waitForHead();
+    } catch (InterruptedException e) {
+      Logger.LOG_EXCEPTION(e);
+      Logger.LOG_SERIOUS("Payload Manager was interrupted while waiting for a payload.");
+      return null;
+    }
+  }
+
+  /**
+   * Remove payload from the top of the payload queue.
+   *
+   * @return next payload or empty string for an empty queue
+   */
+  public String popNextPayload() {
+    PayloadBatch batch = payloads.poll();
+    if (batch != null) {
+      spooledBatchRemoved(0);
+    }
+    return batch != null ? batch.getPayload() : "";
+  }
+
+  /**
+   * Replace the payload at the top of the payload queue, such as by the halves it was split into or
+   * by the part of it which must be sent again. The replacements are sent in order before the rest
+   * of the queue. The payload is removed if there are no replacements.
+   *
+   * @param replacements payload batches replacing the payload
+   */
+  public void replaceNextBatch(PayloadBatch[] replacements) {
+    if (payloads.peek() != null) {
+      payloads.replaceHead(replacements);
+      spooledBatchRemoved(replacements.length);
+    }
+  }
+
+  /**
+   * Clear the contents of the payload queue. Payloads read from the payload spool which had not
+   * been sent are kept in the spool and read again.
+   */
+  public void clearQueue() {
+    synchronized (spoolLock) {
+      payloads.clear();
+      if (spooledBatchesInQueue > 0) {
+        spool.rewindRead();
+        spooledBatchesInQueue = 0;
+      }
+    }
+  }
+
+  /**
+   * Set whether the last payload post reached the server. While it did not, completed payloads
+   * are written to the payload spool if it is enabled.
+   *
+   * @param reachable true if the server was reached
+   */
+  public void setServerReachable(boolean reachable) {
+    serverReachable = reachable;
+  }
+
+  /**
+   * Move the oldest payload of the spool to the queue if the queue is empty. Only one spooled
+   * payload is in the queue at a time, so the spool cursor can be committed once it is sent. The
+   * payload is added without waiting, as the spool lock is held, and read again later if the queue
+   * has no room for it.
+   */
+  private void loadSpooledPayload() {
+    if (spool == null) {
+      return;
+    }
+
+    synchronized (spoolLock) {
+      if (payloads.peek() != null) {
+        return;
+      }
+
+      String payload = spool.readNext();
+      if (payload != null) {
+        if (payloads.offer(new PayloadBatch(payload))) {
+          spooledBatchesInQueue = 1;
+        } else {
+          spool.rewindRead();
+        }
+      }
+    }
+  }
+
+  /**
+   * Update the number of spooled batches at the top of the queue after the top of the queue was
+   * removed or replaced, and commit the spool cursor once all of them have been removed.
+   *
+   * @param replacementCount number of batches which replaced the top of the queue
+   */
+  private void spooledBatchRemoved(int replacementCount) {
+    synchronized (spoolLock) {
+      if (spooledBatchesInQueue > 0) {
+        spooledBatchesInQueue += replacementCount - 1;
+        if (spooledBatchesInQueue == 0) {
+          spool.commitRead();
+        }
+      }
+    }
+  }
+
+  /**
+   * Check if the payload queue is full. The queue is full if a payload of the current target size
+   * would not fit in the payload queue byte budget, or the queue holds its maximum number of
+   * payloads. The queue is never full while the payload spool is enabled.
+   *
+   * @return true/false queue is full
+   */
+  boolean isQueueFull() {
+    // the spool takes payloads which do not fit in the queue, deleting the oldest when it is full
+    if (spool != null) {
+      return false;
+    }
+    return !payloads.hasRoomFor(
+        PayloadBatch.estimateHeapBytes(PayloadSizeController.getTargetSizeBytes()));
+  }
+
+  /**
+   * Get the number of bytes of the payload spool.
+   *
+   * @return spool size in bytes, or 0 if the payload spool is disabled
+   */
+  long getSpoolBytes() {
+    return spool != null ? spool.getTotalBytes() : 0;
+  }
+}
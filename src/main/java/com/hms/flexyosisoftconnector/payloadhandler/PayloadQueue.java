@@ -0,0 +1,217 @@
+package com.hms.flexyosisoftconnector.payloadhandler;
+
+/**
+ * Bounded queue of completed payload batches, handed off from the thread building payloads to the
+ * thread posting them.
+ *
+ * <p>The queue is bounded by the estimated heap bytes of its batches, see {@link
+ * PayloadBatch#getHeapBytes()}, so many small payloads can be queued while a few large payloads do
+ * not use up the heap. The number of batches is limited as well.
+ *
+ * <p>The batches are stored in a ring, so removing the top of the queue does not shift the other
+ * batches. Both threads block on the queue monitor and are woken as soon as the other thread
+ * changes the queue: the building thread while the queue is full, and the posting thread while it
+ * is empty.
+ *
+ * <p>The top of the queue may be replaced by more batches than it held, such as when a rejected
+ * payload is split in two halves. The ring grows if needed, so a replacement never blocks. Adding
+ * to the end of the queue blocks until the batch fits in the byte budget and the queue holds fewer
+ * batches than its capacity. A batch larger than the byte budget is only added to an empty queue.
+ *
+ * @author HMS Networks, MU Americas Solution Center
+ */
+public class PayloadQueue {
+
+  /** Maximum number of batches before adding to the end of the queue blocks. */
+  private final int capacity;
+
+  /** Maximum number of estimated heap bytes of the batches before adding blocks. */
+  private final long budgetBytes;
+
+  /** Estimated heap bytes of the batches in the queue. */
+  private long heldBytes = 0;
+
+  /** Ring holding the batches, starting at {@link #head}. */
+  private PayloadBatch[] ring;
+
+  /** Index in {@link #ring} of the top of the queue. */
+  private int head = 0;
+
+  /** Number of batches in the queue. */
+  private int count = 0;
+
+  /**
+   * Constructor for a payload queue.
+   *
+   * @param capacity maximum number of batches before adding to the end of the queue blocks
+   * @param budgetBytes maximum number of estimated heap bytes of the batches
+   */
+  public PayloadQueue(int capacity, long budgetBytes) {
+    this.capacity = capacity;
+    this.budgetBytes = budgetBytes;
+    ring = new PayloadBatch[capacity];
+  }
+
+  /**
+   * Add a batch to the end of the queue, waiting until the queue has room for it.
+   *
+   * @param batch batch to add
+   * @throws InterruptedException if the thread is interrupted while waiting
+   */
+  public synchronized void put(PayloadBatch batch) throws InterruptedException {
+    while (!hasRoomFor(batch.getHeapBytes())) {
+      wait();
+    }
+
+    ensureRingCapacity(count + 1);
+    ring[(head + count) % ring.length] = batch;
+    count++;
+    heldBytes += batch.getHeapBytes();
+    notifyAll();
+  }
+
+  /**
+   * Add a batch to the end of the queue if the queue has room for it, without waiting.
+   *
+   * @param batch batch to add
+   * @return true if the batch was added, false if the queue has no room for it
+   */
+  public synchronized boolean offer(PayloadBatch batch) {
+    if (!hasRoomFor(batch.getHeapBytes())) {
+      return false;
+    }
+
+    ensureRingCapacity(count + 1);
+    ring[(head + count) % ring.length] = batch;
+    count++;
+    heldBytes += batch.getHeapBytes();
+    notifyAll();
+    return true;
+  }
+
+  /**
+   * Get the batch at the top of the queue without removing it.
+   *
+   * @return batch at the top of the queue, or null if the queue is empty
+   */
+  public synchronized PayloadBatch peek() {
+    return count > 0 ? ring[head] : null;
+  }
+
+  /**
+   * Get the batch at the top of the queue without removing it, waiting while the queue is empty.
+   *
+   * @return batch at the top of the queue
+   * @throws InterruptedException if the thread is interrupted while waiting
+   */
+  public synchronized PayloadBatch waitForHead() throws InterruptedException {
+    while (count == 0) {
+      wait();
+    }
+    return ring[head];
+  }
+
+  /**
+   * Remove the batch at the top of the queue.
+   *
+   * @return removed batch, or null if the queue is empty
+   */
+  public synchronized PayloadBatch poll() {
+    if (count == 0) {
+      return null;
+    }
+
+    PayloadBatch batch = ring[head];
+    removeHead();
+    notifyAll();
+    return batch;
+  }
+
+  /**
+   * Replace the batch at the top of the queue by other batches, which are placed at the top of the
+   * queue in order. The batch is removed if there are no replacements.
+   *
+   * @param replacements batches replacing the top of the queue
+   */
+  public synchronized void replaceHead(PayloadBatch[] replacements) {
+    if (count == 0) {
+      return;
+    }
+
+    removeHead();
+    ensureRingCapacity(count + replacements.length);
+    for (int i = replacements.length - 1; i >= 0; i--) {
+      head = (head + ring.length - 1) % ring.length;
+      ring[head] = replacements[i];
+      count++;
+      heldBytes += replacements[i].getHeapBytes();
+    }
+    notifyAll();
+  }
+
+  /** Remove all batches from the queue. */
+  public synchronized void clear() {
+    for (int i = 0; i < count; i++) {
+      ring[(head + i) % ring.length] = null;
+    }
+    head = 0;
+    count = 0;
+    heldBytes = 0;
+    notifyAll();
+  }
+
+  /**
+   * Get the number of batches in the queue.
+   *
+   * @return number of batches
+   */
+  public synchronized int size() {
+    return count;
+  }
+
+  /**
+   * Get the estimated heap bytes of the batches in the queue.
+   *
+   * @return estimated heap bytes
+   */
+  public synchronized long getHeldBytes() {
+    return heldBytes;
+  }
+
+  /**
+   * Check if a batch of the specified size can be added to the end of the queue without blocking.
+   *
+   * @param batchHeapBytes estimated heap bytes of the batch
+   * @return true if the batch fits in the byte budget and the number of batches is below capacity
+   */
+  public synchronized boolean hasRoomFor(long batchHeapBytes) {
+    return count < capacity && (count == 0 || heldBytes + batchHeapBytes <= budgetBytes);
+  }
+
+  /** Remove the batch at the top of the queue, which must not be empty. */
+  private void removeHead() {
+    heldBytes -= ring[head].getHeapBytes();
+    ring[head] = null;
+    head = (head + 1) % ring.length;
+    count--;
+  }
+
+  /**
+   * Grow the ring if it cannot hold the specified number of batches. The batches are moved to the
+   * start of the new ring.
+   *
+   * @param minCapacity number of batches the ring must hold
+   */
+  private void ensureRingCapacity(int minCapacity) {
+    if (minCapacity <= ring.length) {
+      return;
+    }
+
+    PayloadBatch[] newRing = new PayloadBatch[Math.max(minCapacity, ring.length * 2)];
+    for (int i = 0; i < count; i++) {
+      newRing[i] = ring[(head + i) % ring.length];
+    }
+    ring = newRing;
+    head = 0;
+  }
+}
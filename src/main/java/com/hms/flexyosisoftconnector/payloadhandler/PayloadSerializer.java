@@ -0,0 +1,653 @@
+package com.hms.flexyosisoftconnector.payloadhandler;
+
+import com.hms.flexyosisoftconnector.configuration.OSIsoftConfig;
+import com.hms_networks.americas.sc.extensions.datapoint.DataPoint;
+import com.hms_networks.americas.sc.extensions.datapoint.DataPointFloat;
+import com.hms_networks.americas.sc.extensions.datapoint.DataType;
+import java.util.Arrays;
+
+/**
+ * Serializes data points for OMF and legacy PI Web API batch payloads directly into reusable byte
+ * buffers.
+ *
+ * <p>Each data point is written once into a shared value region and recorded as a segment of the
+ * region. Segments are chained per tag, so when the payload is completed the values of every tag
+ * (container) are copied together into the output buffer. The output is identical to the JSON
+ * produced by {@link PayloadBuilder}, but no intermediate strings are built per data point.
+ *
+ * @author HMS Networks, MU Americas Solution Center
+ */
+public class PayloadSerializer {
+
+  /** Initial capacity (in bytes) of the value region and output buffers. */
+  public static final int INITIAL_BUFFER_CAPACITY_BYTES = 16384;
+
+  /** Initial capacity of the value segment tables. */
+  static final int INITIAL_SEGMENT_CAPACITY = 256;
+
+  /**
+   * Number of significant digits of numbers written without a precision setting. Every decimal
+   * number with this many digits survives conversion to a double and back.
+   */
+  private static final int NUMBER_SIGNIFICANT_DIGITS = 15;
+
+  /** Marker for a tag or segment without a successor. */
+  private static final int NO_SEGMENT = -1;
+
+  /** OMF value fragment written before the timestamp. */
+  private static final byte[] OMF_VALUE_START = PayloadByteBuffer.bytesOf("{ \"timestamp\": \"");
+
+  /** OMF value fragment written between the timestamp and the value. */
+  private static final byte[] OMF_VALUE_MIDDLE = PayloadByteBuffer.bytesOf("\", \"tagValue\": ");
+
+  /** OMF value fragment written after the value. */
+  private static final byte[] OMF_VALUE_END = PayloadByteBuffer.bytesOf("}");
+
+  /** OMF container fragment written after the values of a container. */
+  private static final byte[] OMF_CONTAINER_END =
+      PayloadByteBuffer.bytesOf(PayloadBuilder.addContainerEndToOMFDataMessage());
+
+  /** OMF fragment closing a value of a group container. */
+  private static final byte OMF_ROW_END = (byte) '}';
+
+  /** OMF fragment closing a value of a group container which is followed by another value. */
+  private static final byte[] OMF_ROW_SEPARATOR = PayloadByteBuffer.bytesOf("},");
+
+  /** OMF boolean value for a false data point. */
+  private static final byte[] OMF_FALSE = PayloadByteBuffer.bytesOf("false");
+
+  /** OMF boolean value for a true data point. */
+  private static final byte[] OMF_TRUE = PayloadByteBuffer.bytesOf("true");
+
+  /** Legacy fragment written before the batch index of a sub-request. */
+  private static final byte[] LEGACY_REQUEST_START = PayloadByteBuffer.bytesOf("  \"");
+
+  /** Legacy fragment written between the batch index and the recorded values resource. */
+  private static final byte[] LEGACY_REQUEST_RESOURCE =
+      PayloadByteBuffer.bytesOf("\": {\n    \"Method\": \"POST\",\n    \"Resource\": \"");
+
+  /** Legacy fragment written between the resource and the values of a sub-request. */
+  private static final byte[] LEGACY_REQUEST_CONTENT =
+      PayloadByteBuffer.bytesOf("\",\n    \"Content\": \"[");
+
+  /** Legacy fragment written after the values of a sub-request. */
+  private static final byte[] LEGACY_REQUEST_END = PayloadByteBuffer.bytesOf("]\"\n  }");
+
+  /** Separator between legacy sub-requests. */
+  private static final byte[] LEGACY_REQUEST_SEPARATOR = PayloadByteBuffer.bytesOf(",\n");
+
+  /** Legacy value fragment written before the timestamp. */
+  private static final byte[] LEGACY_VALUE_START =
+      PayloadByteBuffer.bytesOf("{\\\"Timestamp\\\": \\\"");
+
+  /** Legacy value fragment written between the timestamp and the value. */
+  private static final byte[] LEGACY_VALUE_MIDDLE =
+      PayloadByteBuffer.bytesOf("\\\",\\\"Value\\\": ");
+
+  /** Legacy value fragment written after the value. */
+  private static final byte[] LEGACY_VALUE_END =
+      PayloadByteBuffer.bytesOf(
+          ",\\\"UnitsAbbreviation\\\": \\\"\\\",\\\"Good\\\": true,"
+              + "\\\"Questionable\\\": false}");
+
+  /** Separator between values and containers. */
+  private static final byte COMMA = (byte) ',';
+
+  /** Quote used around string values. */
+  private static final byte QUOTE = (byte) '"';
+
+  /** Communication type the payload is serialized for. */
+  private final int communicationType;
+
+  /** Region holding the serialized values of all data points in the payload. */
+  private final PayloadByteBuffer valueRegion;
+
+  /** Buffer holding the assembled payload. */
+  private final PayloadByteBuffer output;
+
+  /** Start index in {@link #valueRegion} of each value segment. */
+  private int[] segmentStart;
+
+  /** End index in {@link #valueRegion} of each value segment. */
+  private int[] segmentEnd;
+
+  /** Index of the next segment for the same tag, or {@link #NO_SEGMENT}. */
+  private int[] segmentNext;
+
+  /** Number of segments written to the payload. */
+  private int segmentCount;
+
+  /** First segment of each tag index, or {@link #NO_SEGMENT}. */
+  private int[] tagFirstSegment;
+
+  /** Last segment of each tag index, or {@link #NO_SEGMENT}. */
+  private int[] tagLastSegment;
+
+  /** Timestamp of the last value of each group container index in seconds since the epoch. */
+  private long[] rowEpochSeconds;
+
+  /**
+   * Serial number of the last value of each group container index, and of the group container
+   * value each grouped tag index was last written to.
+   */
+  private int[] rowSerials;
+
+  /** Number of group container values written, used to assign value serial numbers. */
+  private int rowCount;
+
+  /** Encoder which writes the data point timestamps. */
+  private final TimestampEncoder timestampEncoder = new TimestampEncoder();
+
+  /**
+   * Size in bytes the payload will have once it is completed, based on the values written so far.
+   */
+  private int projectedLength;
+
+  /**
+   * Indexes of the tags with values in the payload. Each index is appended when the first value of
+   * its tag is written, and the indexes are sorted in ascending order by {@link
+   * #getTagsWithValues()}, so containers are written in tag order. Only these slots of {@link
+   * #tagFirstSegment} need to be cleared when the payload is reset.
+   */
+  private int[] tagsWithValues;
+
+  /** Number of tags with values in the payload. */
+  private int tagsWithValuesCount;
+
+  /** Number of legacy sub-requests written to the output. */
+  private int requestCount;
+
+  /** Flag indicating that a container has been written to the output. */
+  private boolean containerWritten;
+
+  /** Offset in the output of the first byte of the last container written. */
+  private int lastContainerStart;
+
+  /**
+   * Constructor for the payload serializer.
+   *
+   * @param comType communication type to serialize payloads for
+   * @param tagIndexCount number of tag indexes expected, the tag tables grow if a larger index is
+   *     written
+   */
+  public PayloadSerializer(int comType, int tagIndexCount) {
+    communicationType = comType;
+    valueRegion = new PayloadByteBuffer(INITIAL_BUFFER_CAPACITY_BYTES);
+    output = new PayloadByteBuffer(INITIAL_BUFFER_CAPACITY_BYTES);
+    segmentStart = new int[INITIAL_SEGMENT_CAPACITY];
+    segmentEnd = new int[INITIAL_SEGMENT_CAPACITY];
+    segmentNext = new int[INITIAL_SEGMENT_CAPACITY];
+    tagFirstSegment = new int[tagIndexCount];
+    tagLastSegment = new int[tagIndexCount];
+    rowEpochSeconds = new long[tagIndexCount];
+    rowSerials = new int[tagIndexCount];
+    tagsWithValues = new int[Math.min(tagIndexCount, INITIAL_SEGMENT_CAPACITY)];
+    tagsWithValuesCount = 0;
+    Arrays.fill(tagFirstSegment, NO_SEGMENT);
+    reset();
+  }
+
+  /**
+   * Clears all values and starts a new payload in the output buffer. Only the tags which had values
+   * are cleared, so the cost does not depend on the range of tag indexes.
+   */
+  public void reset() {
+    valueRegion.setLength(0);
+    output.setLength(0);
+    segmentCount = 0;
+    for (int i = 0; i < tagsWithValuesCount; i++) {
+      tagFirstSegment[tagsWithValues[i]] = NO_SEGMENT;
+    }
+    tagsWithValuesCount = 0;
+    requestCount = 0;
+    containerWritten = false;
+
+    if (communicationType == OSIsoftConfig.PI_WEB_API) {
+      output.append(PayloadBuilder.startBatchOldFormat());
+      projectedLength = output.length() + PayloadBuilder.endBatchOldFormat().length();
+    } else {
+      output.append(PayloadBuilder.startOMFDataMessage());
+      projectedLength = output.length() + PayloadBuilder.endOMFDataMessage().length();
+    }
+  }
+
+  /**
+   * Get the size in bytes the payload will have once it is completed with the values written so
+   * far.
+   *
+   * @return projected payload size in bytes
+   */
+  public int getProjectedLength() {
+    return projectedLength;
+  }
+
+  /**
+   * Get the number of tags with values in the payload.
+   *
+   * @return number of tags with values
+   */
+  public int getTagsWithValuesCount() {
+    return tagsWithValuesCount;
+  }
+
+  /**
+   * Get the indexes of the tags with values in the payload, sorted in ascending order. Only the
+   * first {@link #getTagsWithValuesCount()} entries of the returned array are valid.
+   *
+   * @return array of tag indexes with values
+   */
+  public int[] getTagsWithValues() {
+    Arrays.sort(tagsWithValues, 0, tagsWithValuesCount);
+    return tagsWithValues;
+  }
+
+  /**
+   * Check if any values have been written for the specified tag index.
+   *
+   * @param tagIndex index of the tag
+   * @return true if the tag has values in the payload
+   */
+  public boolean hasValues(int tagIndex) {
+    return tagIndex < tagFirstSegment.length && tagFirstSegment[tagIndex] != NO_SEGMENT;
+  }
+
+  /**
+   * Write an OMF data message value for a data point.
+   *
+   * @param tagIndex index of the data point's tag
+   * @param descriptor descriptor of the data point's tag
+   * @param dataPoint data point to write
+   * @param epochSeconds timestamp of the data point in seconds since the epoch
+   */
+  public void writeOmfValue(
+      int tagIndex, TagDescriptor descriptor, DataPoint dataPoint, long epochSeconds) {
+    projectOmfValue(tagIndex, descriptor);
+
+    final int start = valueRegion.length();
+    valueRegion.append(OMF_VALUE_START);
+    timestampEncoder.write(valueRegion, dataPoint, epochSeconds);
+    valueRegion.append(OMF_VALUE_MIDDLE);
+    writeOmfTagValue(descriptor, dataPoint);
+    valueRegion.append(OMF_VALUE_END);
+    addSegment(tagIndex, start, valueRegion.length());
+  }
+
+  /**
+   * Write an OMF data message value which is not read from a data point, such as an aggregate. The
+   * timestamp is written in UTC. NaN and infinite values have no JSON representation and are not
+   * written.
+   *
+   * @param tagIndex index of the value's container
+   * @param descriptor descriptor of the value's container
+   * @param value value to write, written as an integer for an integer container
+   * @param epochSeconds timestamp of the value in seconds since the epoch
+   * @return true if the value was written, false if it was not finite
+   */
+  public boolean writeOmfNumber(
+      int tagIndex, TagDescriptor descriptor, double value, long epochSeconds) {
+    if (Double.isNaN(value) || Double.isInfinite(value)) {
+      return false;
+    }
+    projectOmfValue(tagIndex, descriptor);
+
+    final int start = valueRegion.length();
+    valueRegion.append(OMF_VALUE_START);
+    TimestampEncoder.writeUtc(valueRegion, epochSeconds);
+    valueRegion.append(OMF_VALUE_MIDDLE);
+    if (descriptor.getOmfTypeName().equals(OsisoftJsonPayload.INTEGER_TAG_TYPE)) {
+      valueRegion.append((long) value);
+    } else if (descriptor.hasValuePrecision()) {
+      writeNumberWithPrecision(descriptor, value);
+    } else {
+      valueRegion.appendSignificant(value, NUMBER_SIGNIFICANT_DIGITS);
+    }
+    valueRegion.append(OMF_VALUE_END);
+    addSegment(tagIndex, start, valueRegion.length());
+    return true;
+  }
+
+  /**
+   * Write a data point of a tag which is sent in a group container as a property of a group
+   * container value. Data points of the group with the same timestamp are written to the same
+   * value, unless that value already has a property for the data point's tag.
+   *
+   * @param descriptor descriptor of the data point's tag, see {@link
+   *     TagDescriptor#getGroupContainer()}
+   * @param dataPoint data point to write
+   * @param epochSeconds timestamp of the data point in seconds since the epoch
+   */
+  public void writeOmfGroupValue(TagDescriptor descriptor, DataPoint dataPoint, long epochSeconds) {
+    final TagDescriptor groupContainer = descriptor.getGroupContainer();
+    final int groupIndex = groupContainer.getOrdinal();
+    final int tagIndex = descriptor.getOrdinal();
+    final int maxIndex = Math.max(groupIndex, tagIndex);
+    if (maxIndex >= tagFirstSegment.length) {
+      growTagTables(maxIndex + 1);
+    }
+
+    final boolean groupHasValues = hasValues(groupIndex);
+    final boolean rowOpen =
+        groupHasValues
+            && rowEpochSeconds[groupIndex] == epochSeconds
+            && rowSerials[tagIndex] != rowSerials[groupIndex];
+
+    final int start = valueRegion.length();
+    if (!rowOpen) {
+      if (groupHasValues) {
+        valueRegion.append(OMF_ROW_SEPARATOR);
+      } else {
+        // container start and end, the end of the last value, and a separator from the previous
+        // container
+        projectedLength +=
+            groupContainer.getContainerHeader().length + OMF_CONTAINER_END.length + 1;
+        if (tagsWithValuesCount > 0) {
+          projectedLength++;
+        }
+      }
+      valueRegion.append(OMF_VALUE_START);
+      timestampEncoder.write(valueRegion, dataPoint, epochSeconds);
+      valueRegion.append(QUOTE);
+      rowEpochSeconds[groupIndex] = epochSeconds;
+      rowSerials[groupIndex] = ++rowCount;
+    }
+    rowSerials[tagIndex] = rowSerials[groupIndex];
+
+    valueRegion.append(descriptor.getGroupProperty());
+    writeOmfTagValue(descriptor, dataPoint);
+    addSegment(groupIndex, start, valueRegion.length());
+  }
+
+  /**
+   * Add the container framing of an OMF value to the projected length.
+   *
+   * @param tagIndex index of the value's container
+   * @param descriptor descriptor of the value's container
+   */
+  private void projectOmfValue(int tagIndex, TagDescriptor descriptor) {
+    if (hasValues(tagIndex)) {
+      // value separator
+      projectedLength++;
+    } else {
+      // container start and end, and a separator from the previous container
+      projectedLength += descriptor.getContainerHeader().length + OMF_CONTAINER_END.length;
+      if (tagsWithValuesCount > 0) {
+        projectedLength++;
+      }
+    }
+  }
+
+  /**
+   * Write the value of a data point in OMF representation to the value region.
+   *
+   * @param descriptor descriptor of the data point's tag
+   * @param dataPoint data point to write
+   */
+  private void writeOmfTagValue(TagDescriptor descriptor, DataPoint dataPoint) {
+    if (dataPoint.getType().equals(DataType.STRING)) {
+      valueRegion.append(QUOTE);
+      valueRegion.append(dataPoint.getValueString());
+      valueRegion.append(QUOTE);
+    } else if (dataPoint.getType().equals(DataType.BOOLEAN)) {
+      // pass 1 and 0 as true and false
+      if (dataPoint.getValueString().equalsIgnoreCase("0")) {
+        valueRegion.append(OMF_FALSE);
+      } else {
+        valueRegion.append(OMF_TRUE);
+      }
+    } else {
+      writeUnquotedValue(descriptor, dataPoint);
+    }
+  }
+
+  /**
+   * Write the unquoted value of a data point to the value region. Float values are rounded to the
+   * precision of the tag if one is set, other values are written as read from the data point.
+   *
+   * @param descriptor descriptor of the data point's tag
+   * @param dataPoint data point to write
+   */
+  private void writeUnquotedValue(TagDescriptor descriptor, DataPoint dataPoint) {
+    if (descriptor.hasValuePrecision() && dataPoint instanceof DataPointFloat) {
+      writeNumberWithPrecision(descriptor, ((DataPointFloat) dataPoint).getValue());
+    } else {
+      valueRegion.append(dataPoint.getValueString());
+    }
+  }
+
+  /**
+   * Write a number rounded to the precision of a tag to the value region.
+   *
+   * @param descriptor descriptor of the tag, with a precision set
+   * @param value number to write
+   */
+  private void writeNumberWithPrecision(TagDescriptor descriptor, double value) {
+    if (descriptor.getDecimalPlaces() != TagDescriptor.PRECISION_NOT_SET) {
+      valueRegion.appendDecimal(value, descriptor.getDecimalPlaces());
+    } else {
+      valueRegion.appendSignificant(value, descriptor.getSignificantDigits());
+    }
+  }
+
+  /**
+   * Write a legacy PI Web API recorded value for a data point. The values of each tag are sent
+   * together in one sub-request by {@link #writeLegacyRequest(int, TagDescriptor)}.
+   *
+   * @param tagIndex index of the data point's tag
+   * @param descriptor descriptor of the data point's tag
+   * @param dataPoint data point to write
+   * @param epochSeconds timestamp of the data point in seconds since the epoch
+   */
+  public void writeLegacyValue(
+      int tagIndex, TagDescriptor descriptor, DataPoint dataPoint, long epochSeconds) {
+    if (hasValues(tagIndex)) {
+      // value separator
+      projectedLength++;
+    } else {
+      // sub-request start and end, and a separator from the previous sub-request
+      projectedLength +=
+          LEGACY_REQUEST_START.length
+              + String.valueOf(tagsWithValuesCount).length()
+              + LEGACY_REQUEST_RESOURCE.length
+              + descriptor.getLegacyResource().length
+              + LEGACY_REQUEST_CONTENT.length
+              + LEGACY_REQUEST_END.length;
+      if (tagsWithValuesCount > 0) {
+        projectedLength += LEGACY_REQUEST_SEPARATOR.length;
+      }
+    }
+
+    final int start = valueRegion.length();
+    valueRegion.append(LEGACY_VALUE_START);
+    timestampEncoder.write(valueRegion, dataPoint, epochSeconds);
+    valueRegion.append(LEGACY_VALUE_MIDDLE);
+    writeUnquotedValue(descriptor, dataPoint);
+    valueRegion.append(LEGACY_VALUE_END);
+    addSegment(tagIndex, start, valueRegion.length());
+  }
+
+  /**
+   * Record a value segment and chain it to the end of its tag's segment list.
+   *
+   * @param tagIndex index of the tag the segment belongs to
+   * @param start start index of the segment in the value region
+   * @param end end index of the segment in the value region
+   */
+  private void addSegment(int tagIndex, int start, int end) {
+    if (segmentCount == segmentStart.length) {
+      segmentStart = grow(segmentStart);
+      segmentEnd = grow(segmentEnd);
+      segmentNext = grow(segmentNext);
+    }
+
+    projectedLength += end - start;
+
+    final int segment = segmentCount++;
+    segmentStart[segment] = start;
+    segmentEnd[segment] = end;
+    segmentNext[segment] = NO_SEGMENT;
+
+    if (tagIndex >= tagFirstSegment.length) {
+      growTagTables(tagIndex + 1);
+    }
+
+    if (tagFirstSegment[tagIndex] == NO_SEGMENT) {
+      tagFirstSegment[tagIndex] = segment;
+      if (tagsWithValuesCount == tagsWithValues.length) {
+        tagsWithValues = grow(tagsWithValues);
+      }
+      tagsWithValues[tagsWithValuesCount++] = tagIndex;
+    } else {
+      segmentNext[tagLastSegment[tagIndex]] = segment;
+    }
+    tagLastSegment[tagIndex] = segment;
+  }
+
+  /**
+   * Grow the tag tables for a tag added after the serializer was created.
+   *
+   * @param minTagIndexCount number of tag indexes the tables must hold
+   */
+  private void growTagTables(int minTagIndexCount) {
+    final int oldLength = tagFirstSegment.length;
+    final int newLength = Math.max(oldLength * 2, minTagIndexCount);
+    int[] newFirstSegment = new int[newLength];
+    int[] newLastSegment = new int[newLength];
+    System.arraycopy(tagFirstSegment, 0, newFirstSegment, 0, oldLength);
+    System.arraycopy(tagLastSegment, 0, newLastSegment, 0, oldLength);
+    Arrays.fill(newFirstSegment, oldLength, newLength, NO_SEGMENT);
+    tagFirstSegment = newFirstSegment;
+    tagLastSegment = newLastSegment;
+
+    long[] newRowEpochSeconds = new long[newLength];
+    int[] newRowSerials = new int[newLength];
+    System.arraycopy(rowEpochSeconds, 0, newRowEpochSeconds, 0, oldLength);
+    System.arraycopy(rowSerials, 0, newRowSerials, 0, oldLength);
+    rowEpochSeconds = newRowEpochSeconds;
+    rowSerials = newRowSerials;
+  }
+
+  /**
+   * Double the size of a segment table.
+   *
+   * @param table table to grow
+   * @return new table containing the contents of the old table
+   */
+  private static int[] grow(int[] table) {
+    int[] newTable = new int[Math.max(table.length * 2, 1)];
+    System.arraycopy(table, 0, newTable, 0, table.length);
+    return newTable;
+  }
+
+  /**
+   * Write an OMF container with all values of the specified tag to the output.
+   *
+   * @param tagIndex index of the tag
+   * @param containerHeader JSON fragment opening the container, see {@link
+   *     TagDescriptor#getContainerHeader()}
+   */
+  public void writeOmfContainer(int tagIndex, byte[] containerHeader) {
+    if (containerWritten) {
+      output.append(COMMA);
+    } else {
+      containerWritten = true;
+    }
+
+    lastContainerStart = output.length();
+    output.append(containerHeader);
+    writeSegments(tagIndex, true);
+    output.append(OMF_CONTAINER_END);
+  }
+
+  /**
+   * Write an OMF group container with all values of the specified group container index to the
+   * output. The values were written by {@link #writeOmfGroupValue(TagDescriptor, DataPoint, long)}
+   * with their separators, only the end of the last value is added.
+   *
+   * @param tagIndex index of the group container
+   * @param containerHeader JSON fragment opening the container, see {@link
+   *     TagDescriptor#getContainerHeader()}
+   */
+  public void writeOmfGroupContainer(int tagIndex, byte[] containerHeader) {
+    if (containerWritten) {
+      output.append(COMMA);
+    } else {
+      containerWritten = true;
+    }
+
+    lastContainerStart = output.length();
+    output.append(containerHeader);
+    writeSegments(tagIndex, false);
+    output.append(OMF_ROW_END);
+    output.append(OMF_CONTAINER_END);
+  }
+
+  /**
+   * Get the offset in the output of the first byte of the last OMF container written.
+   *
+   * @return offset of the last container
+   */
+  public int getLastContainerStart() {
+    return lastContainerStart;
+  }
+
+  /**
+   * Write a legacy batch sub-request with all recorded values of the specified tag to the output.
+   *
+   * @param tagIndex index of the tag
+   * @param descriptor descriptor of the tag
+   */
+  public void writeLegacyRequest(int tagIndex, TagDescriptor descriptor) {
+    if (requestCount > 0) {
+      output.append(LEGACY_REQUEST_SEPARATOR);
+    }
+
+    output.append(LEGACY_REQUEST_START);
+    output.append(requestCount++);
+    output.append(LEGACY_REQUEST_RESOURCE);
+    output.append(descriptor.getLegacyResource());
+    output.append(LEGACY_REQUEST_CONTENT);
+    writeSegments(tagIndex, true);
+    output.append(LEGACY_REQUEST_END);
+  }
+
+  /**
+   * Copy the value segments of the specified tag index to the output in the order they were
+   * written.
+   *
+   * @param tagIndex index of the tag
+   * @param separated true to separate the values by commas
+   */
+  private void writeSegments(int tagIndex, boolean separated) {
+    boolean firstValue = true;
+    for (int segment = tagFirstSegment[tagIndex];
+        segment != NO_SEGMENT;
+        segment = segmentNext[segment]) {
+      if (separated && !firstValue) {
+        output.append(COMMA);
+      }
+      firstValue = false;
+      output.append(valueRegion, segmentStart[segment], segmentEnd[segment]);
+    }
+  }
+
+  /**
+   * Write a fragment to the output.
+   *
+   * @param fragment JSON fragment to write
+   * @return true if the fragment was written
+   */
+  public boolean writeOutput(String fragment) {
+    final int originalLength = output.length();
+    output.append(fragment);
+    return output.length() > originalLength;
+  }
+
+  /**
+   * Get the output buffer holding the assembled payload.
+   *
+   * @return output buffer
+   */
+  public PayloadByteBuffer getOutput() {
+    return output;
+  }
+}
@@ -0,0 +1,175 @@
+package com.hms.flexyosisoftconnector.payloadhandler;
+
+import com.hms.flexyosisoftconnector.configuration.OSIsoftConfig;
+import com.hms_networks.americas.sc.extensions.logging.Logger;
+
+/**
+ * Controls the target size of payloads based on the observed latency of posting them.
+ *
+ * <p>When adaptive payload sizing is enabled, the target size is adjusted after each post using
+ * additive increase and multiplicative decrease (AIMD). The target grows by {@link
+ * #INCREASE_STEP_BYTES} after a full payload is posted within the latency goal, shrinks to three
+ * quarters after a post exceeds the latency goal, and is halved after an overloaded post. The
+ * latency goal is a configurable fraction of the HTTP timeout.
+ *
+ * <p>A post is overloaded if it timed out or the server refused it as too large or overloaded
+ * (status 413 or 5xx), which a smaller payload may avoid. Other failed posts, such as when the
+ * server cannot be reached or rejects the data, say nothing about the payload size and leave the
+ * target size unchanged.
+ *
+ * <p>When adaptive payload sizing is disabled, the target size is the configured payload target
+ * size.
+ *
+ * @author HMS Networks, MU Americas Solution Center
+ */
+public class PayloadSizeController {
+
+  /** Smallest payload target size in bytes. */
+  static final int MIN_TARGET_SIZE_BYTES = 2048;
+
+  /** Largest payload target size in bytes, unless a larger target size is configured. */
+  static final int MAX_TARGET_SIZE_BYTES = 65536;
+
+  /** Number of bytes the target size grows by after a post within the latency goal. */
+  static final int INCREASE_STEP_BYTES = 2048;
+
+  /** Numerator of the factor applied to the target size after a post over the latency goal. */
+  static final int DECREASE_NUMERATOR = 3;
+
+  /** Denominator of the factor applied to the target size after a post over the latency goal. */
+  static final int DECREASE_DENOMINATOR = 4;
+
+  /** Result of a post which the server accepted. */
+  public static final int POST_SUCCEEDED = 0;
+
+  /** Result of a post which timed out or which the server refused as too large or overloaded. */
+  public static final int POST_OVERLOADED = 1;
+
+  /** Result of a post which failed for a reason unrelated to the payload size. */
+  public static final int POST_FAILED = 2;
+
+  /** Number of milliseconds in a second. */
+  private static final long MILLISECONDS_PER_SECOND = 1000;
+
+  /** Current target size of payloads in bytes. */
+  private static volatile int targetSizeBytes = OSIsoftConfig.getPayloadTargetSizeBytes();
+
+  /** Upper bound of the target size in bytes. */
+  private static int maxTargetSizeBytes = MAX_TARGET_SIZE_BYTES;
+
+  /** Latency goal for posting a payload in milliseconds. */
+  private static long latencyGoalMs;
+
+  /** Latency of the last post in milliseconds. */
+  private static volatile long lastLatencyMs;
+
+  /** Number of bytes sent in the body of the last post. */
+  private static volatile int lastPostedBytes;
+
+  /** Flag indicating if the target size is adjusted by post latency. */
+  private static boolean adaptive;
+
+  /**
+   * Initialize the controller from the configuration. The configuration must be initialized before
+   * calling this method.
+   */
+  public static void init() {
+    adaptive = OSIsoftConfig.getPayloadSizeAdaptive();
+    targetSizeBytes = OSIsoftConfig.getPayloadTargetSizeBytes();
+    maxTargetSizeBytes = Math.max(MAX_TARGET_SIZE_BYTES, targetSizeBytes);
+    latencyGoalMs =
+        (long)
+            (OSIsoftConfig.getHttpTimeoutSeconds()
+                * MILLISECONDS_PER_SECOND
+                * OSIsoftConfig.getPayloadLatencyTargetFraction());
+
+    if (adaptive) {
+      Logger.LOG_INFO(
+          "Adaptive payload sizing enabled with a latency goal of "
+              + latencyGoalMs
+              + " ms and an initial target of "
+              + targetSizeBytes
+              + " bytes.");
+    }
+  }
+
+  /**
+   * Record the result of posting a payload and adjust the target size.
+   *
+   * @param payloadSizeBytes size of the posted payload encoded as UTF-8 in bytes, which is compared
+   *     with the target size
+   * @param postedBytes number of bytes sent in the body of the post
+   * @param latencyMs time taken by the post in milliseconds
+   * @param result {@link #POST_SUCCEEDED}, {@link #POST_OVERLOADED} or {@link #POST_FAILED}
+   */
+  public static synchronized void recordPost(
+      int payloadSizeBytes, int postedBytes, long latencyMs, int result) {
+    lastPostedBytes = postedBytes;
+    lastLatencyMs = latencyMs;
+
+    if (!adaptive || result == POST_FAILED) {
+      return;
+    }
+
+    int newTargetSizeBytes = targetSizeBytes;
+    if (result == POST_OVERLOADED) {
+      newTargetSizeBytes = targetSizeBytes / 2;
+    } else if (latencyMs > latencyGoalMs) {
+      newTargetSizeBytes = (targetSizeBytes * DECREASE_NUMERATOR) / DECREASE_DENOMINATOR;
+    } else if (payloadSizeBytes * 2 >= targetSizeBytes) {
+      // Only grow when the payload was large enough for its latency to be representative
+      newTargetSizeBytes = targetSizeBytes + INCREASE_STEP_BYTES;
+    }
+
+    if (newTargetSizeBytes < MIN_TARGET_SIZE_BYTES) {
+      newTargetSizeBytes = MIN_TARGET_SIZE_BYTES;
+    } else if (newTargetSizeBytes > maxTargetSizeBytes) {
+      newTargetSizeBytes = maxTargetSizeBytes;
+    }
+
+    if (newTargetSizeBytes != targetSizeBytes) {
+      Logger.LOG_DEBUG(
+          "Payload target size changed from "
+              + targetSizeBytes
+              + " to "
+              + newTargetSizeBytes
+              + " bytes after a "
+              + (result == POST_OVERLOADED ? "overloaded " : "")
+              + "post of "
+              + payloadSizeBytes
+              + " bytes ("
+              + postedBytes
+              + " bytes sent) in "
+              + latencyMs
+              + " ms.");
+      targetSizeBytes = newTargetSizeBytes;
+    }
+  }
+
+  /**
+   * Get the current target size of payloads.
+   *
+   * @return payload target size in bytes
+   */
+  public static int getTargetSizeBytes() {
+    return targetSizeBytes;
+  }
+
+  /**
+   * Get the latency of the last post.
+   *
+   * @return latency of the last post in milliseconds
+   */
+  public static long getLastLatencyMs() {
+    return lastLatencyMs;
+  }
+
+  /**
+   * Get the number of bytes sent in the body of the last post.
+   *
+   * @return posted bytes of the last post
+   */
+  public static int getLastPostedBytes() {
+    return lastPostedBytes;
+  }
+}
@@ -0,0 +1,436 @@
+package com.hms.flexyosisoftconnector.payloadhandler;
+
+import com.hms_networks.americas.sc.extensions.fileutils.FileAccessManager;
+import com.hms_networks.americas.sc.extensions.logging.Logger;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * Append-only store of completed payloads on the Flexy file system, used while the payload queue
+ * in memory is full, such as when the OSIsoft server cannot be reached.
+ *
+ * <p>Payloads are appended as records to numbered segment files. Each record holds the length of
+ * the payload, a CRC-32 checksum of the payload bytes and the payload as UTF-8. Records are read
+ * back in the order they were appended. The position of the first record which has not been sent
+ * is stored in a cursor file once the record has been sent, so spooled payloads survive a restart
+ * of the application. A record which was read but not yet committed when the application stopped
+ * is sent again after the restart.
+ *
+ * <p>Segments are deleted once all of their records have been sent. The total size of the
+ * segments is bounded: when a record does not fit, the oldest segments are deleted, even if their
+ * records have not been sent. A record with a wrong length or checksum, such as one which was being
+ * written when the Flexy lost power, ends its segment and is skipped.
+ *
+ * @author HMS Networks, MU Americas Solution Center
+ */
+public class PayloadSpool {
+
+  /** Directory of the payload spool. */
+  public static final String DIRECTORY = "/usr/OSIsoftSpool/";
+
+  /** Start of the file name of each segment, followed by the segment number. */
+  private static final String SEGMENT_PREFIX = "segment-";
+
+  /** End of the file name of each segment. */
+  private static final String SEGMENT_SUFFIX = ".dat";
+
+  /** File name of the cursor file in the spool directory. */
+  private static final String CURSOR_FILE_NAME = "cursor.txt";
+
+  /** Separator between the segment number and offset in the cursor file. */
+  private static final String CURSOR_SEPARATOR = " ";
+
+  /** Number of bytes before the payload of each record: the payload length and checksum. */
+  private static final int RECORD_HEADER_BYTES = 8;
+
+  /** Largest size of a segment in bytes, unless it holds a single larger record. */
+  static final long MAX_SEGMENT_BYTES = 262144;
+
+  /** Smallest number of segments the maximum spool size is divided into. */
+  static final int MIN_SEGMENT_COUNT = 4;
+
+  /** CRC-32 lookup table of the record checksums. */
+  private static final int[] CRC_TABLE = new int[256];
+
+  static {
+    for (int n = 0; n < CRC_TABLE.length; n++) {
+      int c = n;
+      for (int k = 0; k < 8; k++) {
+        c = ((c & 1) != 0) ? (0xedb88320 ^ (c >>> 1)) : (c >>> 1);
+      }
+      CRC_TABLE[n] = c;
+    }
+  }
+
+  /** Directory holding the segments and the cursor file. */
+  private final String directory;
+
+  /** Maximum total size of the segments in bytes. */
+  private final long maxBytes;
+
+  /** Size in bytes after which a new segment is started. */
+  private final long segmentBytes;
+
+  /** Number of the oldest segment which has not been deleted. */
+  private long oldestSegment;
+
+  /** Number of the segment records are appended to. */
+  private long writeSegment;
+
+  /** Offset in the write segment the next record is appended at. */
+  private long writeOffset;
+
+  /** Number of the segment the next record is read from. */
+  private long readSegment;
+
+  /** Offset in the read segment of the next record to read. */
+  private long readOffset;
+
+  /** Number of the segment of the first record which has not been sent, as stored in the cursor. */
+  private long cursorSegment;
+
+  /** Offset in the cursor segment of the first record which has not been sent. */
+  private long cursorOffset;
+
+  /** Total size of the segments in bytes. */
+  private long totalBytes;
+
+  /**
+   * Constructor for a payload spool. Segments left by a previous run of the application are read
+   * from the cursor position on.
+   *
+   * @param directory directory of the spool, ending with a separator
+   * @param maxBytes maximum total size of the segments in bytes
+   */
+  public PayloadSpool(String directory, long maxBytes) {
+    this.directory = directory;
+    this.maxBytes = maxBytes;
+    segmentBytes = Math.min(MAX_SEGMENT_BYTES, maxBytes / MIN_SEGMENT_COUNT);
+    recover();
+  }
+
+  /**
+   * Find the segments and cursor left by a previous run of the application. Records are appended
+   * to a new segment, as the last segment may end with a partly written record.
+   */
+  private void recover() {
+    File spoolDirectory = new File(directory);
+    if (!spoolDirectory.exists()) {
+      spoolDirectory.mkdirs();
+    }
+
+    long oldest = Long.MAX_VALUE;
+    long newest = -1;
+    totalBytes = 0;
+    String[] fileNames = spoolDirectory.list();
+    for (int i = 0; fileNames != null && i < fileNames.length; i++) {
+      final long segment = parseSegmentNumber(fileNames[i]);
+      if (segment >= 0) {
+        oldest = Math.min(oldest, segment);
+        newest = Math.max(newest, segment);
+        totalBytes += new File(directory + fileNames[i]).length();
+      }
+    }
+
+    if (newest < 0) {
+      oldestSegment = 0;
+      writeSegment = 0;
+    } else {
+      oldestSegment = oldest;
+      writeSegment = newest + 1;
+    }
+    writeOffset = 0;
+
+    // store the cursor as read, so a cursor of deleted segments does not skip new segments
+    readCursor();
+    // a cursor at the end of a segment points to the next segment, so all records were sent
+    while (cursorSegment < writeSegment
+        && cursorOffset >= new File(getSegmentPath(cursorSegment)).length()) {
+      cursorSegment++;
+      cursorOffset = 0;
+    }
+    writeCursor();
+    readSegment = cursorSegment;
+    readOffset = cursorOffset;
+
+    // delete segments which were sent before the application stopped
+    while (oldestSegment < cursorSegment) {
+      deleteSegment(oldestSegment);
+      oldestSegment++;
+    }
+
+    if (hasRecords()) {
+      Logger.LOG_INFO(
+          "Payload spool holds "
+              + totalBytes
+              + " bytes of payloads from a previous run. They will be sent first.");
+    }
+  }
+
+  /**
+   * Append a payload to the spool, deleting the oldest segments if the spool is full.
+   *
+   * @param payload payload to append
+   * @return true if the payload was appended, false if it is larger than the spool or could not be
+   *     written
+   */
+  public synchronized boolean append(String payload) {
+    try {
+      final byte[] bytes = payload.getBytes(PayloadByteBuffer.PAYLOAD_ENCODING);
+      final long recordBytes = RECORD_HEADER_BYTES + bytes.length;
+      if (recordBytes > maxBytes) {
+        Logger.LOG_WARN("Payload of " + recordBytes + " bytes is larger than the payload spool.");
+        return false;
+      }
+
+      if (writeOffset > 0 && writeOffset + recordBytes > segmentBytes) {
+        writeSegment++;
+        writeOffset = 0;
+      }
+      while (totalBytes + recordBytes > maxBytes && oldestSegment < writeSegment) {
+        evictOldestSegment();
+      }
+
+      RandomAccessFile file = new RandomAccessFile(getSegmentPath(writeSegment), "rw");
+      try {
+        file.seek(writeOffset);
+        file.writeInt(bytes.length);
+        file.writeInt(crc32(bytes, bytes.length));
+        file.write(bytes);
+      } finally {
+        file.close();
+      }
+
+      writeOffset += recordBytes;
+      totalBytes += recordBytes;
+      return true;
+    } catch (IOException e) {
+      Logger.LOG_SERIOUS("Unable to write a payload to the payload spool.");
+      Logger.LOG_EXCEPTION(e);
+      return false;
+    }
+  }
+
+  /**
+   * Check if the spool has records which have not been read.
+   *
+   * @return true if there are unread records
+   */
+  public synchronized boolean hasRecords() {
+    return readSegment < writeSegment || readOffset < writeOffset;
+  }
+
+  /**
+   * Read the next record of the spool. The record stays in the spool until {@link #commitRead()}
+   * is called, so it is read again after a restart.
+   *
+   * @return payload of the record, or null if there are no unread records
+   */
+  public synchronized String readNext() {
+    while (hasRecords()) {
+      final File file = new File(getSegmentPath(readSegment));
+      final long limit = readSegment == writeSegment ? writeOffset : file.length();
+      if (readOffset + RECORD_HEADER_BYTES > limit) {
+        if (readOffset < limit) {
+          Logger.LOG_WARN(
+              "Skipping a partly written record in payload spool segment " + readSegment);
+        }
+        skipReadSegment();
+        continue;
+      }
+
+      try {
+        RandomAccessFile segment = new RandomAccessFile(file, "r");
+        try {
+          segment.seek(readOffset);
+          final int length = segment.readInt();
+          final int storedChecksum = segment.readInt();
+          if (length < 0 || readOffset + RECORD_HEADER_BYTES + length > limit) {
+            Logger.LOG_WARN(
+                "Skipping a record of invalid length in payload spool segment " + readSegment);
+            skipReadSegment();
+            continue;
+          }
+
+          byte[] bytes = new byte[length];
+          segment.readFully(bytes);
+          if (crc32(bytes, bytes.length) != storedChecksum) {
+            Logger.LOG_WARN(
+                "Skipping a record with an invalid checksum in payload spool segment "
+                    + readSegment);
+            skipReadSegment();
+            continue;
+          }
+
+          readOffset += RECORD_HEADER_BYTES + length;
+          return new String(bytes, PayloadByteBuffer.PAYLOAD_ENCODING);
+        } finally {
+          segment.close();
+        }
+      } catch (IOException e) {
+        Logger.LOG_SERIOUS("Unable to read payload spool segment " + readSegment + ".");
+        Logger.LOG_EXCEPTION(e);
+        skipReadSegment();
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Mark the records read so far as sent. The cursor file is updated and segments which only hold
+   * sent records are deleted.
+   */
+  public synchronized void commitRead() {
+    cursorSegment = readSegment;
+    cursorOffset = readOffset;
+    writeCursor();
+
+    while (oldestSegment < cursorSegment) {
+      deleteSegment(oldestSegment);
+      oldestSegment++;
+    }
+  }
+
+  /** Continue reading at the cursor, so the records read since the last commit are read again. */
+  public synchronized void rewindRead() {
+    readSegment = cursorSegment;
+    readOffset = cursorOffset;
+  }
+
+  /**
+   * Get the total size of the segments of the spool.
+   *
+   * @return spool size in bytes
+   */
+  public synchronized long getTotalBytes() {
+    return totalBytes;
+  }
+
+  /** Continue reading at the start of the segment after the read segment. */
+  private void skipReadSegment() {
+    if (readSegment < writeSegment) {
+      readSegment++;
+      readOffset = 0;
+    } else {
+      readOffset = writeOffset;
+    }
+  }
+
+  /**
+   * Delete the oldest segment to make room for new records. The cursor and read position are moved
+   * past the segment if its records have not been sent.
+   */
+  private void evictOldestSegment() {
+    if (cursorSegment <= oldestSegment) {
+      Logger.LOG_WARN(
+          "Payload spool is full. Deleting spooled payloads which have not been sent from segment "
+              + oldestSegment
+              + ".");
+      cursorSegment = oldestSegment + 1;
+      cursorOffset = 0;
+      writeCursor();
+    }
+    if (readSegment <= oldestSegment) {
+      readSegment = oldestSegment + 1;
+      readOffset = 0;
+    }
+
+    deleteSegment(oldestSegment);
+    oldestSegment++;
+  }
+
+  /**
+   * Delete a segment file and remove its size from the total size.
+   *
+   * @param segment number of the segment
+   */
+  private void deleteSegment(long segment) {
+    File file = new File(getSegmentPath(segment));
+    totalBytes = Math.max(0, totalBytes - file.length());
+    file.delete();
+  }
+
+  /** Read the cursor file. The cursor is set to the oldest segment if it cannot be read. */
+  private void readCursor() {
+    cursorSegment = oldestSegment;
+    cursorOffset = 0;
+
+    final String cursorPath = directory + CURSOR_FILE_NAME;
+    if (!new File(cursorPath).exists()) {
+      return;
+    }
+
+    try {
+      final String cursor = FileAccessManager.readFileToString(cursorPath).trim();
+      final int separatorIndex = cursor.indexOf(CURSOR_SEPARATOR);
+      final long segment = Long.parseLong(cursor.substring(0, separatorIndex));
+      final long offset = Long.parseLong(cursor.substring(separatorIndex + 1));
+      if (segment >= oldestSegment && segment < writeSegment && offset >= 0) {
+        cursorSegment = segment;
+        cursorOffset = offset;
+      } else if (segment >= writeSegment) {
+        cursorSegment = writeSegment;
+      }
+    } catch (Exception e) {
+      Logger.LOG_WARN("Unable to read the payload spool cursor. Sending all spooled payloads.");
+      Logger.LOG_EXCEPTION(e);
+    }
+  }
+
+  /** Write the cursor file. */
+  private void writeCursor() {
+    try {
+      FileAccessManager.writeStringToFile(
+          directory + CURSOR_FILE_NAME, cursorSegment + CURSOR_SEPARATOR + cursorOffset);
+    } catch (IOException e) {
+      Logger.LOG_SERIOUS("Unable to write the payload spool cursor.");
+      Logger.LOG_EXCEPTION(e);
+    }
+  }
+
+  /**
+   * Get the path of a segment file.
+   *
+   * @param segment number of the segment
+   * @return path of the segment file
+   */
+  private String getSegmentPath(long segment) {
+    return directory + SEGMENT_PREFIX + segment + SEGMENT_SUFFIX;
+  }
+
+  /**
+   * Calculate the CRC-32 of bytes.
+   *
+   * @param input input bytes
+   * @param length number of bytes of the input to include
+   * @return the CRC-32 value
+   */
+  static int crc32(byte[] input, int length) {
+    int crc = 0xffffffff;
+    for (int i = 0; i < length; i++) {
+      crc = CRC_TABLE[(crc ^ input[i]) & 0xff] ^ (crc >>> 8);
+    }
+    return crc ^ 0xffffffff;
+  }
+
+  /**
+   * Get the segment number of a file name in the spool directory.
+   *
+   * @param fileName name of the file
+   * @return segment number, or -1 if the file is not a segment
+   */
+  private static long parseSegmentNumber(String fileName) {
+    if (!fileName.startsWith(SEGMENT_PREFIX) || !fileName.endsWith(SEGMENT_SUFFIX)) {
+      return -1;
+    }
+
+    try {
+      return Long.parseLong(
+          fileName.substring(
+              SEGMENT_PREFIX.length(), fileName.length() - SEGMENT_SUFFIX.length()));
+    } catch (NumberFormatException e) {
+      return -1;
+    }
+  }
+}
@@ -0,0 +1,272 @@
+package com.hms.flexyosisoftconnector.payloadhandler;
+
+/**
+ * This class holds the precomputed OSIsoft information of a single Ewon tag.
+ *
+ * <p>Descriptors are built once by {@link TagDescriptorTable} so the payload path does not need to
+ * derive names or types for every payload.
+ *
+ * @author HMS Networks, MU Americas Solution Center
+ */
+public class TagDescriptor {
+
+  /** Tag ID of a descriptor which does not belong to a single tag, such as a group container. */
+  public static final int NO_TAG_ID = -1;
+
+  /** Value of a precision field which is not configured. */
+  public static final int PRECISION_NOT_SET = -1;
+
+  /** ID of the Ewon tag. */
+  private final int tagId;
+
+  /** Dense index of the tag, used to index per-tag structures. */
+  private final int ordinal;
+
+  /** Name of the Ewon tag. */
+  private final String tagName;
+
+  /** Name of the Ewon tag's first historical logging group, or an empty string. */
+  private final String tagGroup;
+
+  /** OMF container ID (OSIsoft tag name) of the tag. */
+  private final String containerId;
+
+  /** OMF type name of the tag, such as {@link OsisoftJsonPayload#NUMBER_TAG_TYPE}. */
+  private final String omfTypeName;
+
+  /** OMF type ID of the tag's container. */
+  private final String typeId;
+
+  /** JSON fragment opening the tag's container in an OMF data message. */
+  private final byte[] containerHeader;
+
+  /** Number of decimal places of the tag's numeric values, or {@link #PRECISION_NOT_SET}. */
+  private int decimalPlaces = PRECISION_NOT_SET;
+
+  /** Number of significant digits of the tag's numeric values, or {@link #PRECISION_NOT_SET}. */
+  private int significantDigits = PRECISION_NOT_SET;
+
+  /** Group container the tag's values are sent in, or null if the tag has its own container. */
+  private TagDescriptor groupContainer;
+
+  /** JSON fragment naming the tag's property in a value of its group container. */
+  private byte[] groupProperty;
+
+  /** Legacy PI Web API WebID of the tag's PI point. */
+  private String webId;
+
+  /**
+   * Legacy PI Web API resource for writing recorded values to the tag's PI point stream, or null
+   * until the WebID is set.
+   */
+  private byte[] legacyResource;
+
+  /**
+   * Constructor for a tag descriptor.
+   *
+   * @param tagId ID of the Ewon tag
+   * @param ordinal dense index of the tag
+   * @param tagName name of the Ewon tag
+   * @param tagGroup name of the Ewon tag's group, or an empty string
+   * @param containerId OMF container ID of the tag
+   * @param omfTypeName OMF type name of the tag
+   * @param typeId OMF type ID of the tag's container
+   */
+  public TagDescriptor(
+      int tagId,
+      int ordinal,
+      String tagName,
+      String tagGroup,
+      String containerId,
+      String omfTypeName,
+      String typeId) {
+    this.tagId = tagId;
+    this.ordinal = ordinal;
+    this.tagName = tagName;
+    this.tagGroup = tagGroup;
+    this.containerId = containerId;
+    this.omfTypeName = omfTypeName;
+    this.typeId = typeId;
+    this.containerHeader =
+        PayloadByteBuffer.bytesOf(
+            PayloadBuilder.addContainerStartToOMFDataMessage(
+                TagDescriptorTable.escapeJsonString(containerId)));
+  }
+
+  /**
+   * Get the ID of the Ewon tag.
+   *
+   * @return the tag ID
+   */
+  public int getTagId() {
+    return tagId;
+  }
+
+  /**
+   * Get the dense index of the tag, used to index per-tag structures.
+   *
+   * @return the tag ordinal
+   */
+  public int getOrdinal() {
+    return ordinal;
+  }
+
+  /**
+   * Get the name of the Ewon tag.
+   *
+   * @return the tag name
+   */
+  public String getTagName() {
+    return tagName;
+  }
+
+  /**
+   * Get the name of the Ewon tag's first historical logging group, such as "A".
+   *
+   * @return the tag group name, or an empty string if the tag has no group
+   */
+  public String getTagGroup() {
+    return tagGroup;
+  }
+
+  /**
+   * Get the OMF container ID of the tag.
+   *
+   * @return the container ID
+   */
+  public String getContainerId() {
+    return containerId;
+  }
+
+  /**
+   * Get the OMF type name of the tag.
+   *
+   * @return the OMF type name
+   */
+  public String getOmfTypeName() {
+    return omfTypeName;
+  }
+
+  /**
+   * Get the OMF type ID of the tag's container.
+   *
+   * @return the OMF type ID
+   */
+  public String getTypeId() {
+    return typeId;
+  }
+
+  /**
+   * Get the pre-escaped JSON fragment opening the tag's container in an OMF data message.
+   *
+   * @return the container header bytes
+   */
+  public byte[] getContainerHeader() {
+    return containerHeader;
+  }
+
+  /**
+   * Get the number of decimal places numeric values of the tag are rounded to.
+   *
+   * @return the number of decimal places, or {@link #PRECISION_NOT_SET}
+   */
+  public int getDecimalPlaces() {
+    return decimalPlaces;
+  }
+
+  /**
+   * Get the number of significant digits numeric values of the tag are rounded to.
+   *
+   * @return the number of significant digits, or {@link #PRECISION_NOT_SET}
+   */
+  public int getSignificantDigits() {
+    return significantDigits;
+  }
+
+  /**
+   * Check if numeric values of the tag are rounded before they are written to payloads.
+   *
+   * @return true if a number of decimal places or significant digits is set
+   */
+  public boolean hasValuePrecision() {
+    return decimalPlaces != PRECISION_NOT_SET || significantDigits != PRECISION_NOT_SET;
+  }
+
+  /**
+   * Set the precision numeric values of the tag are written with. Decimal places take precedence
+   * over significant digits if both are set.
+   *
+   * @param decimalPlaces number of decimal places, or {@link #PRECISION_NOT_SET}
+   * @param significantDigits number of significant digits, or {@link #PRECISION_NOT_SET}
+   */
+  void setValuePrecision(int decimalPlaces, int significantDigits) {
+    this.decimalPlaces = decimalPlaces;
+    this.significantDigits = significantDigits;
+  }
+
+  /**
+   * Check if this descriptor is a group container holding the values of the tags of a tag group.
+   *
+   * @return true if this is a group container
+   */
+  public boolean isGroupContainer() {
+    return omfTypeName.equals(OsisoftJsonPayload.GROUP_CONTAINER_TYPE);
+  }
+
+  /**
+   * Get the group container the tag's values are sent in.
+   *
+   * @return the group container's descriptor, or null if the tag has its own container
+   */
+  public TagDescriptor getGroupContainer() {
+    return groupContainer;
+  }
+
+  /**
+   * Get the pre-escaped JSON fragment naming the tag's property in a value of its group container.
+   *
+   * @return the property fragment bytes, or null if the tag has its own container
+   */
+  public byte[] getGroupProperty() {
+    return groupProperty;
+  }
+
+  /**
+   * Send the tag's values as a property of a group container instead of in its own container.
+   *
+   * @param groupContainer descriptor of the group container
+   */
+  void setGroupContainer(TagDescriptor groupContainer) {
+    this.groupContainer = groupContainer;
+    this.groupProperty =
+        PayloadByteBuffer.bytesOf(", \"" + TagDescriptorTable.escapeJsonString(tagName) + "\": ");
+  }
+
+  /**
+   * Get the legacy PI Web API WebID of the tag.
+   *
+   * @return the WebID, or null if it has not been retrieved
+   */
+  public String getWebId() {
+    return webId;
+  }
+
+  /**
+   * Set the legacy PI Web API WebID of the tag.
+   *
+   * @param webId the WebID retrieved from the server
+   */
+  public void setWebId(String webId) {
+    this.webId = webId;
+    this.legacyResource = PayloadBuilder.getRecordedValuesResource(webId);
+  }
+
+  /**
+   * Get the legacy PI Web API resource for writing recorded values to the tag's PI point stream.
+   *
+   * @return the resource URL bytes, or null if the WebID has not been set
+   */
+  public byte[] getLegacyResource() {
+    return legacyResource;
+  }
+}
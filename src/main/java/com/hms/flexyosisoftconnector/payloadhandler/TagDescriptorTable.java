@@ -0,0 +1,523 @@
+package com.hms.flexyosisoftconnector.payloadhandler;
+
+import com.hms.flexyosisoftconnector.configuration.OSIsoftConfig;
+import com.hms.flexyosisoftconnector.configuration.OSIsoftTagNamingScheme;
+import com.hms.flexyosisoftconnector.configuration.OSIsoftTagSettings;
+import com.hms_networks.americas.sc.extensions.datapoint.DataPoint;
+import com.hms_networks.americas.sc.extensions.datapoint.DataType;
+import com.hms_networks.americas.sc.extensions.logging.Logger;
+import com.hms_networks.americas.sc.extensions.taginfo.TagGroup;
+import com.hms_networks.americas.sc.extensions.taginfo.TagInfo;
+import com.hms_networks.americas.sc.extensions.taginfo.TagInfoManager;
+import com.hms_networks.americas.sc.extensions.taginfo.TagType;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Table of {@link TagDescriptor} objects indexed by tag ordinal.
+ *
+ * <p>The table is built once at startup from the {@link TagInfoManager} tag list. Container IDs,
+ * OMF types, type IDs and container header fragments are computed when the table is built, so
+ * payload construction only needs to perform array lookups.
+ *
+ * <p>Each tag is given a dense ordinal, in order of tag ID, which is used to index per-tag
+ * structures. Tag IDs are mapped to ordinals with a {@link TagIdMap}, so the memory used does not
+ * depend on the range of tag IDs.
+ *
+ * @author HMS Networks, MU Americas Solution Center
+ */
+public class TagDescriptorTable {
+
+  /** Names of the Ewon tag groups, in the order a tag's first group is chosen. */
+  private static final String[] TAG_GROUP_NAMES = {"A", "B", "C", "D"};
+
+  /** OMF property name of the timestamp, which a grouped tag cannot use as its property name. */
+  private static final String TIMESTAMP_PROPERTY = "timestamp";
+
+  /** Tag setting for the number of decimal places of float values. */
+  public static final String DECIMAL_PLACES_SETTING = "DecimalPlaces";
+
+  /** Tag setting for the number of significant digits of float values. */
+  public static final String SIGNIFICANT_DIGITS_SETTING = "SignificantDigits";
+
+  /**
+   * Descriptors indexed by tag ordinal. A descriptor is stored before its ordinal is published in
+   * {@link #ordinalsByTagId}, so lookups by tag ID can read this without locking.
+   */
+  private static volatile TagDescriptor[] descriptors = new TagDescriptor[0];
+
+  /**
+   * Number of descriptors in {@link #descriptors}. The count is published after the descriptors it
+   * covers, so lookups by ordinal can read this without locking.
+   */
+  private static volatile int descriptorCount = 0;
+
+  /**
+   * Map from tag IDs to tag ordinals. A published map is never changed, a tag is added by
+   * publishing a changed copy, so lookups by tag ID can read this without locking.
+   */
+  private static volatile TagIdMap ordinalsByTagId = new TagIdMap(0);
+
+  /**
+   * Build the descriptor table from the tag list of the {@link TagInfoManager}. The tag list must
+   * be refreshed and the configuration must be initialized before calling this method.
+   */
+  public static synchronized void build() {
+    List tagInfoList = TagInfoManager.getTagInfoList();
+
+    // Assign ordinals in order of tag ID
+    int tagCount = 0;
+    int[] tagIds = new int[tagInfoList.size()];
+    for (int i = 0; i < tagInfoList.size(); i++) {
+      TagInfo tagInfo = (TagInfo) tagInfoList.get(i);
+      if (tagInfo != null) {
+        tagIds[tagCount++] = tagInfo.getId();
+      }
+    }
+    Arrays.sort(tagIds, 0, tagCount);
+
+    if (tagCount == 0) {
+      Logger.LOG_SERIOUS("Unable to build the tag descriptor table. No tags have been found.");
+    }
+
+    TagDescriptor[] newDescriptors = new TagDescriptor[tagCount];
+    TagIdMap newOrdinalsByTagId = new TagIdMap(tagCount);
+    for (int i = 0; i < tagCount; i++) {
+      newOrdinalsByTagId.put(tagIds[i], i);
+    }
+
+    for (int i = 0; i < tagInfoList.size(); i++) {
+      TagInfo tagInfo = (TagInfo) tagInfoList.get(i);
+      if (tagInfo != null) {
+        String omfTypeName = getOmfTypeName(tagInfo.getType());
+        if (omfTypeName.length() == 0) {
+          Logger.LOG_SERIOUS("Unsupported tag type was selected for tag " + tagInfo.getName());
+          Logger.LOG_SERIOUS(
+              "Please change that tag type to one of the following: Integer, Boolean, DWord,"
+                  + " Float, or String.");
+        }
+        final int ordinal = newOrdinalsByTagId.get(tagInfo.getId());
+        newDescriptors[ordinal] =
+            createDescriptor(
+                tagInfo.getId(),
+                ordinal,
+                tagInfo.getName(),
+                omfTypeName,
+                getTagGroupName(tagInfo));
+      }
+    }
+
+    // publish the descriptors before the map which leads to them
+    descriptors = newDescriptors;
+    descriptorCount = tagCount;
+    ordinalsByTagId = newOrdinalsByTagId;
+    Logger.LOG_DEBUG("Built tag descriptor table for " + tagCount + " tags.");
+
+    buildGroupContainers();
+  }
+
+  /**
+   * Create a group container for each tag group with group containers enabled, and send the values
+   * of the group's tags as properties of the group container.
+   *
+   * <p>OMF types cannot be changed once they are created, so the type and container IDs include a
+   * hash of the group's properties. Adding, removing or renaming a tag of the group creates a new
+   * type and container.
+   */
+  private static void buildGroupContainers() {
+    final int tagCount = descriptorCount;
+    for (int g = 0; g < TAG_GROUP_NAMES.length; g++) {
+      final String tagGroup = TAG_GROUP_NAMES[g];
+      if (!OSIsoftConfig.getGroupContainerEnabled(tagGroup)) {
+        continue;
+      }
+
+      StringBuffer properties = new StringBuffer();
+      int memberCount = 0;
+      for (int ordinal = 0; ordinal < tagCount; ordinal++) {
+        TagDescriptor descriptor = descriptors[ordinal];
+        if (isGroupMember(descriptor, tagGroup)) {
+          properties
+              .append(descriptor.getTagName())
+              .append(':')
+              .append(descriptor.getOmfTypeName())
+              .append(',');
+          memberCount++;
+        }
+      }
+      if (memberCount == 0) {
+        Logger.LOG_WARN("Tag group " + tagGroup + " has no tags to send in a group container.");
+        continue;
+      }
+
+      final String flexyName = OSIsoftConfig.getFlexyName();
+      final String typeVersion = Integer.toHexString(properties.toString().hashCode());
+      final String containerId = flexyName + "-group-" + tagGroup + "-" + typeVersion;
+      final String typeId = "HMS-group-" + tagGroup + "-" + typeVersion + "-type-" + flexyName;
+      TagDescriptor groupContainer =
+          new TagDescriptor(
+              TagDescriptor.NO_TAG_ID,
+              descriptorCount,
+              containerId,
+              tagGroup,
+              containerId,
+              OsisoftJsonPayload.GROUP_CONTAINER_TYPE,
+              typeId);
+      addDescriptor(groupContainer);
+
+      for (int ordinal = 0; ordinal < tagCount; ordinal++) {
+        if (isGroupMember(descriptors[ordinal], tagGroup)) {
+          descriptors[ordinal].setGroupContainer(groupContainer);
+        }
+      }
+      Logger.LOG_INFO(
+          "Sending the "
+              + memberCount
+              + " tags of group "
+              + tagGroup
+              + " in group container "
+              + containerId
+              + ".");
+    }
+  }
+
+  /**
+   * Check if a tag is sent in the group container of a tag group.
+   *
+   * @param descriptor descriptor of the tag
+   * @param tagGroup name of the tag group
+   * @return true if the tag is in the tag group and has a supported type and name
+   */
+  private static boolean isGroupMember(TagDescriptor descriptor, String tagGroup) {
+    return descriptor.getTagGroup().equals(tagGroup)
+        && descriptor.getOmfTypeName().length() > 0
+        && !descriptor.getTagName().equals(TIMESTAMP_PROPERTY);
+  }
+
+  /**
+   * Get the number of tag ordinals in use. Per-tag structures indexed by ordinal need at least this
+   * many entries, and more if tags are added after startup.
+   *
+   * @return number of tag ordinals
+   */
+  public static int getOrdinalCount() {
+    return descriptorCount;
+  }
+
+  /**
+   * Create a descriptor for a tag.
+   *
+   * @param tagId ID of the tag
+   * @param ordinal dense index of the tag
+   * @param tagName name of the tag
+   * @param omfTypeName OMF type name of the tag
+   * @param tagGroup name of the tag's group, used by tag name templates
+   * @return new tag descriptor
+   */
+  private static TagDescriptor createDescriptor(
+      int tagId, int ordinal, String tagName, String omfTypeName, String tagGroup) {
+    /* Ensure the container is uniquely identified across devices communicating to the same
+     * OSIsoft server under the same type declaration.
+     * Types are treated as immutable and changing the type creates a new container.
+     */
+    final String containerId =
+        OSIsoftTagNamingScheme.extractTagNameFromComponents(tagName, omfTypeName, tagGroup);
+    final String typeId = "HMS-" + omfTypeName + "-type-" + OSIsoftConfig.getFlexyName();
+    TagDescriptor descriptor =
+        new TagDescriptor(tagId, ordinal, tagName, tagGroup, containerId, omfTypeName, typeId);
+    if (omfTypeName.equals(OsisoftJsonPayload.NUMBER_TAG_TYPE)) {
+      resolveValuePrecision(descriptor);
+    }
+    return descriptor;
+  }
+
+  /**
+   * Set the precision of a float tag's values from its tag settings. Integer, DWord, boolean and
+   * string values are always written in full.
+   *
+   * @param descriptor descriptor of the float tag
+   */
+  private static void resolveValuePrecision(TagDescriptor descriptor) {
+    final String tagName = descriptor.getTagName();
+    final String tagGroup = descriptor.getTagGroup();
+    final String tagType = descriptor.getOmfTypeName();
+    long decimalPlaces =
+        OSIsoftTagSettings.getLong(
+            tagName, tagGroup, tagType, DECIMAL_PLACES_SETTING, TagDescriptor.PRECISION_NOT_SET);
+    long significantDigits =
+        OSIsoftTagSettings.getLong(
+            tagName,
+            tagGroup,
+            tagType,
+            SIGNIFICANT_DIGITS_SETTING,
+            TagDescriptor.PRECISION_NOT_SET);
+
+    if (decimalPlaces > PayloadByteBuffer.MAX_PRECISION_DIGITS) {
+      Logger.LOG_WARN(
+          "Tag setting "
+              + DECIMAL_PLACES_SETTING
+              + " of tag "
+              + tagName
+              + " is limited to "
+              + PayloadByteBuffer.MAX_PRECISION_DIGITS
+              + ".");
+      decimalPlaces = PayloadByteBuffer.MAX_PRECISION_DIGITS;
+    } else if (decimalPlaces < 0) {
+      decimalPlaces = TagDescriptor.PRECISION_NOT_SET;
+    }
+
+    if (significantDigits > PayloadByteBuffer.MAX_PRECISION_DIGITS) {
+      Logger.LOG_WARN(
+          "Tag setting "
+              + SIGNIFICANT_DIGITS_SETTING
+              + " of tag "
+              + tagName
+              + " is limited to "
+              + PayloadByteBuffer.MAX_PRECISION_DIGITS
+              + ".");
+      significantDigits = PayloadByteBuffer.MAX_PRECISION_DIGITS;
+    } else if (significantDigits < 1) {
+      significantDigits = TagDescriptor.PRECISION_NOT_SET;
+    }
+
+    descriptor.setValuePrecision((int) decimalPlaces, (int) significantDigits);
+  }
+
+  /**
+   * Get the descriptor for a tag ID.
+   *
+   * @param tagId ID of the tag
+   * @return the tag's descriptor, or null if the tag is unknown
+   */
+  public static TagDescriptor getDescriptor(int tagId) {
+    // read the map first, its descriptors were stored before it was published
+    final int ordinal = ordinalsByTagId.get(tagId);
+    if (ordinal == TagIdMap.NOT_FOUND) {
+      return null;
+    }
+    return descriptors[ordinal];
+  }
+
+  /**
+   * Get the descriptor for a tag ordinal.
+   *
+   * @param ordinal ordinal of the tag
+   * @return the tag's descriptor, or null if no descriptor has the ordinal
+   */
+  public static TagDescriptor getDescriptorByOrdinal(int ordinal) {
+    // read the count first, its descriptors were stored before it was published
+    if (ordinal < 0 || ordinal >= descriptorCount) {
+      return null;
+    }
+    return descriptors[ordinal];
+  }
+
+  /**
+   * Get the descriptor for the tag of a data point. If the tag was not present when the table was
+   * built, a descriptor with the next free ordinal is created from the data point and stored for
+   * later lookups.
+   *
+   * <p>This is called for every data point, so a known tag is looked up without locking. Only the
+   * creation of a descriptor for a new tag is synchronized.
+   *
+   * @param dataPoint data point to get the tag descriptor for
+   * @return the tag's descriptor
+   */
+  public static TagDescriptor getDescriptor(DataPoint dataPoint) {
+    // read the map first, its descriptors were stored before it was published
+    final int ordinal = ordinalsByTagId.get(dataPoint.getTagId());
+    if (ordinal != TagIdMap.NOT_FOUND) {
+      return descriptors[ordinal];
+    }
+    return addTagDescriptor(dataPoint);
+  }
+
+  /**
+   * Create and store a descriptor for the tag of a data point which was not present when the table
+   * was built, unless another thread has already done so.
+   *
+   * @param dataPoint data point to create the tag descriptor for
+   * @return the tag's descriptor
+   */
+  private static synchronized TagDescriptor addTagDescriptor(DataPoint dataPoint) {
+    TagDescriptor descriptor = getDescriptor(dataPoint.getTagId());
+    if (descriptor == null) {
+      String omfTypeName = getOmfTypeName(dataPoint.getType());
+      if (omfTypeName.length() == 0) {
+        Logger.LOG_SERIOUS(
+            "Unsupported tag type was selected for Ewon tag " + dataPoint.getTagName());
+        Logger.LOG_SERIOUS(
+            "Please change that Ewon tag type to one of the following: Integer, Boolean, DWord,"
+                + " Float, or String.");
+      }
+
+      // the group of a tag added after startup is unknown
+      descriptor =
+          createDescriptor(
+              dataPoint.getTagId(), descriptorCount, dataPoint.getTagName(), omfTypeName, "");
+      addDescriptor(descriptor);
+      TagIdMap newOrdinalsByTagId = ordinalsByTagId.copy();
+      newOrdinalsByTagId.put(dataPoint.getTagId(), descriptor.getOrdinal());
+      ordinalsByTagId = newOrdinalsByTagId;
+
+      if (OSIsoftConfig.getCommunicationType() == OSIsoftConfig.PI_WEB_API) {
+        Logger.LOG_WARN(
+            "Tag "
+                + dataPoint.getTagName()
+                + " was added after startup and has no PI Web API WebID. Its values will not be"
+                + " sent until the connector is restarted.");
+      }
+    }
+    return descriptor;
+  }
+
+  /**
+   * Create a descriptor for an additional container of a tag, such as a container of aggregates.
+   * The descriptor gets the next free ordinal, but is not returned by tag ID lookups.
+   *
+   * @param tagDescriptor descriptor of the tag
+   * @param containerSuffix suffix appended to the tag's container ID
+   * @param omfTypeName OMF type name of the container
+   * @return the new descriptor
+   */
+  public static synchronized TagDescriptor createDerivedDescriptor(
+      TagDescriptor tagDescriptor, String containerSuffix, String omfTypeName) {
+    final String typeId = "HMS-" + omfTypeName + "-type-" + OSIsoftConfig.getFlexyName();
+    TagDescriptor descriptor =
+        new TagDescriptor(
+            tagDescriptor.getTagId(),
+            descriptorCount,
+            tagDescriptor.getTagName(),
+            tagDescriptor.getTagGroup(),
+            tagDescriptor.getContainerId() + containerSuffix,
+            omfTypeName,
+            typeId);
+    if (omfTypeName.equals(OsisoftJsonPayload.NUMBER_TAG_TYPE)) {
+      // derived number containers, such as averages, are written with the tag's precision
+      descriptor.setValuePrecision(
+          tagDescriptor.getDecimalPlaces(), tagDescriptor.getSignificantDigits());
+    }
+    addDescriptor(descriptor);
+    return descriptor;
+  }
+
+  /**
+   * Store a descriptor at the next free ordinal.
+   *
+   * @param descriptor descriptor created with the next free ordinal
+   */
+  private static void addDescriptor(TagDescriptor descriptor) {
+    final int count = descriptorCount;
+    if (count == descriptors.length) {
+      TagDescriptor[] newDescriptors = new TagDescriptor[descriptors.length * 2 + 1];
+      System.arraycopy(descriptors, 0, newDescriptors, 0, count);
+      newDescriptors[count] = descriptor;
+      descriptors = newDescriptors;
+    } else {
+      descriptors[count] = descriptor;
+    }
+    // publish the count after the descriptor it covers
+    descriptorCount = count + 1;
+  }
+
+  /**
+   * Get the name of the first historical logging group of a tag, such as "A".
+   *
+   * @param tagInfo tag to get the group of
+   * @return the group name, or an empty string if the tag is not in a group
+   */
+  static String getTagGroupName(TagInfo tagInfo) {
+    List tagGroups = tagInfo.getTagGroups();
+    if (tagGroups != null) {
+      if (tagGroups.contains(TagGroup.A)) {
+        return "A";
+      } else if (tagGroups.contains(TagGroup.B)) {
+        return "B";
+      } else if (tagGroups.contains(TagGroup.C)) {
+        return "C";
+      } else if (tagGroups.contains(TagGroup.D)) {
+        return "D";
+      }
+    }
+    return "";
+  }
+
+  /**
+   * Get the OMF type name for a tag type.
+   *
+   * @param tagType type of the tag
+   * @return the OMF type name, or an empty string for unsupported types
+   */
+  static String getOmfTypeName(TagType tagType) {
+    String typeString = "";
+    if (tagType == TagType.FLOAT) {
+      typeString = OsisoftJsonPayload.NUMBER_TAG_TYPE;
+    } else if (tagType == TagType.INTEGER) {
+      typeString = OsisoftJsonPayload.INTEGER_TAG_TYPE;
+    } else if (tagType == TagType.BOOLEAN) {
+      typeString = OsisoftJsonPayload.BOOLEAN_TAG_TYPE;
+    } else if (tagType == TagType.DWORD) {
+      typeString = OsisoftJsonPayload.NUMBER_TAG_TYPE;
+    } else if (tagType == TagType.STRING) {
+      typeString = OsisoftJsonPayload.STRING_TAG_TYPE;
+    }
+    return typeString;
+  }
+
+  /**
+   * Get the OMF type name for a data point type.
+   *
+   * @param dataType type of the data point
+   * @return the OMF type name, or an empty string for unsupported types
+   */
+  static String getOmfTypeName(DataType dataType) {
+    String typeString = "";
+    if (dataType == DataType.FLOAT) {
+      typeString = OsisoftJsonPayload.NUMBER_TAG_TYPE;
+    } else if (dataType == DataType.INTEGER) {
+      typeString = OsisoftJsonPayload.INTEGER_TAG_TYPE;
+    } else if (dataType == DataType.BOOLEAN) {
+      typeString = OsisoftJsonPayload.BOOLEAN_TAG_TYPE;
+    } else if (dataType == DataType.DWORD) {
+      typeString = OsisoftJsonPayload.NUMBER_TAG_TYPE;
+    } else if (dataType == DataType.STRING) {
+      typeString = OsisoftJsonPayload.STRING_TAG_TYPE;
+    }
+    return typeString;
+  }
+
+  /**
+   * Escape a string for use inside a JSON string literal.
+   *
+   * @param value string to escape
+   * @return escaped string
+   */
+  static String escapeJsonString(String value) {
+    StringBuffer escaped = null;
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      String replacement = null;
+      if (c == '"') {
+        replacement = "\\\"";
+      } else if (c == '\\') {
+        replacement = "\\\\";
+      } else if (c < 0x20) {
+        String hex = Integer.toHexString(c);
+        replacement = "\\u" + "0000".substring(hex.length()) + hex;
+      }
+
+      if (replacement != null && escaped == null) {
+        escaped = new StringBuffer(value.length() + 8);
+        escaped.append(value.substring(0, i));
+      }
+      if (escaped != null) {
+        if (replacement != null) {
+          escaped.append(replacement);
+        } else {
+          escaped.append(c);
+        }
+      }
+    }
+    return escaped == null ? value : escaped.toString();
+  }
+}
@@ -0,0 +1,153 @@
+package com.hms.flexyosisoftconnector.payloadhandler;
+
+/**
+ * Map from tag IDs to dense ordinal indexes, using primitive arrays with open addressing.
+ *
+ * <p>Tag IDs on a Flexy can be sparse after tags have been deleted and added over time. Mapping
+ * them to ordinals lets per-tag structures be sized by the number of tags instead of the range of
+ * tag IDs.
+ *
+ * @author HMS Networks, MU Americas Solution Center
+ */
+public class TagIdMap {
+
+  /** Value returned by {@link #get(int)} for a tag ID which is not in the map. */
+  public static final int NOT_FOUND = -1;
+
+  /** Marker for an empty slot. Tag IDs are never negative. */
+  private static final int EMPTY_KEY = Integer.MIN_VALUE;
+
+  /** Smallest number of slots in the map. */
+  private static final int MIN_CAPACITY = 16;
+
+  /** Tag ID stored in each slot, or {@link #EMPTY_KEY}. */
+  private int[] keys;
+
+  /** Ordinal stored in each slot. */
+  private int[] values;
+
+  /** Number of entries in the map. */
+  private int size;
+
+  /**
+   * Constructor for a tag ID map.
+   *
+   * @param expectedSize number of entries expected in the map
+   */
+  public TagIdMap(int expectedSize) {
+    int capacity = MIN_CAPACITY;
+    // Keep the map at most half full
+    while (capacity < expectedSize * 2) {
+      capacity <<= 1;
+    }
+    allocate(capacity);
+  }
+
+  /**
+   * Allocate empty slot arrays.
+   *
+   * @param capacity number of slots, a power of two
+   */
+  private void allocate(int capacity) {
+    keys = new int[capacity];
+    values = new int[capacity];
+    for (int i = 0; i < capacity; i++) {
+      keys[i] = EMPTY_KEY;
+    }
+    size = 0;
+  }
+
+  /**
+   * Get the slot where a tag ID would start probing.
+   *
+   * @param tagId tag ID
+   * @param mask slot index mask
+   * @return first slot to probe
+   */
+  private static int slot(int tagId, int mask) {
+    // Spread sequential IDs across the table
+    int hash = tagId * 0x9E3779B9;
+    return (hash ^ (hash >>> 16)) & mask;
+  }
+
+  /**
+   * Get the ordinal of a tag ID.
+   *
+   * @param tagId tag ID
+   * @return the ordinal, or {@link #NOT_FOUND}
+   */
+  public int get(int tagId) {
+    final int mask = keys.length - 1;
+    int index = slot(tagId, mask);
+    while (true) {
+      final int key = keys[index];
+      if (key == tagId) {
+        return values[index];
+      } else if (key == EMPTY_KEY) {
+        return NOT_FOUND;
+      }
+      index = (index + 1) & mask;
+    }
+  }
+
+  /**
+   * Set the ordinal of a tag ID.
+   *
+   * @param tagId tag ID, must not be negative
+   * @param ordinal ordinal of the tag
+   */
+  public void put(int tagId, int ordinal) {
+    if ((size + 1) * 2 > keys.length) {
+      rehash(keys.length * 2);
+    }
+
+    final int mask = keys.length - 1;
+    int index = slot(tagId, mask);
+    while (keys[index] != EMPTY_KEY && keys[index] != tagId) {
+      index = (index + 1) & mask;
+    }
+    if (keys[index] == EMPTY_KEY) {
+      keys[index] = tagId;
+      size++;
+    }
+    values[index] = ordinal;
+  }
+
+  /**
+   * Move all entries to larger slot arrays.
+   *
+   * @param capacity new number of slots, a power of two
+   */
+  private void rehash(int capacity) {
+    final int[] oldKeys = keys;
+    final int[] oldValues = values;
+    allocate(capacity);
+    for (int i = 0; i < oldKeys.length; i++) {
+      if (oldKeys[i] != EMPTY_KEY) {
+        put(oldKeys[i], oldValues[i]);
+      }
+    }
+  }
+
+  /**
+   * Create a copy of the map, which can be changed without changing this map.
+   *
+   * @return copy of the map
+   */
+  public TagIdMap copy() {
+    TagIdMap copy = new TagIdMap(0);
+    copy.keys = (int[]) keys.clone();
+    copy.values = (int[]) values.clone();
+    copy.size = size;
+    return copy;
+  }
+
+  /**
+   * Get the number of entries in the map.
+   *
+   * @return number of entries
+   */
+  public int size() {
+    return size;
+  }
+}
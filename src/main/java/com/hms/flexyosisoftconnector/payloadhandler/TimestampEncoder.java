@@ -0,0 +1,210 @@
+package com.hms.flexyosisoftconnector.payloadhandler;
+
+import com.hms_networks.americas.sc.extensions.datapoint.DataPoint;
+import com.hms_networks.americas.sc.extensions.logging.Logger;
+import com.hms_networks.americas.sc.extensions.system.time.SCTimeUtils;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+/**
+ * Writes ISO 8601 data point timestamps into a {@link PayloadByteBuffer}.
+ *
+ * <p>Historical data is clustered in time, so most data points of a payload share the same minute.
+ * The encoder formats the first data point of each minute with the local time formatter of {@link
+ * SCTimeUtils#getIso8601LocalTimeFormat()}, which formats data point timestamps, and caches the
+ * date, hour and minute prefix along with the zone offset suffix. Other data points within the same
+ * minute only have their seconds digits written between the cached prefix and suffix.
+ *
+ * <p>The cache is keyed by the epoch minute, so a zone offset change such as a daylight saving time
+ * transition is picked up from the existing formatter on the first data point after it occurs.
+ *
+ * @author HMS Networks, MU Americas Solution Center
+ */
+public class TimestampEncoder {
+
+  /** Number of seconds in a minute. */
+  private static final int SECONDS_PER_MINUTE = 60;
+
+  /** Number of seconds in a day. */
+  private static final int SECONDS_PER_DAY = 86400;
+
+  /** Number of seconds in an hour. */
+  private static final int SECONDS_PER_HOUR = 3600;
+
+  /** Number of milliseconds in a second. */
+  private static final long MILLISECONDS_PER_SECOND = 1000;
+
+  /** Index of the first seconds digit in an ISO 8601 timestamp (yyyy-MM-ddTHH:mm:ss). */
+  private static final int SECONDS_INDEX = 17;
+
+  /** Epoch minute of the cached prefix and suffix, or -1 if nothing is cached. */
+  private long cachedEpochMinute = -1;
+
+  /** Cached timestamp bytes before the seconds digits. */
+  private byte[] cachedPrefix;
+
+  /** Cached timestamp bytes after the seconds digits, such as the zone offset. */
+  private byte[] cachedSuffix;
+
+  /**
+   * Flag indicating that the formatter output cannot be split around the seconds digits, so every
+   * timestamp is formatted in full.
+   */
+  private boolean cachingDisabled = false;
+
+  /**
+   * Write the formatted timestamp of a data point to a buffer.
+   *
+   * @param buffer buffer to write the timestamp to
+   * @param dataPoint data point to write the timestamp of, named in the log if it is not formatted
+   * @param epochSeconds timestamp of the data point in seconds since the epoch
+   */
+  public void write(PayloadByteBuffer buffer, DataPoint dataPoint, long epochSeconds) {
+    final long epochMinute = floorDiv(epochSeconds, SECONDS_PER_MINUTE);
+    final int seconds = (int) (epochSeconds - (epochMinute * SECONDS_PER_MINUTE));
+
+    if (epochMinute != cachedEpochMinute || cachingDisabled) {
+      final String timestamp = format(dataPoint, epochSeconds);
+      if (timestamp == null) {
+        // Fall back to the raw timestamp as the formatter failed
+        buffer.append(epochSeconds);
+        return;
+      }
+
+      updateCache(timestamp, epochMinute, seconds);
+      if (cachingDisabled) {
+        buffer.append(timestamp);
+        return;
+      }
+    }
+
+    buffer.append(cachedPrefix);
+    buffer.append((byte) ('0' + (seconds / 10)));
+    buffer.append((byte) ('0' + (seconds % 10)));
+    buffer.append(cachedSuffix);
+  }
+
+  /**
+   * Write a timestamp in seconds since the epoch as an ISO 8601 UTC timestamp, such as
+   * 2021-03-04T05:06:07Z. This is used for values which are not read from a data point, such as
+   * aggregates.
+   *
+   * @param buffer buffer to write the timestamp to
+   * @param epochSeconds timestamp in seconds since the epoch
+   */
+  public static void writeUtc(PayloadByteBuffer buffer, long epochSeconds) {
+    final long epochDay = floorDiv(epochSeconds, SECONDS_PER_DAY);
+    final int secondOfDay = (int) (epochSeconds - (epochDay * SECONDS_PER_DAY));
+
+    // Convert the day to a civil date, see http://howardhinnant.github.io/date_algorithms.html
+    final long shiftedDay = epochDay + 719468;
+    final long era = floorDiv(shiftedDay, 146097);
+    final int dayOfEra = (int) (shiftedDay - (era * 146097));
+    final int yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+    final int dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+    final int shiftedMonth = (5 * dayOfYear + 2) / 153;
+    final int day = dayOfYear - (153 * shiftedMonth + 2) / 5 + 1;
+    final int month = shiftedMonth < 10 ? shiftedMonth + 3 : shiftedMonth - 9;
+    final long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+
+    writeDigits(buffer, (int) year, 4);
+    buffer.append((byte) '-');
+    writeDigits(buffer, month, 2);
+    buffer.append((byte) '-');
+    writeDigits(buffer, day, 2);
+    buffer.append((byte) 'T');
+    writeDigits(buffer, secondOfDay / SECONDS_PER_HOUR, 2);
+    buffer.append((byte) ':');
+    writeDigits(buffer, (secondOfDay % SECONDS_PER_HOUR) / SECONDS_PER_MINUTE, 2);
+    buffer.append((byte) ':');
+    writeDigits(buffer, secondOfDay % SECONDS_PER_MINUTE, 2);
+    buffer.append((byte) 'Z');
+  }
+
+  /**
+   * Write a non-negative number with leading zeros.
+   *
+   * @param buffer buffer to write the number to
+   * @param value number to write
+   * @param digits number of digits to write
+   */
+  private static void writeDigits(PayloadByteBuffer buffer, int value, int digits) {
+    int divisor = 1;
+    for (int i = 1; i < digits; i++) {
+      divisor *= 10;
+    }
+    for (; divisor > 0; divisor /= 10) {
+      buffer.append((byte) ('0' + ((value / divisor) % 10)));
+    }
+  }
+
+  /**
+   * Format a data point timestamp with the local time formatter. The formatter may be shared, so it
+   * is locked while formatting.
+   *
+   * @param dataPoint data point to format the timestamp of
+   * @param epochSeconds timestamp of the data point in seconds since the epoch
+   * @return formatted timestamp, or null if the timestamp could not be formatted
+   */
+  private static String format(DataPoint dataPoint, long epochSeconds) {
+    try {
+      final SimpleDateFormat formatter = SCTimeUtils.getIso8601LocalTimeFormat();
+      synchronized (formatter) {
+        return formatter.format(new Date(epochSeconds * MILLISECONDS_PER_SECOND));
+      }
+    } catch (Exception e) {
+      Logger.LOG_SERIOUS(
+          "Unable to format data point timestamp "
+              + epochSeconds
+              + (dataPoint != null ? " for tag: " + dataPoint.getTagName() : "")
+              + ". Using raw timestamp.");
+      Logger.LOG_EXCEPTION(e);
+      return null;
+    }
+  }
+
+  /**
+   * Cache the prefix and suffix of a formatted timestamp. Caching is disabled if the seconds
+   * digits are not where they are expected to be.
+   *
+   * @param timestamp formatted timestamp
+   * @param epochMinute epoch minute of the timestamp
+   * @param seconds seconds within the minute of the timestamp
+   */
+  private void updateCache(String timestamp, long epochMinute, int seconds) {
+    final boolean splittable =
+        timestamp.length() > SECONDS_INDEX + 1
+            && timestamp.charAt(SECONDS_INDEX - 1) == ':'
+            && timestamp.charAt(SECONDS_INDEX) == (char) ('0' + (seconds / 10))
+            && timestamp.charAt(SECONDS_INDEX + 1) == (char) ('0' + (seconds % 10));
+
+    if (!splittable) {
+      if (!cachingDisabled) {
+        Logger.LOG_DEBUG("Unexpected timestamp format " + timestamp + ". Timestamps not cached.");
+      }
+      cachingDisabled = true;
+      cachedEpochMinute = -1;
+      return;
+    }
+
+    cachingDisabled = false;
+    cachedEpochMinute = epochMinute;
+    cachedPrefix = PayloadByteBuffer.bytesOf(timestamp.substring(0, SECONDS_INDEX));
+    cachedSuffix = PayloadByteBuffer.bytesOf(timestamp.substring(SECONDS_INDEX + 2));
+  }
+
+  /**
+   * Divide rounding towards negative infinity.
+   *
+   * @param dividend value to divide
+   * @param divisor positive value to divide by
+   * @return the floored quotient
+   */
+  private static long floorDiv(long dividend, long divisor) {
+    long quotient = dividend / divisor;
+    if (dividend % divisor < 0) {
+      quotient--;
+    }
+    return quotient;
+  }
+}
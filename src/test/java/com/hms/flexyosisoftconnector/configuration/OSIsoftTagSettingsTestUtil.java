@@ -0,0 +1,22 @@
+package com.hms.flexyosisoftconnector.configuration;
+
+import com.hms_networks.americas.sc.extensions.json.JSONException;
+import com.hms_networks.americas.sc.extensions.json.JSONObject;
+
+/**
+ * Loads per-tag settings for tests of other packages, without reading the configuration file.
+ *
+ * @author HMS Networks, MU Americas Solution Center
+ */
+public class OSIsoftTagSettingsTestUtil {
+
+  /**
+   * Load the per-tag settings from an AppConfig section.
+   *
+   * @param appConfig JSON of the AppConfig section, such as {@code {"TagSettings": {...}}}
+   * @throws JSONException if the JSON is invalid
+   */
+  public static void load(String appConfig) throws JSONException {
+    OSIsoftTagSettings.load(new JSONObject(appConfig));
+  }
+}
@@ -0,0 +1,267 @@
+package com.hms.flexyosisoftconnector.datafilter;
+
+import com.hms.flexyosisoftconnector.configuration.OSIsoftTagSettingsTestUtil;
+import com.hms.flexyosisoftconnector.payloadhandler.TagDescriptor;
+import com.hms_networks.americas.sc.extensions.datapoint.DataPoint;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import junit.framework.TestCase;
+
+/**
+ * Tests the {@link SwingingDoorCompressor} against a reference swinging door implementation, which
+ * checks the straight line from the last passed value to each new value against every value since.
+ *
+ * @author HMS Networks, MU Americas Solution Center
+ */
+public class SwingingDoorCompressorTest extends TestCase {
+
+  /**
+   * Compression deviation of each test tag. The deviations are not multiples of the value
+   * resolution, so no value lies exactly on a door, where rounding may differ between the
+   * implementations.
+   */
+  private static final double[] DEVIATIONS = {0.3713, 1.5217, 0.2531};
+
+  /** Compression maximum time of each test tag in seconds. */
+  private static final long[] MAX_TIMES_SECONDS = {600, 3600, 120};
+
+  /** Number of values of the simulated trace of each tag. */
+  private static final int VALUE_COUNT = 20000;
+
+  /** Number of data points appended between the ends of spans. */
+  private static final int SPAN_DATA_POINTS = 50;
+
+  /** Timestamp of the first value of the simulated traces. */
+  private static final long START_EPOCH_SECONDS = 1700000000L;
+
+  /** Descriptors of the test tags. */
+  private TagDescriptor[] descriptors;
+
+  /** Timestamps passed on by the compressor for each test tag. */
+  private List[] passedTimes;
+
+  /** Compressor under test, passing on to a stage recording the timestamps. */
+  private SwingingDoorCompressor compressor;
+
+  protected void setUp() throws Exception {
+    StringBuffer settings = new StringBuffer("{\"TagSettings\": {");
+    descriptors = new TagDescriptor[DEVIATIONS.length];
+    passedTimes = new List[DEVIATIONS.length];
+    for (int i = 0; i < DEVIATIONS.length; i++) {
+      final String tagName = "Tag" + i;
+      descriptors[i] =
+          new TagDescriptor(i, i, tagName, "", tagName + "-number", "number", "number");
+      passedTimes[i] = new ArrayList();
+      if (i > 0) {
+        settings.append(',');
+      }
+      settings.append('"').append(tagName).append("\": {");
+      settings.append('"').append(SwingingDoorCompressor.COMPRESSION_DEVIATION_SETTING);
+      settings.append("\": ").append(DEVIATIONS[i]).append(", ");
+      settings.append('"').append(SwingingDoorCompressor.COMPRESSION_MAX_SECONDS_SETTING);
+      settings.append("\": ").append(MAX_TIMES_SECONDS[i]).append('}');
+    }
+    settings.append("}}");
+    OSIsoftTagSettingsTestUtil.load(settings.toString());
+
+    compressor =
+        new SwingingDoorCompressor(
+            new DataPointSink() {
+              public void append(
+                  DataPoint dataPoint, TagDescriptor descriptor, long epochSeconds) {
+                passedTimes[descriptor.getOrdinal()].add(new Long(epochSeconds));
+              }
+
+              public void endOfSpan(long latestEpochSeconds) {}
+            },
+            1);
+  }
+
+  protected void tearDown() throws Exception {
+    OSIsoftTagSettingsTestUtil.load("{}");
+  }
+
+  /**
+   * Test that the compressor passes on the same values as the reference implementation for
+   * simulated process traces of several tags, appended in timestamp order in spans.
+   */
+  public void testMatchesReference() {
+    final long[][] times = new long[DEVIATIONS.length][];
+    final double[][] values = new double[DEVIATIONS.length][];
+    Random random = new Random(42);
+    for (int i = 0; i < DEVIATIONS.length; i++) {
+      times[i] = new long[VALUE_COUNT];
+      values[i] = new double[VALUE_COUNT];
+      simulateTrace(random, times[i], values[i]);
+    }
+
+    // append the values of all tags in timestamp order, ending a span every few data points
+    int[] nextIndexes = new int[DEVIATIONS.length];
+    long latestEpochSeconds = 0;
+    int spanDataPoints = 0;
+    while (true) {
+      int tag = -1;
+      for (int i = 0; i < DEVIATIONS.length; i++) {
+        if (nextIndexes[i] < VALUE_COUNT
+            && (tag < 0 || times[i][nextIndexes[i]] < times[tag][nextIndexes[tag]])) {
+          tag = i;
+        }
+      }
+      if (tag < 0) {
+        break;
+      }
+
+      final int index = nextIndexes[tag]++;
+      latestEpochSeconds = times[tag][index];
+      compressor.appendValue(null, descriptors[tag], values[tag][index], latestEpochSeconds);
+      if (++spanDataPoints == SPAN_DATA_POINTS) {
+        compressor.endOfSpan(latestEpochSeconds);
+        spanDataPoints = 0;
+      }
+    }
+
+    for (int i = 0; i < DEVIATIONS.length; i++) {
+      List expected =
+          compressReference(times[i], values[i], DEVIATIONS[i], MAX_TIMES_SECONDS[i]);
+      List passed = passedTimes[i];
+      // the last value may still be held by the compressor
+      if (passed.size() == expected.size() - 1) {
+        passed.add(expected.get(expected.size() - 1));
+      }
+      assertEquals("Passed values of tag " + i, expected, passed);
+      assertTrue("Tag " + i + " was not compressed", expected.size() < VALUE_COUNT / 2);
+    }
+    assertTrue(compressor.getDroppedCount() > 0);
+  }
+
+  /** Test that the end of a span passes on a held value once the maximum time has passed. */
+  public void testEndOfSpanReleasesHeldValue() {
+    final TagDescriptor descriptor = descriptors[0];
+    final long maxTimeSeconds = MAX_TIMES_SECONDS[0];
+    compressor.appendValue(null, descriptor, 10, START_EPOCH_SECONDS);
+    compressor.appendValue(null, descriptor, 10.1, START_EPOCH_SECONDS + 5);
+    compressor.appendValue(null, descriptor, 10.2, START_EPOCH_SECONDS + 10);
+
+    compressor.endOfSpan(START_EPOCH_SECONDS + maxTimeSeconds);
+    assertEquals(1, passedTimes[0].size());
+
+    compressor.endOfSpan(START_EPOCH_SECONDS + maxTimeSeconds + 1);
+    assertEquals(2, passedTimes[0].size());
+    assertEquals(new Long(START_EPOCH_SECONDS + 10), passedTimes[0].get(1));
+
+    // the released value is the start of new doors
+    compressor.appendValue(null, descriptor, 10.3, START_EPOCH_SECONDS + maxTimeSeconds + 2);
+    compressor.endOfSpan(START_EPOCH_SECONDS + maxTimeSeconds + 2);
+    assertEquals(2, passedTimes[0].size());
+  }
+
+  /** Test that a value held for longer than the maximum time is passed on without newer data. */
+  public void testHeldValueReleasedByAge() {
+    final TagDescriptor descriptor = descriptors[0];
+    final long maxTimeMillis = MAX_TIMES_SECONDS[0] * 1000;
+    compressor.appendValue(null, descriptor, 10, START_EPOCH_SECONDS);
+    compressor.appendValue(null, descriptor, 10.1, START_EPOCH_SECONDS + 5);
+    final long heldMillis = System.currentTimeMillis();
+
+    compressor.releaseHeld(START_EPOCH_SECONDS + 5, heldMillis);
+    assertEquals(1, passedTimes[0].size());
+
+    compressor.releaseHeld(START_EPOCH_SECONDS + 5, heldMillis + maxTimeMillis + 1000);
+    assertEquals(2, passedTimes[0].size());
+    assertEquals(new Long(START_EPOCH_SECONDS + 5), passedTimes[0].get(1));
+  }
+
+  /**
+   * Fill arrays with a simulated process trace: a slowly drifting value with noise and occasional
+   * steps, quantized to the resolution of a sensor, sampled every few seconds with occasional gaps
+   * longer than the compression maximum time.
+   *
+   * @param random random number generator
+   * @param times array to fill with increasing timestamps
+   * @param values array to fill with values
+   */
+  private static void simulateTrace(Random random, long[] times, double[] values) {
+    long time = START_EPOCH_SECONDS + random.nextInt(10);
+    double level = 50;
+    double drift = 0;
+    for (int i = 0; i < times.length; i++) {
+      if (random.nextInt(500) == 0) {
+        time += 1000 + random.nextInt(6000);
+      } else {
+        time += 1 + random.nextInt(10);
+      }
+      if (random.nextInt(200) == 0) {
+        level += random.nextGaussian() * 20;
+      }
+      if (random.nextInt(50) == 0) {
+        drift = random.nextGaussian() * 0.05;
+      }
+      level += drift;
+      times[i] = time;
+      values[i] = Math.round((level + random.nextGaussian() * 0.2) * 10) / 10.0;
+    }
+  }
+
+  /**
+   * Reference swinging door compression. A value is dropped while the straight line from the last
+   * passed value to the newest value stays within the deviation of every value in between, and the
+   * newest value is less than the maximum time after the last passed value. The newest value is
+   * always included, as it would be passed on once later values arrive.
+   *
+   * @param times timestamps of the values
+   * @param values values to compress
+   * @param deviation compression deviation
+   * @param maxTimeSeconds compression maximum time in seconds
+   * @return timestamps of the values which are passed on
+   */
+  private static List compressReference(
+      long[] times, double[] values, double deviation, long maxTimeSeconds) {
+    List passed = new ArrayList();
+    passed.add(new Long(times[0]));
+    int archived = 0;
+    int held = -1;
+    for (int i = 1; i < times.length; i++) {
+      if (held >= 0 && !fitsLine(times, values, archived, i, deviation, maxTimeSeconds)) {
+        passed.add(new Long(times[held]));
+        archived = held;
+      }
+      held = i;
+    }
+    passed.add(new Long(times[held]));
+    return passed;
+  }
+
+  /**
+   * Check if all values after the archived value and before the newest value are within the
+   * deviation of the straight line between them, and the maximum time has not passed.
+   *
+   * @param times timestamps of the values
+   * @param values values
+   * @param archived index of the last passed value
+   * @param newest index of the newest value
+   * @param deviation compression deviation
+   * @param maxTimeSeconds compression maximum time in seconds
+   * @return true if the values in between can be dropped
+   */
+  private static boolean fitsLine(
+      long[] times,
+      double[] values,
+      int archived,
+      int newest,
+      double deviation,
+      long maxTimeSeconds) {
+    if (times[newest] - times[archived] > maxTimeSeconds) {
+      return false;
+    }
+    final double slope =
+        (values[newest] - values[archived]) / (times[newest] - times[archived]);
+    for (int i = archived + 1; i < newest; i++) {
+      final double lineValue = values[archived] + slope * (times[i] - times[archived]);
+      if (Math.abs(lineValue - values[i]) > deviation) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
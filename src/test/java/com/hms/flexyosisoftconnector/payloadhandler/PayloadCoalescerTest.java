@@ -0,0 +1,99 @@
+package com.hms.flexyosisoftconnector.payloadhandler;
+
+import java.util.Random;
+import junit.framework.TestCase;
+
+/**
+ * Tests that the {@link PayloadCoalescer} returns its values grouped by container in the order the
+ * containers were first seen, and applies its flush limits.
+ *
+ * @author HMS Networks, MU Americas Solution Center
+ */
+public class PayloadCoalescerTest extends TestCase {
+
+  /** Number of test containers. */
+  private static final int CONTAINER_COUNT = 40;
+
+  /** Descriptors of the test containers. */
+  private TagDescriptor[] descriptors;
+
+  protected void setUp() {
+    descriptors = new TagDescriptor[CONTAINER_COUNT];
+    for (int i = 0; i < CONTAINER_COUNT; i++) {
+      descriptors[i] = new TagDescriptor(i, i, "Tag" + i, "", "Tag" + i, "number", "number");
+    }
+  }
+
+  /** Test the flush order of random values over several flushes, and the flush statistics. */
+  public void testGroupsByContainer() {
+    PayloadCoalescer coalescer = new PayloadCoalescer();
+    Random random = new Random(16);
+    long valueCount = 0;
+    long containerCount = 0;
+    for (int flush = 0; flush < 20; flush++) {
+      // more values than the initial capacity, of containers beyond the initial capacity
+      final int sampleCount = 1 + random.nextInt(1000);
+      final int[] containers = new int[sampleCount];
+      final int[] firstSeen = new int[CONTAINER_COUNT];
+      int seenCount = 0;
+      for (int i = 0; i < sampleCount; i++) {
+        containers[i] = random.nextInt(CONTAINER_COUNT);
+        boolean seen = false;
+        for (int j = 0; j < seenCount; j++) {
+          seen |= firstSeen[j] == containers[i];
+        }
+        if (!seen) {
+          firstSeen[seenCount++] = containers[i];
+        }
+        coalescer.addValue(descriptors[containers[i]], i, flush * 10000L + i, 0);
+      }
+      assertEquals(sampleCount, coalescer.getSampleCount());
+
+      // the values of each container in the order they were added, containers in first seen order
+      final int[] samples = coalescer.startFlush(flush % 2 == 0);
+      int position = 0;
+      for (int j = 0; j < seenCount; j++) {
+        for (int i = 0; i < sampleCount; i++) {
+          if (containers[i] == firstSeen[j]) {
+            final int sample = samples[position++];
+            assertNull(coalescer.getDataPoint(sample));
+            assertSame(descriptors[firstSeen[j]], coalescer.getDescriptor(sample));
+            assertEquals(i, coalescer.getValue(sample), 0);
+            assertEquals(flush * 10000L + i, coalescer.getEpochSeconds(sample));
+          }
+        }
+      }
+      assertEquals(sampleCount, position);
+      coalescer.clear();
+      assertEquals(0, coalescer.getSampleCount());
+      assertEquals(0, coalescer.getPendingBytes());
+
+      valueCount += sampleCount;
+      containerCount += seenCount;
+    }
+
+    assertEquals(20, coalescer.getFlushCount());
+    assertEquals(10, coalescer.getFullFlushCount());
+    assertEquals(valueCount, coalescer.getFlushedValueCount());
+    assertEquals(containerCount, coalescer.getFlushedContainerCount());
+  }
+
+  /** Test the byte budget, value count and coalesce time limits. */
+  public void testFlushLimits() {
+    PayloadCoalescer coalescer = new PayloadCoalescer();
+    assertFalse(coalescer.hasExpired(Long.MAX_VALUE, 0));
+
+    final int headerBytes = descriptors[0].getContainerHeader().length;
+    coalescer.addValue(descriptors[0], 1, 100, 5000);
+    coalescer.addValue(descriptors[0], 2, 101, 6000);
+    assertEquals(
+        headerBytes + 2 * PayloadCoalescer.ESTIMATED_VALUE_BYTES, coalescer.getPendingBytes());
+    assertFalse(coalescer.isFull(coalescer.getPendingBytes() + 1, 3));
+    assertTrue(coalescer.isFull(coalescer.getPendingBytes(), 3));
+    assertTrue(coalescer.isFull(coalescer.getPendingBytes() + 1, 2));
+
+    // the coalesce time is measured from the first value
+    assertFalse(coalescer.hasExpired(6999, 2000));
+    assertTrue(coalescer.hasExpired(7000, 2000));
+  }
+}
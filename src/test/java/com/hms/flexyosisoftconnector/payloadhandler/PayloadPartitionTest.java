@@ -0,0 +1,145 @@
+package com.hms.flexyosisoftconnector.payloadhandler;
+
+import com.hms.flexyosisoftconnector.configuration.OSIsoftConfig;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import junit.framework.TestCase;
+
+/**
+ * Stress tests of the hand-off of payload batches through a {@link PayloadPartition} from the
+ * thread building payloads to its poster worker, with and without the payload spool.
+ *
+ * @author HMS Networks, MU Americas Solution Center
+ */
+public class PayloadPartitionTest extends TestCase {
+
+  /** Number of batches added by the building thread. */
+  private static final int BATCH_COUNT = 5000;
+
+  /** Maximum size of the payload spool in bytes, large enough that no batch is evicted. */
+  private static final long SPOOL_MAX_BYTES = 64L * 1024 * 1024;
+
+  /** Directory of the payload spool of the test. */
+  private File spoolDirectory;
+
+  /** First failure of the building or poster thread, or null. */
+  private volatile Throwable failure;
+
+  protected void setUp() {
+    spoolDirectory =
+        new File(
+            System.getProperty("java.io.tmpdir"),
+            "payload-partition-test-" + System.currentTimeMillis());
+  }
+
+  protected void tearDown() {
+    File[] files = spoolDirectory.listFiles();
+    if (files != null) {
+      for (int i = 0; i < files.length; i++) {
+        files[i].delete();
+      }
+    }
+    spoolDirectory.delete();
+  }
+
+  /** Test the hand-off through the payload queue only. */
+  public void testWithoutSpool() throws InterruptedException {
+    PayloadPartition partition =
+        new PayloadPartition(0, OSIsoftConfig.OMF, 4, 600, spoolDirectory.getPath() + "/", 0);
+    runHandOff(partition);
+    assertEquals(0, partition.getSpoolBytes());
+  }
+
+  /**
+   * Test the hand-off while payloads are written to the spool when the queue is full or the server
+   * cannot be reached, and read back from the spool when the queue is empty.
+   */
+  public void testWithSpool() throws InterruptedException {
+    PayloadPartition partition =
+        new PayloadPartition(
+            0, OSIsoftConfig.OMF, 4, 600, spoolDirectory.getPath() + "/", SPOOL_MAX_BYTES);
+    runHandOff(partition);
+    assertNull(partition.getNextBatch());
+  }
+
+  /**
+   * Run a building thread adding batches to a partition while a poster thread sends them. The
+   * poster sometimes fails to connect, leaving the batch at the top of the queue, and sometimes
+   * replaces it by the two parts of a split batch. Checks the order of the sent batches.
+   *
+   * @param partition partition to test
+   * @throws InterruptedException if the test is interrupted
+   */
+  private void runHandOff(final PayloadPartition partition) throws InterruptedException {
+    final List sent = new ArrayList();
+
+    Thread builder =
+        new Thread() {
+          public void run() {
+            Random random = new Random(0);
+            try {
+              for (int seq = 0; seq < BATCH_COUNT; seq++) {
+                partition.addToQueue(
+                    PayloadQueueTest.newBatch("0" + PayloadQueueTest.ID_SEPARATOR + seq, random));
+              }
+            } catch (Throwable e) {
+              failure = e;
+            }
+          }
+        };
+
+    Thread poster =
+        new Thread() {
+          public void run() {
+            Random random = new Random(-1);
+            try {
+              int wholeBatches = 0;
+              while (wholeBatches < BATCH_COUNT) {
+                PayloadBatch batch = partition.waitForNextBatch();
+                final String id = PayloadQueueTest.getBatchId(batch);
+                if (random.nextInt(6) == 0) {
+                  // the server could not be reached and the batch is sent again
+                  partition.setServerReachable(false);
+                  continue;
+                }
+
+                partition.setServerReachable(true);
+                if (PayloadQueueTest.isWhole(id) && random.nextInt(8) == 0) {
+                  // the batch was rejected and is sent again in two parts
+                  partition.replaceNextBatch(
+                      new PayloadBatch[] {
+                        PayloadQueueTest.newBatch(id + PayloadQueueTest.ID_SEPARATOR + 0, random),
+                        PayloadQueueTest.newBatch(id + PayloadQueueTest.ID_SEPARATOR + 1, random)
+                      });
+                  continue;
+                }
+
+                if (random.nextBoolean()) {
+                  assertEquals(batch.getPayload(), partition.popNextPayload());
+                } else {
+                  partition.replaceNextBatch(new PayloadBatch[0]);
+                }
+                sent.add(id);
+                if (PayloadQueueTest.isWhole(id)
+                    || id.endsWith(PayloadQueueTest.ID_SEPARATOR + "1")) {
+                  wholeBatches++;
+                }
+              }
+            } catch (Throwable e) {
+              failure = e;
+            }
+          }
+        };
+
+    poster.start();
+    builder.start();
+    builder.join(PayloadQueueTest.JOIN_TIMEOUT_MILLIS);
+    poster.join(PayloadQueueTest.JOIN_TIMEOUT_MILLIS);
+
+    assertNull("Thread failed: " + failure, failure);
+    assertFalse("Poster did not finish", poster.isAlive());
+    PayloadQueueTest.assertConsumedInOrder(sent, 1, BATCH_COUNT);
+  }
+}
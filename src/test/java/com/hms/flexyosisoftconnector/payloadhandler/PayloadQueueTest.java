@@ -0,0 +1,197 @@
+package com.hms.flexyosisoftconnector.payloadhandler;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import junit.framework.TestCase;
+
+/**
+ * Stress tests of the hand-off of payload batches through a {@link PayloadQueue} between producer
+ * threads and a consumer thread, which checks that no batch is lost or reordered.
+ *
+ * @author HMS Networks, MU Americas Solution Center
+ */
+public class PayloadQueueTest extends TestCase {
+
+  /** Number of batches added by each producer. */
+  static final int BATCHES_PER_PRODUCER = 20000;
+
+  /** Maximum time in milliseconds to wait for the threads to finish. */
+  static final long JOIN_TIMEOUT_MILLIS = 60000;
+
+  /** Separator between the ID and the padding of a test payload. */
+  static final char PADDING_SEPARATOR = '|';
+
+  /** Separator between the producer, sequence number and part of a test payload ID. */
+  static final char ID_SEPARATOR = ':';
+
+  /** First failure of a producer or consumer thread, or null. */
+  private volatile Throwable failure;
+
+  /** Test one producer and one consumer with a small queue which is full most of the time. */
+  public void testSingleProducer() throws InterruptedException {
+    runHandOff(1, 4, 600);
+  }
+
+  /** Test several producers adding to the same queue. */
+  public void testMultipleProducers() throws InterruptedException {
+    runHandOff(4, 8, 2000);
+  }
+
+  /** Test a byte budget smaller than some batches, which are only added to an empty queue. */
+  public void testBatchesLargerThanBudget() throws InterruptedException {
+    runHandOff(2, 16, 300);
+  }
+
+  /**
+   * Run producer threads adding batches to a queue while a consumer thread removes them, sometimes
+   * replacing the top of the queue by the two parts of a split batch. Checks the order of the
+   * consumed batches and that the queue holds no bytes afterwards.
+   *
+   * @param producerCount number of producer threads
+   * @param capacity maximum number of batches in the queue
+   * @param budgetBytes maximum number of estimated heap bytes in the queue
+   * @throws InterruptedException if the test is interrupted
+   */
+  private void runHandOff(int producerCount, int capacity, long budgetBytes)
+      throws InterruptedException {
+    final PayloadQueue queue = new PayloadQueue(capacity, budgetBytes);
+    final int totalBatches = producerCount * BATCHES_PER_PRODUCER;
+    final List consumed = new ArrayList();
+
+    Thread[] producers = new Thread[producerCount];
+    for (int p = 0; p < producerCount; p++) {
+      final int producer = p;
+      producers[p] =
+          new Thread() {
+            public void run() {
+              Random random = new Random(producer);
+              try {
+                for (int seq = 0; seq < BATCHES_PER_PRODUCER; seq++) {
+                  queue.put(newBatch(producer + "" + ID_SEPARATOR + seq, random));
+                }
+              } catch (Throwable e) {
+                failure = e;
+              }
+            }
+          };
+    }
+
+    Thread consumer =
+        new Thread() {
+          public void run() {
+            Random random = new Random(-1);
+            try {
+              int wholeBatches = 0;
+              while (wholeBatches < totalBatches) {
+                PayloadBatch batch = queue.waitForHead();
+                final String id = getBatchId(batch);
+                if (isWhole(id) && random.nextInt(8) == 0) {
+                  // the batch was rejected and is sent again in two parts
+                  queue.replaceHead(
+                      new PayloadBatch[] {
+                        newBatch(id + ID_SEPARATOR + 0, random),
+                        newBatch(id + ID_SEPARATOR + 1, random)
+                      });
+                  continue;
+                }
+
+                if (random.nextBoolean()) {
+                  assertSame(batch, queue.poll());
+                } else {
+                  queue.replaceHead(new PayloadBatch[0]);
+                }
+                consumed.add(id);
+                if (isWhole(id) || id.endsWith(ID_SEPARATOR + "1")) {
+                  wholeBatches++;
+                }
+              }
+            } catch (Throwable e) {
+              failure = e;
+            }
+          }
+        };
+
+    consumer.start();
+    for (int p = 0; p < producerCount; p++) {
+      producers[p].start();
+    }
+    for (int p = 0; p < producerCount; p++) {
+      producers[p].join(JOIN_TIMEOUT_MILLIS);
+    }
+    consumer.join(JOIN_TIMEOUT_MILLIS);
+
+    assertNull("Thread failed: " + failure, failure);
+    assertFalse("Consumer did not finish", consumer.isAlive());
+    assertConsumedInOrder(consumed, producerCount, BATCHES_PER_PRODUCER);
+    assertEquals(0, queue.size());
+    assertEquals(0, queue.getHeldBytes());
+  }
+
+  /**
+   * Create a test batch with the specified ID and a random amount of padding.
+   *
+   * @param id producer, sequence number and optional part of the batch
+   * @param random random number generator for the padding
+   * @return test batch
+   */
+  static PayloadBatch newBatch(String id, Random random) {
+    StringBuffer payload = new StringBuffer(id).append(PADDING_SEPARATOR);
+    final int paddingLength = random.nextInt(10) == 0 ? 400 : random.nextInt(100);
+    for (int i = 0; i < paddingLength; i++) {
+      payload.append('x');
+    }
+    return new PayloadBatch(payload.toString());
+  }
+
+  /**
+   * Get the ID of a test batch.
+   *
+   * @param batch test batch
+   * @return ID of the batch
+   */
+  static String getBatchId(PayloadBatch batch) {
+    final String payload = batch.getPayload();
+    return payload.substring(0, payload.indexOf(PADDING_SEPARATOR));
+  }
+
+  /**
+   * Check if a test batch ID is of a whole batch rather than a part of a split batch.
+   *
+   * @param id test batch ID
+   * @return true for a whole batch
+   */
+  static boolean isWhole(String id) {
+    return id.indexOf(ID_SEPARATOR) == id.lastIndexOf(ID_SEPARATOR);
+  }
+
+  /**
+   * Check that the consumed batches of each producer are in order and complete. A split batch must
+   * be consumed as its first part directly followed by its second part.
+   *
+   * @param consumed IDs of the consumed batches in order
+   * @param producerCount number of producers
+   * @param batchesPerProducer number of batches added by each producer
+   */
+  static void assertConsumedInOrder(List consumed, int producerCount, int batchesPerProducer) {
+    int[] nextSeq = new int[producerCount];
+    for (int i = 0; i < consumed.size(); i++) {
+      final String id = (String) consumed.get(i);
+      final int producerEnd = id.indexOf(ID_SEPARATOR);
+      final int producer = Integer.parseInt(id.substring(0, producerEnd));
+      final String expected = producer + "" + ID_SEPARATOR + nextSeq[producer];
+      if (isWhole(id)) {
+        assertEquals(expected, id);
+      } else {
+        assertEquals(expected + ID_SEPARATOR + 0, id);
+        assertTrue("Missing second part of " + expected, i + 1 < consumed.size());
+        assertEquals(expected + ID_SEPARATOR + 1, consumed.get(++i));
+      }
+      nextSeq[producer]++;
+    }
+
+    for (int p = 0; p < producerCount; p++) {
+      assertEquals("Batches of producer " + p, batchesPerProducer, nextSeq[p]);
+    }
+  }
+}
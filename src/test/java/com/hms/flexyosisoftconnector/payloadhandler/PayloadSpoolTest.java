@@ -0,0 +1,29 @@
+package com.hms.flexyosisoftconnector.payloadhandler;
+
+import java.util.Random;
+import java.util.zip.CRC32;
+import junit.framework.TestCase;
+
+/**
+ * Tests the record checksum of the {@link PayloadSpool}.
+ *
+ * @author HMS Networks, MU Americas Solution Center
+ */
+public class PayloadSpoolTest extends TestCase {
+
+  /** Test the CRC-32 of known inputs and random inputs against the Java implementation. */
+  public void testCrc32() {
+    assertEquals(0, PayloadSpool.crc32(new byte[0], 0));
+    // check value of CRC-32, only the first 9 bytes are included
+    assertEquals(0xcbf43926, PayloadSpool.crc32("123456789xyz".getBytes(), 9));
+
+    Random random = new Random(20231114L);
+    for (int i = 0; i < 1000; i++) {
+      byte[] input = new byte[random.nextInt(2048)];
+      random.nextBytes(input);
+      CRC32 expected = new CRC32();
+      expected.update(input, 0, input.length);
+      assertEquals((int) expected.getValue(), PayloadSpool.crc32(input, input.length));
+    }
+  }
+}
@@ -0,0 +1,142 @@
+package com.hms.flexyosisoftconnector.payloadhandler;
+
+import java.lang.management.ManagementFactory;
+import java.util.Iterator;
+import java.util.Random;
+import java.util.TreeSet;
+import junit.framework.TestCase;
+
+/**
+ * Tests the {@link TagIdMap} on sparse tag IDs, and compares the memory of per-tag structures
+ * indexed by ordinal with structures indexed by the range of tag IDs.
+ *
+ * @author HMS Networks, MU Americas Solution Center
+ */
+public class TagIdMapTest extends TestCase {
+
+  /** Number of tags of the sparse tag ID fixture. */
+  private static final int TAG_COUNT = 500;
+
+  /** Largest tag ID of the sparse tag ID fixture. */
+  private static final int MAX_TAG_ID = 1000000;
+
+  /** Tag IDs of the fixture in increasing order, the order ordinals are assigned in. */
+  private int[] tagIds;
+
+  protected void setUp() {
+    Random random = new Random(1);
+    TreeSet ids = new TreeSet();
+    while (ids.size() < TAG_COUNT) {
+      ids.add(new Integer(1 + random.nextInt(MAX_TAG_ID)));
+    }
+
+    tagIds = new int[TAG_COUNT];
+    int ordinal = 0;
+    for (Iterator it = ids.iterator(); it.hasNext(); ) {
+      tagIds[ordinal++] = ((Integer) it.next()).intValue();
+    }
+  }
+
+  /** Test that sparse tag IDs map to their ordinals and other IDs are not found. */
+  public void testSparseIds() {
+    TagIdMap map = newMap(TAG_COUNT);
+    assertEquals(TAG_COUNT, map.size());
+    for (int ordinal = 0; ordinal < TAG_COUNT; ordinal++) {
+      assertEquals(ordinal, map.get(tagIds[ordinal]));
+    }
+
+    int notFound = 0;
+    for (int tagId = 0; tagId <= MAX_TAG_ID; tagId++) {
+      if (map.get(tagId) == TagIdMap.NOT_FOUND) {
+        notFound++;
+      }
+    }
+    assertEquals(MAX_TAG_ID + 1 - TAG_COUNT, notFound);
+  }
+
+  /** Test a map which grows from no expected entries, and replacing the ordinal of a tag ID. */
+  public void testGrowAndReplace() {
+    TagIdMap map = newMap(0);
+    assertEquals(TAG_COUNT, map.size());
+    for (int ordinal = 0; ordinal < TAG_COUNT; ordinal++) {
+      assertEquals(ordinal, map.get(tagIds[ordinal]));
+    }
+
+    map.put(tagIds[0], TAG_COUNT);
+    assertEquals(TAG_COUNT, map.size());
+    assertEquals(TAG_COUNT, map.get(tagIds[0]));
+  }
+
+  /** Test that a copy of a map can be changed without changing the original map. */
+  public void testCopy() {
+    TagIdMap map = newMap(TAG_COUNT);
+    TagIdMap copy = map.copy();
+    for (int tagId = MAX_TAG_ID + 1; tagId <= MAX_TAG_ID + TAG_COUNT; tagId++) {
+      copy.put(tagId, tagId - MAX_TAG_ID - 1 + TAG_COUNT);
+    }
+
+    assertEquals(TAG_COUNT, map.size());
+    assertEquals(TAG_COUNT * 2, copy.size());
+    assertEquals(TagIdMap.NOT_FOUND, map.get(MAX_TAG_ID + 1));
+    assertEquals(TAG_COUNT, copy.get(MAX_TAG_ID + 1));
+    for (int ordinal = 0; ordinal < TAG_COUNT; ordinal++) {
+      assertEquals(ordinal, map.get(tagIds[ordinal]));
+      assertEquals(ordinal, copy.get(tagIds[ordinal]));
+    }
+  }
+
+  /**
+   * Compare the heap allocated for the per-tag structures of the fixture: the tag ID map, the
+   * descriptor array and the serializer tag tables indexed by ordinal, against the descriptor array
+   * and the serializer tag tables indexed by the range of tag IDs. The serializer buffers, which do
+   * not depend on the tags, are allocated by both.
+   */
+  public void testMemoryOnSparseIds() {
+    long startBytes = getAllocatedBytes();
+    TagIdMap map = newMap(TAG_COUNT);
+    TagDescriptor[] ordinalDescriptors = new TagDescriptor[TAG_COUNT];
+    PayloadSerializer ordinalSerializer = new PayloadSerializer(1, TAG_COUNT);
+    final long ordinalBytes = getAllocatedBytes() - startBytes;
+
+    startBytes = getAllocatedBytes();
+    final int idRange = tagIds[TAG_COUNT - 1] - tagIds[0] + 1;
+    TagDescriptor[] rangeDescriptors = new TagDescriptor[idRange];
+    PayloadSerializer rangeSerializer = new PayloadSerializer(1, idRange);
+    final long rangeBytes = getAllocatedBytes() - startBytes;
+
+    assertEquals(TAG_COUNT, map.size());
+    assertEquals(TAG_COUNT, ordinalDescriptors.length);
+    assertNotNull(ordinalSerializer);
+    assertEquals(idRange, rangeDescriptors.length);
+    assertNotNull(rangeSerializer);
+
+    // over 10 MB for the ID range against about 100 KB for the ordinals, most of it buffers
+    assertTrue("ID range layout allocated " + rangeBytes + " bytes", rangeBytes > 10000000);
+    assertTrue("Ordinal layout allocated " + ordinalBytes + " bytes", ordinalBytes < 200000);
+  }
+
+  /**
+   * Create a map of the fixture tag IDs to their ordinals.
+   *
+   * @param expectedSize expected size passed to the map
+   * @return tag ID map
+   */
+  private TagIdMap newMap(int expectedSize) {
+    TagIdMap map = new TagIdMap(expectedSize);
+    for (int ordinal = 0; ordinal < TAG_COUNT; ordinal++) {
+      map.put(tagIds[ordinal], ordinal);
+    }
+    return map;
+  }
+
+  /**
+   * Get the number of heap bytes allocated by the current thread so far. This is not affected by
+   * garbage collection, unlike the used heap bytes.
+   *
+   * @return allocated heap bytes
+   */
+  private static long getAllocatedBytes() {
+    return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+        .getThreadAllocatedBytes(Thread.currentThread().getId());
+  }
+}
@@ -0,0 +1,142 @@
+package com.hms.flexyosisoftconnector.payloadhandler;
+
+import com.hms_networks.americas.sc.extensions.system.time.SCTimeUtils;
+import java.util.Date;
+import java.util.Random;
+import java.util.TimeZone;
+import junit.framework.TestCase;
+
+/**
+ * Tests that the {@link TimestampEncoder} writes the same timestamps as the {@link SCTimeUtils}
+ * local time formatter, across minute boundaries and daylight saving time transitions.
+ *
+ * @author HMS Networks, MU Americas Solution Center
+ */
+public class TimestampEncoderTest extends TestCase {
+
+  /** Number of seconds before and after a transition which are tested. */
+  private static final int TRANSITION_RANGE_SECONDS = 2 * 3600;
+
+  /** Time zone of the JVM before the test. */
+  private TimeZone defaultTimeZone;
+
+  protected void setUp() {
+    defaultTimeZone = TimeZone.getDefault();
+  }
+
+  protected void tearDown() {
+    TimeZone.setDefault(defaultTimeZone);
+  }
+
+  /** Test the 2024 transitions of America/New_York, a one hour shift at 2:00 local time. */
+  public void testNewYorkTransitions() {
+    assertTransition("America/New_York", 1710054000L);
+    assertTransition("America/New_York", 1730613600L);
+  }
+
+  /** Test the 2024 transitions of Europe/Berlin, a one hour shift at 1:00 UTC. */
+  public void testBerlinTransitions() {
+    assertTransition("Europe/Berlin", 1711846800L);
+    assertTransition("Europe/Berlin", 1729990800L);
+  }
+
+  /** Test the 2024 transitions of Australia/Lord_Howe, a half hour shift. */
+  public void testLordHoweTransitions() {
+    assertTransition("Australia/Lord_Howe", 1712415600L);
+    assertTransition("Australia/Lord_Howe", 1728142200L);
+  }
+
+  /** Test a zone with a half hour offset and no transitions. */
+  public void testHalfHourOffset() {
+    assertTransition("Asia/Kolkata", 1700000000L);
+  }
+
+  /** Test UTC timestamps across minute, day, month, leap day and century boundaries. */
+  public void testWriteUtc() {
+    // epoch, leap day 2000, end of February 2100, which is not a leap year, and end of 2023
+    final long[] boundaries = {0L, 951782400L, 951868800L, 4107456000L, 4107542400L, 1704067199L};
+    for (int i = 0; i < boundaries.length; i++) {
+      final long startEpochSeconds = boundaries[i] - 61;
+      final long endEpochSeconds = boundaries[i] + 61;
+      for (long epochSeconds = startEpochSeconds; epochSeconds <= endEpochSeconds; epochSeconds++) {
+        assertEquals(formatUtc(epochSeconds), encodeUtc(epochSeconds));
+      }
+    }
+
+    Random random = new Random(4);
+    for (int i = 0; i < 100000; i++) {
+      final long epochSeconds = (random.nextLong() >>> 1) % 8000000000L - 2000000000L;
+      assertEquals(formatUtc(epochSeconds), encodeUtc(epochSeconds));
+    }
+  }
+
+  /**
+   * Check the timestamps written by an encoder at random intervals of a few seconds around a time,
+   * reusing the encoder as a payload does.
+   *
+   * @param timeZoneId ID of the local time zone
+   * @param transitionEpochSeconds time of the transition in seconds since the epoch
+   */
+  private static void assertTransition(String timeZoneId, long transitionEpochSeconds) {
+    TimeZone.setDefault(TimeZone.getTimeZone(timeZoneId));
+    TimestampEncoder encoder = new TimestampEncoder();
+    Random random = new Random(transitionEpochSeconds);
+
+    // every second around the transition, then random steps crossing minutes in their middle
+    long epochSeconds = transitionEpochSeconds - 90;
+    while (epochSeconds < transitionEpochSeconds + 90) {
+      assertEquals(timeZoneId, formatLocal(epochSeconds), encode(encoder, epochSeconds));
+      epochSeconds++;
+    }
+    epochSeconds = transitionEpochSeconds - TRANSITION_RANGE_SECONDS;
+    while (epochSeconds < transitionEpochSeconds + TRANSITION_RANGE_SECONDS) {
+      assertEquals(timeZoneId, formatLocal(epochSeconds), encode(encoder, epochSeconds));
+      epochSeconds += 1 + random.nextInt(7);
+    }
+  }
+
+  /**
+   * Write a timestamp with an encoder.
+   *
+   * @param encoder timestamp encoder
+   * @param epochSeconds timestamp in seconds since the epoch
+   * @return written timestamp
+   */
+  private static String encode(TimestampEncoder encoder, long epochSeconds) {
+    PayloadByteBuffer buffer = new PayloadByteBuffer(32);
+    encoder.write(buffer, null, epochSeconds);
+    return buffer.toString();
+  }
+
+  /**
+   * Format a timestamp with the local time formatter.
+   *
+   * @param epochSeconds timestamp in seconds since the epoch
+   * @return formatted timestamp
+   */
+  private static String formatLocal(long epochSeconds) {
+    return SCTimeUtils.getIso8601LocalTimeFormat().format(new Date(epochSeconds * 1000L));
+  }
+
+  /**
+   * Write a UTC timestamp with the encoder.
+   *
+   * @param epochSeconds timestamp in seconds since the epoch
+   * @return written timestamp
+   */
+  private static String encodeUtc(long epochSeconds) {
+    PayloadByteBuffer buffer = new PayloadByteBuffer(32);
+    TimestampEncoder.writeUtc(buffer, epochSeconds);
+    return buffer.toString();
+  }
+
+  /**
+   * Format a timestamp with the UTC time formatter.
+   *
+   * @param epochSeconds timestamp in seconds since the epoch
+   * @return formatted timestamp
+   */
+  private static String formatUtc(long epochSeconds) {
+    return SCTimeUtils.getIso8601UtcTimeFormat().format(new Date(epochSeconds * 1000L));
+  }
+}